@@ -1,16 +1,35 @@
 package exchangebroker;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import org.json.simple.JSONObject;
 
 import marketwatch.exception.*;
+import marketwatch.tools.CandleSeries;
+import marketwatch.tools.Timeframe;
 
 /** API class to get and post an exchange or a broker. */
 public interface ApiInterface {
 	
+	/** Get exchange or broker name.
+	 * @return Exchange or broker name */
+	public String getExchangeBrokerName();
+	
+	/** Get name that cached and stored data of the exchange or the broker is kept by.
+	 * It is the exchange or broker name, unless requests are sent to a stand-in such as a simulator, so data of a stand-in is never mixed with real data.
+	 * @return Data source name */
+	public String getDataSourceName();
+	
 	/** Show all symbols that are in the exchange or the broker.
 	 * @return All symbols */
 	public String[] showAllSymbols();
 
+	/** Get entry of the symbol in the symbol table. Both formats of the symbol and its symbol ID are precomputed in it.
+	 * @param symbol Symbol (bridge format)
+	 * @return Entry, or null if the symbol is not in the exchange or the broker */
+	public SymbolTable.Entry getSymbolEntry(String symbol);
+
 	/** Return whether the symbol is in the exchange or the broker. 
 	 * @param symbol Symbol
 	 * @return True or false */
@@ -21,11 +40,24 @@ public interface ApiInterface {
 	 * @return True or false */
 	public boolean isTimeframe(String timeframe);
 	
+	/** Change time frame to correct format for the exchange or broker.
+	 * @param timeframe Time frame to be changed
+	 * @return New time frame */
+	public String correctTimeframe(String timeframe);
+	
+	/** Get time frames of the exchange or the broker with their codes in history requests. The map is created once and never changes.
+	 * @return Map of time frame to code of the exchange or the broker */
+	public Map<Timeframe, String> getTimeframeCodes();
+	
 	/** Get the exchage's or the broker's server time in second.
 	 * @return Server time */
 	public long serverTime();
 	
-	/** Get map of history of currency.
+	/** Get the exchage's or the broker's server time in second without blocking.
+	 * @return Future of server time. Server time is -1 if the request is failed. */
+	public CompletableFuture<Long> serverTimeAsync();
+	
+	/** Get history of currency.
 	 * @param symbol Symbol
 	 * @param timeframe Time frame
 	 * @param initialDate Initial date and time to get the set
@@ -33,11 +65,71 @@ public interface ApiInterface {
 	 * @return History of currency
 	 * @throws SymbolException
 	 * @throws TimeframeException */
-	public JSONObject history(String symbol, String timeframe, long initialDate, long finalDate) throws SymbolException, TimeframeException;
+	public CandleSeries history(String symbol, String timeframe, long initialDate, long finalDate) throws SymbolException, TimeframeException;
+	
+	/** Get history of currency without blocking.
+	 * @param symbol Symbol
+	 * @param timeframe Time frame
+	 * @param initialDate Initial date and time to get the set
+	 * @param fianlDate Final date and time to get the set
+	 * @return Future of history of currency. History is null if the request is failed.
+	 * @throws SymbolException
+	 * @throws TimeframeException */
+	public CompletableFuture<CandleSeries> historyAsync(String symbol, String timeframe, long initialDate, long finalDate) throws SymbolException, TimeframeException;
 	
 	/** Get map of the last ticker of currency.
 	 * @param symbol Symbol
 	 * @return The last ticker of currency
 	 * @throws SymbolException */
 	public JSONObject ticker(String symbol) throws SymbolException;
+	
+	/** Get map of the last ticker of currency without blocking.
+	 * @param symbol Symbol
+	 * @return Future of the last ticker of currency. Ticker is null if the request is failed.
+	 * @throws SymbolException */
+	public CompletableFuture<JSONObject> tickerAsync(String symbol) throws SymbolException;
+	
+	/** Get maps of the last tickers of all currencies in one request.
+	 * @return Map of symbol to the last ticker of currency */
+	public Map<String, JSONObject> tickerAll();
+	
+	/** Get maps of the last tickers of all currencies in one request without blocking.
+	 * @return Future of map of symbol to the last ticker of currency. Map is null if the request is failed. */
+	public CompletableFuture<Map<String, JSONObject>> tickerAllAsync();
+	
+	/** Get typed snapshots of the last tickers of all currencies in one request.
+	 * @return Map of symbol to frozen snapshot of the last ticker of currency */
+	public Map<String, TickerSnapshot> tickerSnapshotAll();
+	
+	/** Get typed snapshots of the last tickers of all currencies in one request without blocking.
+	 * The response is parsed straight into snapshots, without a map of each ticker.
+	 * @return Future of map of symbol to frozen snapshot of the last ticker of currency. Map is null if the request is failed. */
+	public CompletableFuture<Map<String, TickerSnapshot>> tickerSnapshotAllAsync();
+	
+	/** Get order book (depth) of currency.
+	 * @param symbol Symbol
+	 * @param limit Maximum number of levels of each side
+	 * @return Frozen order book, or null if the request is failed
+	 * @throws SymbolException */
+	public OrderBook depth(String symbol, int limit) throws SymbolException;
+	
+	/** Get order book (depth) of currency without blocking.
+	 * @param symbol Symbol
+	 * @param limit Maximum number of levels of each side
+	 * @return Future of frozen order book. Book is null if the request is failed.
+	 * @throws SymbolException */
+	public CompletableFuture<OrderBook> depthAsync(String symbol, int limit) throws SymbolException;
+	
+	/** Get order book (depth) of currency into a book of the caller without blocking.
+	 * The request is not shared with other callers, and no book is created for it. Do not read the book until the future is completed.
+	 * @param symbol Symbol
+	 * @param limit Maximum number of levels of each side
+	 * @param into Book that is not frozen. It is not changed if the request is failed.
+	 * @return Future of true if the book is set, or false if the request is failed
+	 * @throws SymbolException */
+	public CompletableFuture<Boolean> depthAsync(String symbol, int limit, OrderBook into) throws SymbolException;
+	
+	/** Get stream of trades and tickers that are pushed by the exchange or the broker.
+	 * @return Tick stream, or null if the exchange or the broker has no stream */
+	public TickStream getTickStream();
 }
\ No newline at end of file
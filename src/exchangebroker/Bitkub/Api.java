@@ -1,80 +1,433 @@
 package exchangebroker.Bitkub;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import exchangebroker.ApiInterface;
+import exchangebroker.OrderBook;
+import exchangebroker.RequestCoalescer;
+import exchangebroker.RequestScheduler;
+import exchangebroker.RequestScheduler.EndpointClass;
+import exchangebroker.ResilientCaller;
+import exchangebroker.SymbolCatalog;
+import exchangebroker.SymbolTable;
+import exchangebroker.TickStream;
+import exchangebroker.TickerSnapshot;
+import marketwatch.tools.CandleSeries;
 import marketwatch.tools.GetPost;
+import marketwatch.tools.HistoryDecoder;
+import marketwatch.tools.Timeframe;
 import marketwatch.tools.TradingView;
 
 public class Api implements ApiInterface {
 	
+	private static final String bitkubBaseUrl = "https://api.bitkub.com";
+	private static final String bitkubStreamUrl = "wss://api.bitkub.com/websocket-api/";
+	/** Base URL of all requests. Set by "marketwatch.bitkub.baseUrl" system property, for example the URL of a Simulator. */
+	private static volatile String baseUrl = System.getProperty("marketwatch.bitkub.baseUrl", bitkubBaseUrl);
+	/** Base URL of streams. Set by "marketwatch.bitkub.streamUrl" system property, for example the URL of a StreamSimulator. */
+	private static volatile String streamUrl = System.getProperty("marketwatch.bitkub.streamUrl", bitkubStreamUrl);
+	/** Shared by all Api objects, so all symbols share one connection. Created when it is first used. */
+	private static MarketStream stream;
+	/** long: Millisecond */
+	private static final long symbolTimeToLive = 1000 * 60 * 10;   // 10 minutes
+	
+	/** Time frames of Bitkub with their resolution codes. */
+	private static final Map<Timeframe, String> timeframeCodes;
+	static {
+		Map<Timeframe, String> codes = new LinkedHashMap<Timeframe, String>();
+		codes.put(Timeframe.M1, "1");
+		codes.put(Timeframe.M5, "5");
+		codes.put(Timeframe.M15, "15");
+		codes.put(Timeframe.M30, "30");
+		codes.put(Timeframe.H1, "60");
+		codes.put(Timeframe.H4, "240");
+		codes.put(Timeframe.D1, "1D");
+		timeframeCodes = Collections.unmodifiableMap(codes);
+	}
+	
+	/** Responses are decoded on the threads of GetPost. Each thread keeps a decoder, so arrays are allocated at the size of its last response. */
+	private static final ThreadLocal<HistoryDecoder> historyDecoders = ThreadLocal.withInitial(HistoryDecoder::new);
+	
+	/** Symbol catalog of each data source. Shared by all Api objects, so the symbols are requested only when the catalog expires.
+	 * Symbols of a simulator are never mixed into the catalog of Bitkub, and they are interned in the symbol table by the name of the simulator. */
+	private static final Map<String, SymbolCatalog> symbolCatalogs = new ConcurrentHashMap<String, SymbolCatalog>();
+	
 	private GetPost gp = new GetPost();
+	/** Concurrent requests of the same URL share one request and one parsed result. */
+	private final RequestCoalescer coalescer = new RequestCoalescer();
+	/** Shared requests are sent with circuit breakers, hedging, and retries. Tickers and books fall back to the last good value. */
+	private final ResilientCaller resilience = new ResilientCaller();
+	/** Books of depth requests into books of callers. A book is used again after it is copied, so polling creates no book. */
+	private final ArrayBlockingQueue<OrderBook> spareBooks = new ArrayBlockingQueue<OrderBook>(16);
+	/** Every request that is actually sent takes a token from the request budget of Bitkub. */
+	private static final RequestScheduler scheduler = RequestScheduler.get("Bitkub");
 	
-	public String[] showAllSymbols() {
-		String url = "https://api.bitkub.com/api/market/symbols";
-		JSONObject obj = gp.getUrlMap(url);
+	/** Gets symbol catalog of the current data source. It is created when the data source is first used.
+	 * @return Symbol catalog */
+	private static SymbolCatalog symbolCatalog() {
+		return symbolCatalogs.computeIfAbsent(dataSourceName(), source -> new SymbolCatalog(source, () -> {
+			//The catalog of Bitkub is always loaded from Bitkub. The catalog of the simulator is loaded from the current base URL unless it is Bitkub.
+			if (source.equals("Bitkub")) {return loadSymbols(bitkubBaseUrl);}
+			String url = baseUrl;
+			return bitkubBaseUrl.equals(url) ? null : loadSymbols(url);
+		}, symbolTimeToLive));
+	}
+	
+	/** Requests all symbols, and precomputes both orientations of each symbol.
+	 * A symbol that does not have exactly two currencies is kept as it is, and the catalog keeps it as a plain symbol.
+	 * @param base Base URL to request
+	 * @return Map of symbol (bridge format) to symbol (Bitkub format), or null if the request is failed */
+	private static Map<String, String> loadSymbols(String base) {
+		String url = base + "/api/market/symbols";
+		scheduler.acquire(EndpointClass.Market).join();
+		JSONObject obj = new GetPost().getUrlMap(url);
+		if (obj == null) {return null;}
 		JSONArray result = (JSONArray)obj.get("result");
-		String[] allSymbols = new String[result.size()];
+		if (result == null) {return null;}
+		TradingView tradingView = new TradingView();
+		Map<String, String> symbols = new HashMap<String, String>();
 		for (int i = 0; i < result.size(); i++) {
 			JSONObject currency = (JSONObject)result.get(i);
-			TradingView tradingView = new TradingView(); 
-			allSymbols[i] = tradingView.swapSymbol((String)currency.get("symbol"));
+			String exchangeSymbol = (String)currency.get("symbol");
+			String symbol = tradingView.swapSymbol(exchangeSymbol);
+			symbols.put(symbol.isEmpty() ? exchangeSymbol : symbol, exchangeSymbol);
 		}
-		Arrays.sort(allSymbols);
-		return allSymbols;
+		return symbols;
 	}
-
-	public boolean isSymbol(String symbol) {
-		String[] allSymbols = showAllSymbols();
-		for (String element : allSymbols) {
-			if (element.equals(symbol)) {
-				return true;
+	
+	public String getExchangeBrokerName() {
+		return "Bitkub";
+	}
+	
+	/** Get name that cached and stored data is kept by. It is "Bitkub-Simulator" while the base URL is not the URL of Bitkub.
+	 * @return "Bitkub" or "Bitkub-Simulator" */
+	public String getDataSourceName() {
+		return dataSourceName();
+	}
+	
+	/** Gets name of the data source of the current base URL. */
+	private static String dataSourceName() {
+		return bitkubBaseUrl.equals(baseUrl) ? "Bitkub" : "Bitkub-Simulator";
+	}
+	
+	/** Gets the request coalescer of Bitkub. It counts how many requests are shared.
+	 * @return Request coalescer */
+	public RequestCoalescer getRequestCoalescer() {
+		return coalescer;
+	}
+	
+	/** Gets the resilient caller of Bitkub. It counts hedged requests, retries, and fallbacks.
+	 * @return Resilient caller */
+	public ResilientCaller getResilientCaller() {
+		return resilience;
+	}
+	
+	/** Gets the request scheduler of Bitkub.
+	 * @return Request scheduler */
+	public RequestScheduler getRequestScheduler() {
+		return scheduler;
+	}
+	
+	/** Takes a token from the request budget. The resilient caller calls it before every request, as the requester of the caller.
+	 * @param endpointClass Endpoint class
+	 * @return Admission of requests of the endpoint class */
+	private static Supplier<CompletableFuture<Void>> admission(EndpointClass endpointClass) {
+		return () -> scheduler.acquire(endpointClass);
+	}
+	
+	/** Sets base URL of all requests, for example the URL of a Simulator. The symbol catalog is loaded again from the new URL.
+	 * Requests are coalesced and fall back to last good values by URL, and history is cached and stored by the data source name, so data of the old URL is not used.
+	 * @param url Base URL without the last '/', for example "https://api.bitkub.com" */
+	public static void setBaseUrl(String url) {
+		baseUrl = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+		symbolCatalog().refresh();
+	}
+	
+	/** Gets base URL of all requests.
+	 * @return Base URL */
+	public static String getBaseUrl() {
+		return baseUrl;
+	}
+	
+	/** Sets base URL of streams, for example the URL of a StreamSimulator. The current stream is closed, so subscribers must subscribe again to the new stream.
+	 * @param url Base URL of streams, for example "wss://api.bitkub.com/websocket-api/" */
+	public static synchronized void setStreamUrl(String url) {
+		streamUrl = url;
+		if (stream != null) {
+			stream.close();
+			stream = null;
+		}
+	}
+	
+	/** Gets base URL of streams.
+	 * @return Base URL of streams */
+	public static String getStreamUrl() {
+		return streamUrl;
+	}
+	
+	public TickStream getTickStream() {
+		synchronized (Api.class) {
+			if (stream == null) {
+				stream = new MarketStream(streamUrl, bitkubStreamUrl.equals(streamUrl) ? "Bitkub" : "Bitkub-Simulator");
 			}
+			return stream;
 		}
-		return false;
+	}
+	
+	/** Gets the symbol catalog of the current data source.
+	 * @return Symbol catalog */
+	public SymbolCatalog getSymbolCatalog() {
+		return symbolCatalog();
+	}
+	
+	public SymbolTable.Entry getSymbolEntry(String symbol) {
+		return symbolCatalog().getEntry(symbol);
+	}
+	
+	/** Gets symbol in Bitkub format. The precomputed symbol of the catalog is used, and a symbol that is not in the catalog is swapped.
+	 * @param symbol Symbol (bridge format)
+	 * @return Symbol (Bitkub format) */
+	private static String toExchangeSymbol(String symbol) {
+		String exchangeSymbol = symbolCatalog().toExchangeSymbol(symbol);
+		if (exchangeSymbol != null) {return exchangeSymbol;}
+		TradingView tradingView = new TradingView();
+		return tradingView.swapSymbol(symbol);
+	}
+	
+	public String[] showAllSymbols() {
+		return symbolCatalog().getSymbols();
+	}
+
+	public boolean isSymbol(String symbol) {
+		return symbolCatalog().contains(symbol);
+	}
+
+	public String correctTimeframe(String timeframe) {
+		String code = timeframeCodes.get(Timeframe.parse(timeframe));
+		return (code == null) ? timeframe : code;
 	}
 
 	public boolean isTimeframe(String timeframe) {
-		String[] allTimeframe = {"1", "5", "15", "30", "60", "240", "1D"};
-		for (String element : allTimeframe) {
-			if (timeframe.equals(element)) {
-				return true;
-			}
-		}
-		return false;
+		return timeframeCodes.containsValue(timeframe);
+	}
+	
+	public Map<Timeframe, String> getTimeframeCodes() {
+		return timeframeCodes;
 	}
 	
 	public long serverTime() {
-		String url = "https://api.bitkub.com/api/servertime";
-		String str = gp.getUrlString(url);
-		long time;
-		try {
-			time = Long.parseLong(str);
-			return time;
-		}
-		catch (NumberFormatException nfe) {
-			return -1;
-		}
+		return serverTimeAsync().join();
 	}
 	
-	public JSONObject history(String symbol, String timeframe, long initialDate, long finalDate) {
-		String url = "https://api.bitkub.com/tradingview/history";
+	public CompletableFuture<Long> serverTimeAsync() {
+		String url = baseUrl + "/api/servertime";
+		return coalescer.call(url, () -> resilience.call("servertime", admission(EndpointClass.Market), () -> gp.getUrlStringAsync(url))).thenApply(str -> {
+			try {
+				return Long.parseLong(str);
+			}
+			catch (NumberFormatException nfe) {
+				return -1L;
+			}
+		});
+	}
+	
+	public CandleSeries history(String symbol, String timeframe, long initialDate, long finalDate) {
+		return historyAsync(symbol, timeframe, initialDate, finalDate).join();
+	}
+	
+	public CompletableFuture<CandleSeries> historyAsync(String symbol, String timeframe, long initialDate, long finalDate) {
+		String url = baseUrl + "/tradingview/history";
 		url += "?symbol=" + symbol + "&resolution=" + timeframe;
 		url += "&from=" + initialDate + "&to=" + finalDate;
-		JSONObject obj = gp.getUrlMap(url);
-		return obj;
+		String key = url;
+		return coalescer.call(key, () -> resilience.call("tradingview/history", admission(EndpointClass.History), () -> gp.getUrlAsync(key, Api::decodeHistory)),
+				series -> series.slice(0, series.size()));
+	}
+	
+	/** Decodes history response without parsing it into a map first.
+	 * @param body Response body
+	 * @return History of currency
+	 * @throws IOException If the response is not TradingView history format */
+	private static CandleSeries decodeHistory(byte[] body) throws IOException {
+		HistoryDecoder decoder = historyDecoders.get();
+		decoder.decode(body);
+		return decoder.toCandleSeries();
 	}
 	
 	public JSONObject ticker(String symbol) {
-		TradingView tradingView = new TradingView();
-		String reverseSymbol = tradingView.swapSymbol(symbol);
-		String url = "https://api.bitkub.com/api/market/ticker";
+		return tickerAsync(symbol).join();
+	}
+	
+	public CompletableFuture<JSONObject> tickerAsync(String symbol) {
+		String reverseSymbol = toExchangeSymbol(symbol);
+		String url = baseUrl + "/api/market/ticker";
 		url += "?sym=" + reverseSymbol;
-		JSONObject obj = gp.getUrlMap(url);
-		obj = (JSONObject)obj.get(reverseSymbol);
-		return obj;
+		String key = reverseSymbol;
+		String request = url;
+		return coalescer.call(request, () -> resilience.call("market/ticker", admission(EndpointClass.Market), () -> gp.getUrlMapAsync(request))).thenApply(obj -> {
+			//The response is shared by concurrent callers, so each caller gets its own copy of the ticker.
+			Object tick = (obj == null) ? null : obj.get(key);
+			return (tick == null) ? null : new JSONObject((JSONObject)tick);
+		});
+	}
+	
+	public Map<String, JSONObject> tickerAll() {
+		return tickerAllAsync().join();
+	}
+	
+	public CompletableFuture<Map<String, JSONObject>> tickerAllAsync() {
+		String url = baseUrl + "/api/market/ticker";
+		return coalescer.call(url, () -> resilience.call("market/ticker", admission(EndpointClass.Market), () -> gp.getUrlMapAsync(url)).thenApply(obj -> {
+			if (obj == null) {return null;}
+			Map<String, JSONObject> tickers = new HashMap<String, JSONObject>();
+			for (Object key : obj.keySet()) {
+				String symbol = symbolCatalog().fromExchangeSymbol((String)key);
+				if (symbol != null) {
+					tickers.put(symbol, (JSONObject)obj.get(key));
+				}
+			}
+			return tickers;
+		}), Api::copyTickers);
+	}
+	
+	/** Copies maps of tickers for one caller, because they are shared by concurrent callers and can be changed.
+	 * @param tickers Map of symbol to ticker
+	 * @return Copy */
+	private static Map<String, JSONObject> copyTickers(Map<String, JSONObject> tickers) {
+		Map<String, JSONObject> ret = new HashMap<String, JSONObject>(tickers.size() * 2);
+		for (Map.Entry<String, JSONObject> entry : tickers.entrySet()) {
+			ret.put(entry.getKey(), new JSONObject(entry.getValue()));
+		}
+		return ret;
+	}
+	
+	public Map<String, TickerSnapshot> tickerSnapshotAll() {
+		return tickerSnapshotAllAsync().join();
+	}
+	
+	public CompletableFuture<Map<String, TickerSnapshot>> tickerSnapshotAllAsync() {
+		String url = baseUrl + "/api/market/ticker";
+		//Key differs from tickerAllAsync, because the parsed result differs.
+		String key = url + "#snapshot";
+		return coalescer.call(key, () -> resilience.call("market/ticker", key, admission(EndpointClass.Market), () -> gp.getUrlAsync(url, Api::decodeTickers), Api::markStale),
+				Collections::unmodifiableMap);
+	}
+	
+	public OrderBook depth(String symbol, int limit) {
+		return depthAsync(symbol, limit).join();
+	}
+	
+	public CompletableFuture<OrderBook> depthAsync(String symbol, int limit) {
+		String reverseSymbol = toExchangeSymbol(symbol);
+		String url = baseUrl + "/api/market/depth";
+		url += "?sym=" + reverseSymbol + "&lmt=" + limit;
+		String request = url;
+		return coalescer.call(request, () -> resilience.call("market/depth", request, admission(EndpointClass.Market), () -> gp.getUrlAsync(request, body -> {
+			OrderBook book = new OrderBook();
+			new DepthDecoder().decode(body, symbol, System.currentTimeMillis(), book);
+			book.freeze();
+			return book;
+		}), Api::markStale));
+	}
+	
+	public CompletableFuture<Boolean> depthAsync(String symbol, int limit, OrderBook into) {
+		String request = baseUrl + "/api/market/depth?sym=" + toExchangeSymbol(symbol) + "&lmt=" + limit;
+		//Each response is decoded into a spare book, because a hedged request may be decoded at the same time. The winner is copied into the book of the caller.
+		SpareBookLease lease = new SpareBookLease();
+		return resilience.call("market/depth", admission(EndpointClass.Market), () -> gp.getUrlAsync(request, body -> {
+			OrderBook book = lease.take();
+			try {
+				new DepthDecoder().decode(body, symbol, System.currentTimeMillis(), book);
+			}
+			catch (IOException | RuntimeException e) {
+				spareBooks.offer(book);
+				throw e;
+			}
+			lease.keep(book);
+			return book;
+		})).thenApply(book -> {
+			if (book == null) {return false;}
+			into.copyFrom(book);
+			return true;
+		}).whenComplete((filled, ex) -> lease.end());
+	}
+	
+	/** Spare books that one depth request has decoded into. All of them go back to spareBooks when the request ends, even if it fails,
+	 * and a book of a losing hedge that is decoded later goes back at once. */
+	private final class SpareBookLease {
+		private final List<OrderBook> books = new ArrayList<OrderBook>(2);
+		private boolean ended;
+		
+		/** Takes a spare book, or creates one if there is no spare book. */
+		OrderBook take() {
+			OrderBook book = spareBooks.poll();
+			return (book == null) ? new OrderBook() : book;
+		}
+		
+		/** Keeps a decoded book until the request ends. */
+		synchronized void keep(OrderBook book) {
+			if (ended) {
+				spareBooks.offer(book);
+			}
+			else {
+				books.add(book);
+			}
+		}
+		
+		/** Returns all kept books to spareBooks. Called after the winner is copied. */
+		synchronized void end() {
+			ended = true;
+			for (OrderBook book : books) {
+				spareBooks.offer(book);
+			}
+			books.clear();
+		}
+	}
+	
+	/** Copies the last good book, and marks it as stale.
+	 * @param book Frozen book
+	 * @return Frozen stale book */
+	private static OrderBook markStale(OrderBook book) {
+		OrderBook ret = new OrderBook();
+		ret.copyFrom(book);
+		ret.setStale(true);
+		ret.freeze();
+		return ret;
+	}
+	
+	/** Copies the last good snapshots, and marks them as stale.
+	 * @param tickers Map of symbol to frozen snapshot
+	 * @return Map of symbol to frozen stale snapshot */
+	private static Map<String, TickerSnapshot> markStale(Map<String, TickerSnapshot> tickers) {
+		Map<String, TickerSnapshot> ret = new HashMap<String, TickerSnapshot>();
+		for (Map.Entry<String, TickerSnapshot> entry : tickers.entrySet()) {
+			TickerSnapshot snapshot = new TickerSnapshot();
+			snapshot.copyFrom(entry.getValue());
+			snapshot.setStale(true);
+			snapshot.freeze();
+			ret.put(entry.getKey(), snapshot);
+		}
+		return ret;
+	}
+	
+	/** Decodes ticker response straight into snapshots.
+	 * @param body Response body
+	 * @return Map of symbol (bridge format) to frozen snapshot
+	 * @throws IOException If the response is not Bitkub ticker format */
+	private static Map<String, TickerSnapshot> decodeTickers(byte[] body) throws IOException {
+		return new TickerDecoder().decode(body, System.currentTimeMillis(), symbolCatalog());
 	}
 }
\ No newline at end of file
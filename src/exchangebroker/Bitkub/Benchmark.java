@@ -0,0 +1,486 @@
+package exchangebroker.Bitkub;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import exchangebroker.OrderBook;
+import exchangebroker.StubDepthFeed;
+import exchangebroker.SymbolCatalog;
+import exchangebroker.TickerSnapshot;
+import marketwatch.candlestore.CandleArchive;
+import marketwatch.candlestore.CandleBlockCodec;
+import marketwatch.candlestore.CandleFile;
+import marketwatch.tools.CandleSeries;
+import marketwatch.tools.GetPost;
+import marketwatch.tools.HistoryDecoder;
+import marketwatch.tools.LatencyHistogram;
+import marketwatch.tools.PrintClass;
+
+/** Measurements against a local Simulator, so the results do not depend on the network or the request budget of Bitkub.
+ * Usage: Benchmark (section) [arguments], where section is "http", "history", "codec", "depth", or "symbols". */
+public class Benchmark {
+
+	private static PrintClass pc = new PrintClass();
+
+	public static void main(String[] args) throws Exception {
+		String section = (args.length >= 1) ? args[0].toLowerCase() : "http";
+		switch (section) {
+		case "http":
+			http((args.length >= 2) ? Integer.parseInt(args[1]) : 2000, (args.length >= 3) ? Integer.parseInt(args[2]) : 16);
+			break;
+		case "history":
+			history((args.length >= 2) ? Integer.parseInt(args[1]) : 200);
+			break;
+		case "codec":
+			codec((args.length >= 2) ? Integer.parseInt(args[1]) : 30, (args.length >= 3) ? Integer.parseInt(args[2]) : 20,
+					(args.length >= 4) ? Paths.get(args[3]) : null, (args.length >= 5) ? args[4] : null);
+			break;
+		case "depth":
+			depth((args.length >= 2) ? Integer.parseInt(args[1]) : 200, (args.length >= 3) ? Integer.parseInt(args[2]) : 20000);
+			break;
+		case "symbols":
+			symbols();
+			break;
+		default:
+			pc.println("Unknown section: " + section);
+		}
+	}
+
+	/** Sends the same requests to a local HTTPS Simulator through GetPost (shared keep-alive client) and through a new connection per request,
+	 * and prints throughput, latency, TLS connections that GetPost opened and reused, and connections that the simulator accepted.
+	 * Both clients trust the self-signed test key of the simulator. Sequential runs of both clients show the cost of a TLS handshake per request.
+	 * @param requests Number of requests of each run
+	 * @param concurrency Number of requests in flight of the concurrent run */
+	private static void http(int requests, int concurrency) throws Exception {
+		SSLContext context = Simulator.createTestSslContext();
+		GetPost.setSslContext(context);
+		Simulator simulator = new Simulator(1);
+		String url = simulator.startHttps(0, context) + "/api/servertime";
+		try {
+			GetPost gp = new GetPost();
+			//Warm up both clients, so class loading is not measured.
+			for (int i = 0; i < 50; i++) {
+				gp.getUrlString(url);
+				getWithNewConnection(url, context);
+			}
+
+			long connections = simulator.getConnectionCount();
+			long opened = GetPost.getNewConnectionCount();
+			long reused = GetPost.getReusedConnectionCount();
+			LatencyHistogram latency = new LatencyHistogram();
+			Semaphore window = new Semaphore(concurrency);
+			List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>(requests);
+			long start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				window.acquire();
+				long sent = System.nanoTime();
+				futures.add(gp.getUrlStringAsync(url).whenComplete((body, ex) -> {
+					latency.recordNanos(System.nanoTime() - sent);
+					window.release();
+				}));
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+			long elapsed = System.nanoTime() - start;
+			pc.println("GetPost (keep-alive, " + concurrency + " in flight): " + requests + " requests in " + (elapsed / 1000000) + " ms, " + Math.round(requests * 1e9 / elapsed) + " requests/s");
+			pc.println("  TLS connections opened: " + (GetPost.getNewConnectionCount() - opened) + ", responses on reused connections: " + (GetPost.getReusedConnectionCount() - reused)
+					+ ", accepted by simulator: " + (simulator.getConnectionCount() - connections) + ", HTTP/2 responses: " + GetPost.getResponseCount(HttpClient.Version.HTTP_2)
+					+ ", HTTP/1.1 responses: " + GetPost.getResponseCount(HttpClient.Version.HTTP_1_1));
+			pc.println("  Latency: " + latency);
+
+			connections = simulator.getConnectionCount();
+			opened = GetPost.getNewConnectionCount();
+			latency.reset();
+			start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				long sent = System.nanoTime();
+				gp.getUrlString(url);
+				latency.recordNanos(System.nanoTime() - sent);
+			}
+			elapsed = System.nanoTime() - start;
+			pc.println("GetPost (keep-alive, sequential): " + requests + " requests in " + (elapsed / 1000000) + " ms, " + Math.round(requests * 1e9 / elapsed) + " requests/s, "
+					+ (GetPost.getNewConnectionCount() - opened) + " TLS connections opened, " + (simulator.getConnectionCount() - connections) + " accepted by simulator");
+			pc.println("  Latency: " + latency);
+
+			connections = simulator.getConnectionCount();
+			latency.reset();
+			start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				long sent = System.nanoTime();
+				getWithNewConnection(url, context);
+				latency.recordNanos(System.nanoTime() - sent);
+			}
+			elapsed = System.nanoTime() - start;
+			pc.println("New TLS connection per request (sequential): " + requests + " requests in " + (elapsed / 1000000) + " ms, " + Math.round(requests * 1e9 / elapsed) + " requests/s, "
+					+ (simulator.getConnectionCount() - connections) + " accepted by simulator");
+			pc.println("  Latency: " + latency);
+		}
+		finally {
+			simulator.stop();
+			GetPost.setSslContext(null);
+		}
+	}
+
+	/** Decodes one history response many times, by HistoryDecoder and by a JSON map like history was decoded before,
+	 * and prints time and allocated bytes per candle.
+	 * @param rounds Number of decodes of each decoder */
+	private static void history(int rounds) throws Exception {
+		Simulator simulator = new Simulator(1);
+		byte[] body;
+		try {
+			long now = System.currentTimeMillis() / 1000;
+			String url = simulator.start(0) + "/tradingview/history?symbol=BTC_THB&resolution=1&from=" + (now - 7 * 24 * 3600) + "&to=" + now;
+			HttpURLConnection connection = (HttpURLConnection)new URL(url).openConnection();
+			try (InputStream in = connection.getInputStream()) {
+				body = in.readAllBytes();
+			}
+		}
+		finally {
+			simulator.stop();
+		}
+		HistoryDecoder decoder = new HistoryDecoder();
+		decoder.decode(body);
+		int candles = decoder.size();
+		pc.println("History response: " + body.length + " bytes, " + candles + " candles");
+
+		double checksum = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			//The first pass warms up the JIT, and only the second pass is printed.
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				HistoryDecoder each = new HistoryDecoder();
+				each.decode(body);
+				checksum += each.getClose()[each.size() - 1];
+			}
+			long elapsed = System.nanoTime() - start;
+			allocated = allocatedBytes() - allocated;
+			if (pass == 1) {
+				pc.println("HistoryDecoder (new decoder per response): " + (elapsed / rounds / candles) + " ns/candle, " + (allocated / rounds / candles) + " bytes/candle");
+			}
+
+			//Path of Api: one decoder per thread, and the columns are moved to a series.
+			HistoryDecoder reused = new HistoryDecoder();
+			allocated = allocatedBytes();
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				reused.decode(body);
+				CandleSeries series = reused.toCandleSeries();
+				checksum += series.close(series.size() - 1);
+			}
+			elapsed = System.nanoTime() - start;
+			allocated = allocatedBytes() - allocated;
+			if (pass == 1) {
+				pc.println("HistoryDecoder (reused, toCandleSeries): " + (elapsed / rounds / candles) + " ns/candle, " + (allocated / rounds / candles) + " bytes/candle");
+			}
+
+			allocated = allocatedBytes();
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				JSONObject map = (JSONObject)new JSONParser().parse(new String(body, StandardCharsets.UTF_8));
+				JSONArray close = (JSONArray)map.get("c");
+				double[] values = new double[close.size()];
+				for (int j = 0; j < values.length; j++) {
+					values[j] = ((Number)close.get(j)).doubleValue();
+				}
+				checksum += values[values.length - 1];
+			}
+			elapsed = System.nanoTime() - start;
+			allocated = allocatedBytes() - allocated;
+			if (pass == 1) {
+				pc.println("JSON map (whole parse, close read): " + (elapsed / rounds / candles) + " ns/candle, " + (allocated / rounds / candles) + " bytes/candle");
+			}
+		}
+		pc.println("Checksum: " + checksum);
+	}
+
+	/** Encodes minute history of BTC_THB to blocks and decodes it again, checks that every candle is the same,
+	 * and prints size per candle against a candle file record, and throughput of encode, decode, and a range read of an archive file.
+	 * Size depends on the data, so real history should be used. It is read from the fixture directory, or requested from the upstream through the simulator and recorded there,
+	 * for example "codec 30 20 fixtures https://api.bitkub.com" once and "codec 30 20 fixtures" later. The recorded response is also saved as the fixture of the path, so later runs replay it at any time.
+	 * Synthetic history of the simulator is used only if there is no fixture, and its result is labelled as synthetic.
+	 * @param days Number of days of history
+	 * @param rounds Number of encodes and decodes
+	 * @param fixtureDirectory Directory of recorded history, or null
+	 * @param upstream Base URL of the API to record history from, or null */
+	private static void codec(int days, int rounds, Path fixtureDirectory, String upstream) throws Exception {
+		Simulator simulator = new Simulator(1, days);
+		simulator.addSymbol("THB_BTC", 2000000);
+		simulator.setFixtureDirectory(fixtureDirectory);
+		simulator.setUpstream(upstream);
+		CandleSeries series;
+		String source;
+		try {
+			long now = System.currentTimeMillis() / 1000;
+			String path = "/tradingview/history";
+			String query = "symbol=BTC_THB&resolution=1&from=" + (now - days * 24L * 3600) + "&to=" + now;
+			HttpURLConnection connection = (HttpURLConnection)new URL(simulator.start(0) + path + "?" + query).openConnection();
+			HistoryDecoder decoder = new HistoryDecoder();
+			try (InputStream in = connection.getInputStream()) {
+				decoder.decode(in.readAllBytes());
+			}
+			series = decoder.toCandleSeries();
+			if (simulator.getFixtureCount() > 0) {
+				source = "recorded fixture in " + fixtureDirectory;
+			}
+			else if (upstream != null) {
+				source = "real history from " + upstream;
+				if (fixtureDirectory != null) {
+					Path general = fixtureDirectory.resolve(Simulator.fixtureName(path, null));
+					if (!Files.exists(general)) {
+						Files.copy(fixtureDirectory.resolve(Simulator.fixtureName(path, query)), general);
+					}
+					source += ", recorded to " + general;
+				}
+			}
+			else {
+				source = null;
+			}
+		}
+		finally {
+			simulator.stop();
+		}
+		if (series.isEmpty()) {throw new IOException("History has no candle.");}
+		int candles = series.size();
+		String label = (source == null) ? " [synthetic]" : "";
+		pc.println("Data: " + ((source == null) ? "synthetic random walk of the simulator (no fixture is given or found), so sizes are not those of real history" : source));
+		int blockSize = CandleArchive.defaultBlockSize;
+		CandleBlockCodec codec = new CandleBlockCodec();
+
+		List<byte[]> blocks = new ArrayList<byte[]>();
+		long encoded = 0;
+		for (int from = 0; from < candles; from += blockSize) {
+			byte[] block = codec.encode(series, from, Math.min(candles, from + blockSize));
+			blocks.add(block);
+			encoded += block.length;
+		}
+		int index = 0;
+		for (byte[] block : blocks) {
+			CandleSeries decoded = codec.decode(ByteBuffer.wrap(block));
+			for (int i = 0; i < decoded.size(); i++, index++) {
+				if (decoded.time(i) != series.time(index) || Double.compare(decoded.open(i), series.open(index)) != 0
+						|| Double.compare(decoded.high(i), series.high(index)) != 0 || Double.compare(decoded.low(i), series.low(index)) != 0
+						|| Double.compare(decoded.close(i), series.close(index)) != 0 || Double.compare(decoded.volume(i), series.volume(index)) != 0) {
+					throw new IOException("Candle " + index + " is not the same after decode.");
+				}
+			}
+		}
+		if (index != candles) {throw new IOException(index + " of " + candles + " candles are decoded.");}
+		pc.println("Round trip: " + candles + " candles in " + blocks.size() + " blocks are the same after decode.");
+		pc.println("Size: " + String.format("%.2f", (double)encoded / candles) + " bytes/candle, candle file " + CandleFile.recordSize + " bytes/candle ("
+				+ String.format("%.1f", (double)candles * CandleFile.recordSize / encoded) + " times smaller)" + label);
+
+		double checksum = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			//The first pass warms up the JIT, and only the second pass is printed.
+			long start = System.nanoTime();
+			for (int r = 0; r < rounds; r++) {
+				for (int from = 0; from < candles; from += blockSize) {
+					checksum += codec.encode(series, from, Math.min(candles, from + blockSize)).length;
+				}
+			}
+			long encodeTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int r = 0; r < rounds; r++) {
+				for (byte[] block : blocks) {
+					checksum += codec.decode(ByteBuffer.wrap(block)).size();
+				}
+			}
+			long decodeTime = System.nanoTime() - start;
+			if (pass == 1) {
+				pc.println("Encode: " + Math.round((double)candles * rounds * 1e3 / encodeTime) + " million candles/s, "
+						+ Math.round((double)candles * rounds * CandleFile.recordSize * 1e3 / encodeTime) + " MB/s of candle records" + label);
+				pc.println("Decode: " + Math.round((double)candles * rounds * 1e3 / decodeTime) + " million candles/s, "
+						+ Math.round((double)candles * rounds * CandleFile.recordSize * 1e3 / decodeTime) + " MB/s of candle records" + label);
+			}
+		}
+
+		Path path = Files.createTempFile("benchmark", ".archive");
+		try {
+			CandleArchive archive = new CandleArchive();
+			archive.write(path, series);
+			long from = series.time(candles / 2);
+			long to = from + 24 * 3600 - 1;
+			archive.read(path, from, to);
+			long start = System.nanoTime();
+			CandleSeries day = archive.read(path, from, to);
+			long elapsed = System.nanoTime() - start;
+			if (day.isEmpty() || day.time(0) != from || day.lastTime() > to) {throw new IOException("Range read of archive is incorrect.");}
+			pc.println("Archive: " + Files.size(path) + " bytes, one day range read (warm) " + day.size() + " candles in " + (elapsed / 1000) + " us" + label);
+		}
+		finally {
+			Files.delete(path);
+		}
+		pc.println("Checksum: " + checksum);
+	}
+
+	/** Checks order books that are changed by StubDepthFeed diffs, measures time per diff,
+	 * and compares decoding a depth response of the simulator into a new frozen book and copying it, with decoding into a book that is used again.
+	 * @param levels Number of levels of each side
+	 * @param rounds Number of diffs and decodes */
+	private static void depth(int levels, int rounds) throws Exception {
+		//The same seed must make the same books, and every book must be sorted, not crossed, and have correct depth.
+		StubDepthFeed feed = new StubDepthFeed(1, "BTC_THB", 2000000, 10, levels);
+		StubDepthFeed same = new StubDepthFeed(1, "BTC_THB", 2000000, 10, levels);
+		OrderBook book = new OrderBook();
+		OrderBook other = new OrderBook();
+		feed.snapshot(book);
+		same.snapshot(other);
+		long changes = 0;
+		for (int i = 0; i < rounds; i++) {
+			changes += feed.next(book);
+			same.next(other);
+			checkBook(book, i);
+			if (book.bidLevels() != other.bidLevels() || book.askLevels() != other.askLevels() || book.bidDepth(levels) != other.bidDepth(levels)) {
+				throw new IllegalStateException("Stub feed is not the same with the same seed at diff " + i + ".");
+			}
+		}
+		pc.println("Stub feed: " + rounds + " diffs (" + changes + " level changes) are consistent, " + book.bidLevels() + " bids and " + book.askLevels() + " asks");
+
+		double checksum = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			//The first pass warms up the JIT, and only the second pass is printed.
+			feed.snapshot(book);
+			long start = System.nanoTime();
+			changes = 0;
+			for (int i = 0; i < rounds; i++) {
+				changes += feed.next(book);
+				checksum += book.bidDepth(10);
+			}
+			long elapsed = System.nanoTime() - start;
+			if (pass == 1) {
+				pc.println("Diff: " + (elapsed / changes) + " ns per level change with depth of 10 levels, " + levels + " levels of each side");
+			}
+		}
+
+		Simulator simulator = new Simulator(1);
+		byte[] body;
+		try {
+			String url = simulator.start(0) + "/api/market/depth?sym=THB_BTC&lmt=" + levels;
+			HttpURLConnection connection = (HttpURLConnection)new URL(url).openConnection();
+			try (InputStream in = connection.getInputStream()) {
+				body = in.readAllBytes();
+			}
+		}
+		finally {
+			simulator.stop();
+		}
+		OrderBook into = new OrderBook();
+		OrderBook spare = new OrderBook();
+		for (int pass = 0; pass < 2; pass++) {
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				OrderBook shared = new OrderBook();
+				new DepthDecoder().decode(body, "BTC_THB", i, shared);
+				shared.freeze();
+				into.copyFrom(shared);
+				checksum += into.bestBid();
+			}
+			long elapsed = System.nanoTime() - start;
+			allocated = allocatedBytes() - allocated;
+			if (pass == 1) {
+				pc.println("Decode into a new frozen book, then copy: " + (elapsed / rounds) + " ns, " + (allocated / rounds) + " bytes per response of " + body.length + " bytes");
+			}
+
+			allocated = allocatedBytes();
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				new DepthDecoder().decode(body, "BTC_THB", i, spare);
+				into.copyFrom(spare);
+				checksum += into.bestBid();
+			}
+			elapsed = System.nanoTime() - start;
+			allocated = allocatedBytes() - allocated;
+			if (pass == 1) {
+				pc.println("Decode into a spare book, then copy: " + (elapsed / rounds) + " ns, " + (allocated / rounds) + " bytes per response");
+			}
+		}
+		pc.println("Checksum: " + checksum);
+	}
+
+	/** Throws if a book is not sorted, is crossed, has a level without amount, or has incorrect depth. */
+	private static void checkBook(OrderBook book, int diff) {
+		double sum = 0;
+		for (int i = 0; i < book.bidLevels(); i++) {
+			if (book.bidAmount(i) <= 0 || (i > 0 && book.bidPrice(i) >= book.bidPrice(i - 1))) {throw new IllegalStateException("Bids are broken at diff " + diff + ".");}
+			sum += book.bidAmount(i);
+		}
+		if (Math.abs(sum - book.bidDepth(book.bidLevels())) > 1e-6) {throw new IllegalStateException("Bid depth is incorrect at diff " + diff + ".");}
+		sum = 0;
+		for (int i = 0; i < book.askLevels(); i++) {
+			if (book.askAmount(i) <= 0 || (i > 0 && book.askPrice(i) <= book.askPrice(i - 1))) {throw new IllegalStateException("Asks are broken at diff " + diff + ".");}
+			sum += book.askAmount(i);
+		}
+		if (Math.abs(sum - book.askDepth(book.askLevels())) > 1e-6) {throw new IllegalStateException("Ask depth is incorrect at diff " + diff + ".");}
+		if (book.bidLevels() > 0 && book.askLevels() > 0 && book.bestBid() >= book.bestAsk()) {throw new IllegalStateException("Book is crossed at diff " + diff + ".");}
+	}
+
+	/** Checks that every symbol of the simulator is in the symbol catalog of Api and gets a ticker from both ticker decoders.
+	 * THB_USDC_E of the simulator is a plain symbol without an entry of the symbol table, so it checks the lookup by name. */
+	private static void symbols() throws Exception {
+		Simulator simulator = new Simulator(1);
+		try {
+			Api.setBaseUrl(simulator.start(0));
+			Api api = new Api();
+			SymbolCatalog catalog = api.getSymbolCatalog();
+			Map<String, TickerSnapshot> snapshots = api.tickerSnapshotAll();
+			Map<String, JSONObject> tickers = api.tickerAll();
+			if (snapshots == null || tickers == null) {throw new IOException("Ticker request is failed.");}
+			for (String exchangeSymbol : simulator.getSymbols()) {
+				String symbol = catalog.fromExchangeSymbol(exchangeSymbol);
+				if (symbol == null || !api.isSymbol(symbol)) {throw new IllegalStateException(exchangeSymbol + " is not in the catalog.");}
+				TickerSnapshot snapshot = snapshots.get(symbol);
+				if (snapshot == null || Double.isNaN(snapshot.getLast()) || !tickers.containsKey(symbol)) {throw new IllegalStateException(symbol + " has no ticker.");}
+				pc.println(symbol + ": last " + snapshot.getLast() + ((catalog.getEntry(symbol) == null) ? " (plain symbol)" : ""));
+			}
+			if (catalog.getPlainSymbolCount() == 0) {throw new IllegalStateException("The simulator has no plain symbol.");}
+			pc.println("All " + simulator.getSymbols().length + " symbols have tickers, " + catalog.getPlainSymbolCount() + " of them plain.");
+		}
+		finally {
+			simulator.stop();
+		}
+	}
+
+	/** Gets bytes that the current thread has allocated, or 0 if the JVM cannot tell. */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	/** Sends a GET request on a new TLS connection, like GetPost did before connections were shared. */
+	private static void getWithNewConnection(String url, SSLContext context) throws IOException {
+		HttpsURLConnection connection = (HttpsURLConnection)new URL(url).openConnection();
+		connection.setSSLSocketFactory(context.getSocketFactory());
+		connection.setRequestProperty("Connection", "close");
+		try (InputStream in = connection.getInputStream()) {
+			in.readAllBytes();
+		}
+		finally {
+			connection.disconnect();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,62 @@
+package exchangebroker.Bitkub;
+
+import java.io.IOException;
+
+import exchangebroker.OrderBook;
+import marketwatch.tools.JsonCursor;
+
+/** Decodes Bitkub depth response ({"asks": [[price, amount], ...], "bids": [[price, amount], ...]}) straight into an order book.
+ * Levels are read byte by byte by a JsonCursor into the primitive arrays of the book, and no list or boxed number is created. */
+class DepthDecoder {
+
+	private final JsonCursor cursor = new JsonCursor("depth response");
+
+	/** Decodes a response as a full snapshot. Levels of the book are replaced.
+	 * @param json Response body
+	 * @param symbol Symbol (bridge format)
+	 * @param receiveTime Time that the response was received as millisecond
+	 * @param book Book that is not frozen
+	 * @throws IOException If the response is not Bitkub depth format */
+	public void decode(byte[] json, String symbol, long receiveTime, OrderBook book) throws IOException {
+		cursor.reset(json);
+		book.clear();
+		cursor.expect('{');
+		if (!cursor.skip('}')) {
+			do {
+				cursor.readKey();
+				if (cursor.isKey("asks") && cursor.peek() == '[') {
+					readLevels(book, false);
+				}
+				else if (cursor.isKey("bids") && cursor.peek() == '[') {
+					readLevels(book, true);
+				}
+				else {
+					cursor.skipValue();
+				}
+			} while (cursor.nextMember());
+		}
+		book.setHeader(symbol, receiveTime);
+		cursor.release();
+	}
+
+	/** Reads an array of [price, amount, ...] levels. Values after the amount are skipped. */
+	private void readLevels(OrderBook book, boolean bid) throws IOException {
+		cursor.expect('[');
+		if (cursor.skip(']')) {return;}
+		do {
+			cursor.expect('[');
+			double price = cursor.readNumber();
+			cursor.expect(',');
+			double amount = cursor.readNumber();
+			while (cursor.nextElement()) {
+				cursor.skipValue();
+			}
+			if (bid) {
+				book.setBid(price, amount);
+			}
+			else {
+				book.setAsk(price, amount);
+			}
+		} while (cursor.nextElement());
+	}
+}
\ No newline at end of file
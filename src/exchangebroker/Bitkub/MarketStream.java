@@ -0,0 +1,427 @@
+package exchangebroker.Bitkub;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import exchangebroker.SymbolTable;
+import exchangebroker.TickStream;
+import exchangebroker.TickerSnapshot;
+import marketwatch.tools.LatencyHistogram;
+import marketwatch.tools.TradingView;
+
+/** Trades and tickers of Bitkub by one WebSocket connection ("market.trade.thb_btc" and "market.ticker.thb_btc" streams of all subscribed symbols).
+ * Bitkub takes the streams from the URL, so the connection is opened again when a symbol is added or removed. The new connection is opened before the old one is closed,
+ * and messages are taken from the connection that opened last, so no message is lost when symbols change.
+ * A lost connection is connected again after a jittered backoff with the same streams, and subscribers are told about the gap.
+ * A ping is sent periodically, and the connection is closed if nothing is received for a while (a silently dropped connection). */
+public class MarketStream implements TickStream {
+
+	/** long: Millisecond */
+	private static final long pingInterval = 1000 * 15;
+	/** long: Millisecond. The connection is treated as lost if nothing is received for this time. */
+	private static final long idleTimeout = 1000 * 45;
+	/** long: Millisecond. Subscriptions that change at the same time share one new connection. */
+	private static final long resubscribeDelay = 200;
+	/** long: Millisecond */
+	private static final long baseBackoff = 500;
+	/** long: Millisecond */
+	private static final long maxBackoff = 1000 * 30;
+
+	/** Subscribers and the last message of one symbol. */
+	private static class Channel {
+		final SymbolTable.Entry entry;
+		final String tradeStream;
+		final String tickerStream;
+		final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+		/** Reused by every ticker message. Only the thread of the connection changes it. */
+		final TickerSnapshot ticker = new TickerSnapshot();
+		/** long: Millisecond. Time of the last message, or 0 if there has been no message. */
+		volatile long lastReceive;
+
+		Channel(SymbolTable.Entry entry) {
+			this.entry = entry;
+			String name = entry.getExchangeSymbol().toLowerCase();
+			tradeStream = "market.trade." + name;
+			tickerStream = "market.ticker." + name;
+		}
+	}
+
+	/** Channel of a stream name. */
+	private static class Route {
+		final Channel channel;
+		final boolean trade;
+
+		Route(Channel channel, boolean trade) {
+			this.channel = channel;
+			this.trade = trade;
+		}
+	}
+
+	private final String url;
+	/** Data source name that symbols are interned by in the symbol table, so IDs match the symbol catalog of the same source. */
+	private final String source;
+	private final HttpClient client = HttpClient.newHttpClient();
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "MarketStream");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** Symbol (bridge format) to channel. Guarded by this stream. */
+	private final Map<String, Channel> channels = new HashMap<String, Channel>();
+	/** Listener of the current connection, or null if it is not open. Messages of other connections are ignored. */
+	private volatile Listener current;
+	/** long: Millisecond. Time of the last message or pong of the current connection. */
+	private volatile long lastMessage;
+	/** long: Millisecond. Time that the connection was lost, or 0 if it was not lost. */
+	private volatile long lostTime;
+	/** Incremented whenever a connection is requested, so only the newest request is used. Guarded by this stream. */
+	private long generation;
+	private int failedAttempts;
+	private boolean resubscribeScheduled;
+	private boolean closed;
+
+	/** Time from receiving a message to returning from all subscribers. */
+	private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+	private final AtomicLong messageCount = new AtomicLong();
+	private final AtomicLong connectCount = new AtomicLong();
+	private final AtomicLong gapCount = new AtomicLong();
+
+	/** Constructor.
+	 * @param url Base URL of streams, for example "wss://api.bitkub.com/websocket-api/"
+	 * @param source Data source name, for example "Bitkub" or "Bitkub-Simulator" */
+	public MarketStream(String url, String source) {
+		this.url = url.endsWith("/") ? url : url + "/";
+		this.source = source;
+		scheduler.scheduleWithFixedDelay(this::checkIdle, pingInterval, pingInterval, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void subscribe(String symbol, Subscriber subscriber) {
+		if (closed) {throw new IllegalStateException("Stream is closed.");}
+		Channel channel = channels.get(symbol);
+		if (channel == null) {
+			SymbolTable.Entry entry = SymbolTable.find(source, symbol);
+			if (entry == null) {
+				TradingView tradingView = new TradingView();
+				entry = SymbolTable.intern(source, symbol, tradingView.swapSymbol(symbol));
+			}
+			if (entry == null) {throw new IllegalArgumentException("\"" + symbol + "\" symbol is incorrect.");}
+			channel = new Channel(entry);
+			channels.put(symbol, channel);
+			scheduleResubscribe();
+		}
+		channel.subscribers.add(subscriber);
+	}
+
+	public synchronized void unsubscribe(String symbol, Subscriber subscriber) {
+		Channel channel = channels.get(symbol);
+		if (channel == null) {return;}
+		channel.subscribers.remove(subscriber);
+		if (channel.subscribers.isEmpty()) {
+			channels.remove(symbol);
+			scheduleResubscribe();
+		}
+	}
+
+	public boolean isConnected() {
+		return current != null;
+	}
+
+	/** Closes the connection, and stops connecting again. */
+	public synchronized void close() {
+		closed = true;
+		generation++;
+		Listener listener = current;
+		current = null;
+		if (listener != null) {
+			listener.webSocket.abort();
+		}
+		scheduler.shutdownNow();
+	}
+
+	/** Gets time from receiving a message to returning from all subscribers.
+	 * @return Latency histogram */
+	public LatencyHistogram getDispatchLatency() {
+		return dispatchLatency;
+	}
+
+	/** Gets number of messages.
+	 * @return Number of messages */
+	public long getMessageCount() {
+		return messageCount.get();
+	}
+
+	/** Gets number of successful connections, including the first connection and resubscriptions.
+	 * @return Number of connections */
+	public long getConnectCount() {
+		return connectCount.get();
+	}
+
+	/** Gets number of gaps that were told to subscribers.
+	 * @return Number of gaps */
+	public long getGapCount() {
+		return gapCount.get();
+	}
+
+	/** Opens a connection with the current subscriptions after a short delay. Guarded by this stream. */
+	private void scheduleResubscribe() {
+		if (resubscribeScheduled || closed) {return;}
+		resubscribeScheduled = true;
+		scheduler.schedule(() -> {
+			synchronized (this) {
+				resubscribeScheduled = false;
+				connect();
+			}
+		}, resubscribeDelay, TimeUnit.MILLISECONDS);
+	}
+
+	/** Gets stream names of all channels. Guarded by this stream.
+	 * @return Sorted stream names separated by ',' */
+	private String requestedStreams() {
+		List<String> streams = new ArrayList<String>();
+		for (Channel channel : channels.values()) {
+			streams.add(channel.tradeStream);
+			streams.add(channel.tickerStream);
+		}
+		Collections.sort(streams);
+		return String.join(",", streams);
+	}
+
+	/** Opens a new connection with streams of all channels. The current connection is kept until the new one is open. Guarded by this stream. */
+	private void connect() {
+		if (closed) {return;}
+		long requested = ++generation;
+		if (channels.isEmpty()) {
+			Listener listener = current;
+			current = null;
+			if (listener != null) {
+				listener.webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "");
+			}
+			return;
+		}
+		Map<String, Route> newRoutes = new HashMap<String, Route>();
+		for (Channel channel : channels.values()) {
+			newRoutes.put(channel.tradeStream, new Route(channel, true));
+			newRoutes.put(channel.tickerStream, new Route(channel, false));
+		}
+		String streams = requestedStreams();
+		client.newWebSocketBuilder().buildAsync(URI.create(url + streams), new Listener(requested, newRoutes, streams)).whenComplete((opened, ex) -> {
+			synchronized (this) {
+				//An opened connection became current in onOpen, or it was dropped there because a newer connection was requested.
+				if (opened == null && requested == generation) {
+					scheduleReconnect();
+				}
+			}
+		});
+	}
+
+	/** Makes a connection that has just opened the current connection, and closes the previous one.
+	 * @return Channels that lost messages while the connection was lost, or null if the connection is not used because a newer one was requested */
+	private List<Channel> opened(Listener listener) {
+		List<Channel> gaps = new ArrayList<Channel>();
+		synchronized (this) {
+			if (listener.generation != generation) {return null;}
+			Listener previous = current;
+			lastMessage = System.currentTimeMillis();
+			current = listener;
+			failedAttempts = 0;
+			connectCount.incrementAndGet();
+			if (previous != null) {
+				previous.webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "");
+			}
+			if (lostTime > 0) {
+				lostTime = 0;
+				for (Route route : listener.routes.values()) {
+					if (route.trade && route.channel.lastReceive != 0) {
+						gaps.add(route.channel);
+					}
+				}
+			}
+		}
+		return gaps;
+	}
+
+	/** Connects again after a random delay that grows exponentially (full jitter).
+	 * It connects if there is no connection, or if the connection does not have the streams of the current subscriptions, for example when a resubscription was failed. Guarded by this stream. */
+	private void scheduleReconnect() {
+		if (closed) {return;}
+		long backoff = Math.min(maxBackoff, baseBackoff << Math.min(failedAttempts, 16));
+		failedAttempts++;
+		long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+		scheduler.schedule(() -> {
+			synchronized (this) {
+				Listener listener = current;
+				if (listener == null || !listener.streams.equals(requestedStreams())) {
+					connect();
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/** Called when a connection is closed or broken. Only the current connection is connected again. */
+	private synchronized void lost(Listener listener) {
+		if (listener != current) {return;}
+		current = null;
+		if (lostTime == 0) {
+			lostTime = System.currentTimeMillis();
+		}
+		scheduleReconnect();
+	}
+
+	/** Sends a ping, or drops a connection that has received nothing for idleTimeout. */
+	private void checkIdle() {
+		Listener listener = current;
+		if (listener == null) {return;}
+		if (System.currentTimeMillis() - lastMessage > idleTimeout) {
+			listener.webSocket.abort();
+			lost(listener);
+			return;
+		}
+		listener.webSocket.sendPing(ByteBuffer.allocate(0));
+	}
+
+	/** Decodes messages of a frame and sends them to subscribers. A frame may have some messages separated by new lines. */
+	private void dispatch(StreamDecoder decoder, Map<String, Route> routes, CharSequence text, long receiveNanos) {
+		long receiveTime = System.currentTimeMillis();
+		int start = 0;
+		while (start < text.length()) {
+			int end = start;
+			while (end < text.length() && text.charAt(end) != '\n') {
+				end++;
+			}
+			if (end > start) {
+				try {
+					decoder.decode(text, start, end);
+					Route route = (decoder.stream == null) ? null : routes.get(decoder.stream);
+					if (route != null) {
+						publish(decoder, route, receiveTime, receiveNanos);
+					}
+				}
+				catch (IOException ioe) {
+					//A broken message is skipped. The next message is read.
+				}
+			}
+			start = end + 1;
+		}
+		dispatchLatency.recordNanos(System.nanoTime() - receiveNanos);
+	}
+
+	private void publish(StreamDecoder decoder, Route route, long receiveTime, long receiveNanos) {
+		Channel channel = route.channel;
+		channel.lastReceive = receiveTime;
+		messageCount.incrementAndGet();
+		//Time of Bitkub is second. Millisecond is also accepted.
+		long time = (decoder.time < 0) ? -1 : (decoder.time < 100000000000L) ? decoder.time * 1000 : decoder.time;
+		String symbol = channel.entry.getSymbol();
+		if (route.trade) {
+			if (Double.isNaN(decoder.rate)) {return;}
+			long tradeTime = (time < 0) ? receiveTime : time;
+			for (Subscriber subscriber : channel.subscribers) {
+				subscriber.trade(symbol, tradeTime, decoder.rate, decoder.amount, receiveNanos);
+			}
+		}
+		else {
+			channel.ticker.set(symbol, channel.entry.getId(), time, receiveTime, decoder.last, decoder.highestBid, decoder.lowestAsk, decoder.baseVolume);
+			for (Subscriber subscriber : channel.subscribers) {
+				subscriber.ticker(channel.ticker, receiveNanos);
+			}
+		}
+	}
+
+	/** Receives frames of a connection. Functions of one connection are called one by one.
+	 * Frames are sent to subscribers only while the listener is the current one, so the connection that opened last is used from its first frame. */
+	private class Listener implements WebSocket.Listener {
+
+		/** Generation of the connection request. */
+		final long generation;
+		/** Stream name to route of this connection. */
+		final Map<String, Route> routes;
+		/** Stream names of this connection, sorted and separated by ','. */
+		final String streams;
+		/** Set when the connection is open. */
+		volatile WebSocket webSocket;
+		private final StreamDecoder decoder = new StreamDecoder();
+		/** Text of a message that is split into frames. */
+		private final StringBuilder partial = new StringBuilder();
+
+		Listener(long generation, Map<String, Route> routes, String streams) {
+			this.generation = generation;
+			this.routes = routes;
+			this.streams = streams;
+		}
+
+		@Override
+		public void onOpen(WebSocket webSocket) {
+			this.webSocket = webSocket;
+			List<Channel> gaps = opened(this);
+			if (gaps == null) {
+				//A newer connection was requested, or the stream is closed.
+				webSocket.abort();
+				return;
+			}
+			//Subscribers are told outside the lock, so a subscriber that subscribes or requests history does not hold the stream.
+			long now = System.currentTimeMillis();
+			for (Channel channel : gaps) {
+				gapCount.incrementAndGet();
+				for (Subscriber subscriber : channel.subscribers) {
+					subscriber.gap(channel.entry.getSymbol(), channel.lastReceive, now);
+				}
+			}
+			webSocket.request(1);
+		}
+
+		@Override
+		public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+			if (this == current) {
+				lastMessage = System.currentTimeMillis();
+				if (last && partial.length() == 0) {
+					dispatch(decoder, routes, data, System.nanoTime());
+				}
+				else {
+					partial.append(data);
+					if (last) {
+						dispatch(decoder, routes, partial, System.nanoTime());
+						partial.setLength(0);
+					}
+				}
+			}
+			webSocket.request(1);
+			return null;
+		}
+
+		@Override
+		public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+			if (this == current) {
+				lastMessage = System.currentTimeMillis();
+			}
+			webSocket.request(1);
+			return null;
+		}
+
+		@Override
+		public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+			lost(this);
+			return null;
+		}
+
+		@Override
+		public void onError(WebSocket webSocket, Throwable error) {
+			lost(this);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,677 @@
+package exchangebroker.Bitkub;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import marketwatch.tools.GetPost;
+import marketwatch.tools.PrintClass;
+
+/** Local stand-in of Bitkub API, so the data path can be measured and tested without api.bitkub.com.
+ * It serves "/api/market/symbols", "/api/market/ticker", "/api/market/depth", "/api/servertime", and "/tradingview/history" in the same format as Bitkub.
+ * A response is taken from a recorded fixture if there is one. If not, it is requested from the upstream and recorded (if the upstream is set), or it is made from synthetic data.
+ * Synthetic prices are a random walk of one step per second. History starts some days before the day (UTC) that the simulator is created, so the same seed makes the same market on the same day.
+ * Latency, jitter, and error rate can be added to every response. Point Bitkub Api at the simulator by Api.setBaseUrl function.
+ * It serves HTTPS by startHttps function, so the cost of TLS handshakes can be measured on the loopback address. */
+public class Simulator {
+
+	/** Change of log price per second. */
+	private static final double volatility = 0.0003;
+	/** Half of the spread as ratio of last price. */
+	private static final double halfSpread = 0.0005;
+	/** Largest value traded per second in quote currency. Volume of base currency is this divided by the start price. */
+	private static final double volumeScale = 1000;
+	static {
+		//Without TCP_NODELAY, every small response waits for delayed ACK (about 40 ms), and measured latency is wrong.
+		//It must be set before the first server is created.
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	/** Random walk of one symbol. Closed minutes are kept, and the forming minute is simulated again on request. */
+	private class Market {
+		final int id;
+		/** Symbol (Bitkub format), for example "THB_BTC". */
+		final String exchangeSymbol;
+		/** Symbol (bridge format), for example "BTC_THB". A symbol that does not have exactly two parts is the same as exchangeSymbol, like Api. */
+		final String symbol;
+		final double startPrice;
+		/** Minute since year 1970 of the first candle. */
+		final long origin;
+		double[] open = new double[0];
+		double[] high = new double[0];
+		double[] low = new double[0];
+		double[] close = new double[0];
+		double[] volume = new double[0];
+		int size;
+
+		Market(int id, String exchangeSymbol, double startPrice) {
+			this.id = id;
+			this.exchangeSymbol = exchangeSymbol;
+			int separator = exchangeSymbol.indexOf('_');
+			symbol = (exchangeSymbol.indexOf('_', separator + 1) >= 0) ? exchangeSymbol : exchangeSymbol.substring(separator + 1) + "_" + exchangeSymbol.substring(0, separator);
+			this.startPrice = startPrice;
+			origin = Math.floorDiv(created, 60 * 60 * 24) * 60 * 24 - historyDays * 60 * 24;
+		}
+
+		/** Simulates seconds of a minute from the close of the previous minute.
+		 * @param out Open, high, low, close, and volume */
+		void simulate(long minute, double previousClose, int seconds, double[] out) {
+			Random random = new Random(seed ^ (id * 0x9E3779B97F4A7C15L) ^ (minute * 0xC2B2AE3D27D4EB4FL));
+			double price = previousClose;
+			out[0] = price;
+			out[1] = price;
+			out[2] = price;
+			out[4] = 0;
+			for (int i = 0; i < seconds; i++) {
+				price *= Math.exp(volatility * random.nextGaussian());
+				out[1] = Math.max(out[1], price);
+				out[2] = Math.min(out[2], price);
+				out[4] += random.nextDouble() * volumeScale / startPrice;
+			}
+			out[3] = price;
+		}
+
+		/** Simulates all closed minutes before a minute. */
+		synchronized void extendTo(long minute) {
+			double[] out = new double[5];
+			while (origin + size < minute) {
+				if (size == open.length) {
+					int capacity = Math.max(1024, size * 2);
+					open = Arrays.copyOf(open, capacity);
+					high = Arrays.copyOf(high, capacity);
+					low = Arrays.copyOf(low, capacity);
+					close = Arrays.copyOf(close, capacity);
+					volume = Arrays.copyOf(volume, capacity);
+				}
+				simulate(origin + size, (size == 0) ? startPrice : close[size - 1], 60, out);
+				open[size] = out[0];
+				high[size] = out[1];
+				low[size] = out[2];
+				close[size] = out[3];
+				volume[size] = out[4];
+				size++;
+			}
+		}
+
+		/** Gets a minute candle. The forming minute has only the seconds until now.
+		 * @param out Open, high, low, close, and volume
+		 * @return False if the minute is before the history or after now */
+		synchronized boolean candle(long minute, long nowSecond, double[] out) {
+			long current = nowSecond / 60;
+			if (minute < origin || minute > current) {return false;}
+			extendTo(current);
+			int index = (int)(minute - origin);
+			if (index < size) {
+				out[0] = open[index];
+				out[1] = high[index];
+				out[2] = low[index];
+				out[3] = close[index];
+				out[4] = volume[index];
+			}
+			else {
+				simulate(minute, (size == 0) ? startPrice : close[size - 1], (int)(nowSecond % 60), out);
+			}
+			return true;
+		}
+	}
+
+	private final long seed;
+	private final int historyDays;
+	/** long: Second. Time that the simulator was created. */
+	private final long created;
+	/** Symbol (Bitkub format) to market. */
+	private final Map<String, Market> markets = new LinkedHashMap<String, Market>();
+	/** Symbol (bridge format) to market. */
+	private final Map<String, Market> marketsBySymbol = new HashMap<String, Market>();
+
+	/** Used for latency and errors, so a seed gives the same faults for the same order of requests. */
+	private final Random faults;
+	/** long: Millisecond */
+	private volatile long latency;
+	/** long: Millisecond */
+	private volatile long jitter;
+	private volatile double errorRate;
+	private volatile Path fixtureDirectory;
+	private volatile String upstream;
+
+	private HttpServer server;
+	private boolean https;
+	private ExecutorService executor;
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong errorCount = new AtomicLong();
+	private final AtomicLong fixtureCount = new AtomicLong();
+	/** Client address and port of every connection, so connections can be counted without access to the server sockets. */
+	private final Set<InetSocketAddress> clients = ConcurrentHashMap.newKeySet();
+
+	/** Constructor.
+	 * Symbols THB_BTC, THB_ETH, THB_USDT, THB_XRP, THB_DOGE, and THB_USDC_E are added, and history is kept for 7 days.
+	 * THB_USDC_E has three parts, so Api keeps it as a plain symbol without an entry of the symbol table.
+	 * @param seed Seed of random numbers */
+	public Simulator(long seed) {
+		this(seed, 7);
+		addSymbol("THB_BTC", 2000000);
+		addSymbol("THB_ETH", 120000);
+		addSymbol("THB_USDT", 35);
+		addSymbol("THB_XRP", 20);
+		addSymbol("THB_DOGE", 5);
+		addSymbol("THB_USDC_E", 35);
+	}
+
+	/** Constructor. No symbol is added.
+	 * @param seed Seed of random numbers
+	 * @param historyDays Number of days of history before the day that the simulator is created */
+	public Simulator(long seed, int historyDays) {
+		this.seed = seed;
+		this.historyDays = Math.max(1, historyDays);
+		created = System.currentTimeMillis() / 1000;
+		faults = new Random(seed);
+	}
+
+	/** Adds a symbol to synthetic data. Add all symbols before the simulator is started.
+	 * @param exchangeSymbol Symbol (Bitkub format), for example "THB_BTC"
+	 * @param startPrice Price at the beginning of history */
+	public synchronized void addSymbol(String exchangeSymbol, double startPrice) {
+		if (exchangeSymbol.indexOf('_') <= 0 || startPrice <= 0) {throw new IllegalArgumentException("Symbol or price is incorrect.");}
+		Market market = new Market(markets.size() + 1, exchangeSymbol, startPrice);
+		markets.put(exchangeSymbol, market);
+		marketsBySymbol.put(market.symbol, market);
+	}
+
+	/** Sets latency that is added to every response.
+	 * @param latency Fixed latency as millisecond
+	 * @param jitter Largest random latency that is added to the fixed latency as millisecond */
+	public void setLatency(long latency, long jitter) {
+		this.latency = Math.max(0, latency);
+		this.jitter = Math.max(0, jitter);
+	}
+
+	/** Sets ratio of responses that are HTTP 500 errors.
+	 * @param errorRate Ratio from 0 to 1 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = Math.max(0, Math.min(1, errorRate));
+	}
+
+	/** Sets directory of recorded fixtures. A request is answered by the fixture of its path and query, or by the fixture of its path.
+	 * @param directory Directory, or null to use only synthetic data */
+	public void setFixtureDirectory(Path directory) {
+		fixtureDirectory = directory;
+	}
+
+	/** Sets upstream API. A request without fixture is sent to it, and the response is recorded to the fixture directory.
+	 * @param baseUrl Base URL, for example "https://api.bitkub.com", or null to use synthetic data */
+	public void setUpstream(String baseUrl) {
+		upstream = (baseUrl == null || !baseUrl.endsWith("/")) ? baseUrl : baseUrl.substring(0, baseUrl.length() - 1);
+	}
+
+	/** Starts the server on the loopback address.
+	 * @param port Port, or 0 to use any free port
+	 * @return Base URL of the simulator
+	 * @throws IOException If the port cannot be used */
+	public synchronized String start(int port) throws IOException {
+		return start(port, null);
+	}
+
+	/** Starts the server on the loopback address with HTTPS. Clients must trust the key of the context, for example by GetPost.setSslContext function.
+	 * @param port Port, or 0 to use any free port
+	 * @param context TLS context with the key of the server, for example by createTestSslContext function
+	 * @return Base URL of the simulator ("https://...")
+	 * @throws IOException If the port cannot be used */
+	public synchronized String startHttps(int port, SSLContext context) throws IOException {
+		return start(port, context);
+	}
+
+	private String start(int port, SSLContext context) throws IOException {
+		if (server != null) {return getBaseUrl();}
+		executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "Simulator");
+			thread.setDaemon(true);
+			return thread;
+		});
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+		if (context == null) {
+			server = HttpServer.create(address, 0);
+		}
+		else {
+			HttpsServer httpsServer = HttpsServer.create(address, 0);
+			httpsServer.setHttpsConfigurator(new HttpsConfigurator(context));
+			server = httpsServer;
+		}
+		https = context != null;
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+		return getBaseUrl();
+	}
+
+	/** Stops the server. */
+	public synchronized void stop() {
+		if (server == null) {return;}
+		server.stop(0);
+		executor.shutdownNow();
+		server = null;
+		executor = null;
+	}
+
+	/** Gets base URL of the simulator.
+	 * @return Base URL, or null if the simulator is not started */
+	public synchronized String getBaseUrl() {
+		if (server == null) {return null;}
+		return (https ? "https://" : "http://") + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	/** Creates a TLS context with a new self-signed test key for "localhost" and "127.0.0.1". The server uses the key, and a client that uses the same context trusts it.
+	 * The key is made by keytool of the running Java, so no key is kept in the source.
+	 * @return TLS context
+	 * @throws IOException If the key cannot be made */
+	public static SSLContext createTestSslContext() throws IOException {
+		Path file = Files.createTempFile("simulator", ".p12");
+		char[] password = "simulator".toCharArray();
+		try {
+			Files.delete(file);
+			Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+					"-genkeypair", "-alias", "simulator", "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=localhost",
+					"-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "30", "-storetype", "PKCS12",
+					"-keystore", file.toString(), "-storepass", new String(password), "-keypass", new String(password))
+					.redirectErrorStream(true).start();
+			process.getInputStream().readAllBytes();
+			if (process.waitFor() != 0) {throw new IOException("Test key cannot be made by keytool.");}
+			KeyStore keyStore = KeyStore.getInstance("PKCS12");
+			try (InputStream in = Files.newInputStream(file)) {
+				keyStore.load(in, password);
+			}
+			KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			keys.init(keyStore, password);
+			//The certificate of the key entry is trusted, so the self-signed key is accepted by clients of the context.
+			TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+			trust.init(keyStore);
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+			return context;
+		}
+		catch (GeneralSecurityException gse) {
+			throw new IOException("Test key cannot be loaded.", gse);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Test key cannot be made by keytool.", ie);
+		}
+		finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/** Gets the last price of a symbol, for example to start a StreamSimulator at the same price.
+	 * @param exchangeSymbol Symbol (Bitkub format), for example "THB_BTC"
+	 * @return Price, or NaN if the symbol is not simulated */
+	public double getLastPrice(String exchangeSymbol) {
+		Market market = market(exchangeSymbol);
+		if (market == null) {return Double.NaN;}
+		long now = System.currentTimeMillis() / 1000;
+		double[] out = new double[5];
+		return market.candle(now / 60, now, out) ? out[3] : Double.NaN;
+	}
+
+	/** Gets symbols that are simulated.
+	 * @return Symbols (Bitkub format) */
+	public String[] getSymbols() {
+		List<Market> all = allMarkets();
+		String[] ret = new String[all.size()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = all.get(i).exchangeSymbol;
+		}
+		return ret;
+	}
+
+	/** Gets number of connections that clients have opened. Requests per connection show how well connections are reused.
+	 * @return Number of connections */
+	public long getConnectionCount() {
+		return clients.size();
+	}
+
+	/** Gets number of requests.
+	 * @return Number of requests */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/** Gets number of responses that were errors, both injected and failed.
+	 * @return Number of errors */
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	/** Gets number of responses that were read from fixtures. Recorded responses of the upstream are not counted.
+	 * @return Number of responses */
+	public long getFixtureCount() {
+		return fixtureCount.get();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requestCount.incrementAndGet();
+		clients.add(exchange.getRemoteAddress());
+		try {
+			long delay;
+			boolean error;
+			synchronized (faults) {
+				delay = latency + ((jitter > 0) ? (long)(faults.nextDouble() * jitter) : 0);
+				error = faults.nextDouble() < errorRate;
+			}
+			if (delay > 0) {
+				Thread.sleep(delay);
+			}
+			if (error) {
+				respond(exchange, 500, "{\"error\":1}");
+				return;
+			}
+			String path = exchange.getRequestURI().getPath();
+			String query = exchange.getRequestURI().getRawQuery();
+			byte[] body = fixture(path, query);
+			if (body != null) {
+				respond(exchange, 200, body);
+				return;
+			}
+			Map<String, String> parameters = parameters(query);
+			String response;
+			switch (path) {
+			case "/api/market/symbols":		response = symbols(); break;
+			case "/api/market/ticker":		response = ticker(parameters.get("sym")); break;
+			case "/api/market/depth":		response = depth(parameters.get("sym"), parameters.get("lmt")); break;
+			case "/api/servertime":			response = Long.toString(System.currentTimeMillis() / 1000); break;
+			case "/tradingview/history":	response = history(parameters); break;
+			default:						response = null;
+			}
+			if (response == null) {
+				respond(exchange, 404, "{\"error\":11}");
+				return;
+			}
+			respond(exchange, 200, response);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		catch (RuntimeException re) {
+			respond(exchange, 500, "{\"error\":1}");
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String body) throws IOException {
+		respond(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+		if (status >= 400) {
+			errorCount.incrementAndGet();
+		}
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/** Gets file name of a fixture. Characters that cannot be in a file name are changed to '_'.
+	 * @return File name, for example "api_market_ticker_sym_THB_BTC.json" */
+	static String fixtureName(String path, String query) {
+		String name = (query == null) ? path : path + "?" + query;
+		StringBuilder ret = new StringBuilder();
+		for (int i = (name.startsWith("/") ? 1 : 0); i < name.length(); i++) {
+			char c = name.charAt(i);
+			ret.append((Character.isLetterOrDigit(c) || c == '.' || c == '-') ? c : '_');
+		}
+		return ret.append(".json").toString();
+	}
+
+	/** Reads the fixture of a request, or records the response of the upstream.
+	 * @return Response body, or null if there is no fixture and no upstream */
+	private byte[] fixture(String path, String query) throws IOException {
+		Path directory = fixtureDirectory;
+		if (directory != null) {
+			Path exact = directory.resolve(fixtureName(path, query));
+			Path general = directory.resolve(fixtureName(path, null));
+			Path found = Files.isRegularFile(exact) ? exact : (query != null && Files.isRegularFile(general)) ? general : null;
+			if (found != null) {
+				fixtureCount.incrementAndGet();
+				return Files.readAllBytes(found);
+			}
+		}
+		String base = upstream;
+		if (base == null) {return null;}
+		String url = base + path + ((query == null) ? "" : "?" + query);
+		byte[] body = new GetPost().getUrlAsync(url, bytes -> bytes).join();
+		if (body == null) {throw new IllegalStateException("Upstream request is failed.");}
+		if (directory != null) {
+			Files.createDirectories(directory);
+			Files.write(directory.resolve(fixtureName(path, query)), body);
+		}
+		return body;
+	}
+
+	private static Map<String, String> parameters(String query) {
+		Map<String, String> ret = new HashMap<String, String>();
+		if (query == null) {return ret;}
+		for (String pair : query.split("&")) {
+			int separator = pair.indexOf('=');
+			if (separator > 0) {
+				ret.put(pair.substring(0, separator), pair.substring(separator + 1));
+			}
+		}
+		return ret;
+	}
+
+	private static String number(double value) {
+		return BigDecimal.valueOf(Math.round(value * 1e8) / 1e8).stripTrailingZeros().toPlainString();
+	}
+
+	private synchronized List<Market> allMarkets() {
+		return new ArrayList<Market>(markets.values());
+	}
+
+	private synchronized Market market(String symbol) {
+		if (symbol == null) {return null;}
+		Market found = markets.get(symbol);
+		return (found != null) ? found : marketsBySymbol.get(symbol);
+	}
+
+	private String symbols() {
+		StringBuilder ret = new StringBuilder("{\"error\":0,\"result\":[");
+		boolean first = true;
+		for (Market market : allMarkets()) {
+			if (!first) {ret.append(',');}
+			first = false;
+			ret.append("{\"id\":").append(market.id).append(",\"symbol\":\"").append(market.exchangeSymbol)
+					.append("\",\"info\":\"Simulated ").append(market.symbol).append("\"}");
+		}
+		return ret.append("]}").toString();
+	}
+
+	/** Makes ticker of one symbol, or of all symbols if the symbol is null. */
+	private String ticker(String symbol) {
+		long now = System.currentTimeMillis() / 1000;
+		long current = now / 60;
+		double[] out = new double[5];
+		StringBuilder ret = new StringBuilder("{");
+		boolean first = true;
+		for (Market market : allMarkets()) {
+			if (symbol != null && !symbol.equals(market.exchangeSymbol)) {continue;}
+			double high = Double.NEGATIVE_INFINITY;
+			double low = Double.POSITIVE_INFINITY;
+			double baseVolume = 0;
+			double quoteVolume = 0;
+			double open = Double.NaN;
+			for (long minute = current - 60 * 24 + 1; minute <= current; minute++) {
+				if (!market.candle(minute, now, out)) {continue;}
+				if (Double.isNaN(open)) {open = out[0];}
+				high = Math.max(high, out[1]);
+				low = Math.min(low, out[2]);
+				baseVolume += out[4];
+				quoteVolume += out[4] * out[3];
+			}
+			double last = out[3];
+			if (!first) {ret.append(',');}
+			first = false;
+			ret.append('"').append(market.exchangeSymbol).append("\":{\"id\":").append(market.id)
+					.append(",\"last\":").append(number(last))
+					.append(",\"lowestAsk\":").append(number(last * (1 + halfSpread)))
+					.append(",\"highestBid\":").append(number(last * (1 - halfSpread)))
+					.append(",\"percentChange\":").append(number((last - open) / open * 100))
+					.append(",\"baseVolume\":").append(number(baseVolume))
+					.append(",\"quoteVolume\":").append(number(quoteVolume))
+					.append(",\"isFrozen\":0")
+					.append(",\"high24hr\":").append(number(high))
+					.append(",\"low24hr\":").append(number(low)).append('}');
+		}
+		return ret.append('}').toString();
+	}
+
+	/** Makes order book around the last price. Amounts change every second. */
+	private String depth(String symbol, String limit) {
+		Market market = market(symbol);
+		if (market == null) {return "{\"asks\":[],\"bids\":[]}";}
+		int levels;
+		try {
+			levels = (limit == null) ? 10 : Math.max(1, Math.min(1000, Integer.parseInt(limit)));
+		}
+		catch (NumberFormatException nfe) {
+			levels = 10;
+		}
+		long now = System.currentTimeMillis() / 1000;
+		double[] out = new double[5];
+		market.candle(now / 60, now, out);
+		double last = out[3];
+		double tick = last * halfSpread;
+		Random random = new Random(seed ^ (market.id * 0x9E3779B97F4A7C15L) ^ now);
+		StringBuilder ret = new StringBuilder("{\"asks\":[");
+		for (int i = 0; i < levels; i++) {
+			if (i > 0) {ret.append(',');}
+			ret.append('[').append(number(last + tick * (i + 1))).append(',').append(number(random.nextDouble() * volumeScale / market.startPrice * 10)).append(']');
+		}
+		ret.append("],\"bids\":[");
+		for (int i = 0; i < levels; i++) {
+			if (i > 0) {ret.append(',');}
+			ret.append('[').append(number(last - tick * (i + 1))).append(',').append(number(random.nextDouble() * volumeScale / market.startPrice * 10)).append(']');
+		}
+		return ret.append("]}").toString();
+	}
+
+	/** Makes TradingView history. Candles are built from minute candles, and the forming candle is included. */
+	private String history(Map<String, String> parameters) {
+		Market market = market(parameters.get("symbol"));
+		String resolution = parameters.get("resolution");
+		long from;
+		long to;
+		try {
+			from = Long.parseLong(parameters.get("from"));
+			to = Long.parseLong(parameters.get("to"));
+		}
+		catch (NumberFormatException nfe) {
+			return "{\"s\":\"error\"}";
+		}
+		long minutes;
+		if ("1D".equals(resolution)) {
+			minutes = 60 * 24;
+		}
+		else {
+			try {
+				minutes = Long.parseLong(resolution);
+			}
+			catch (NumberFormatException nfe) {
+				return "{\"s\":\"error\"}";
+			}
+		}
+		if (market == null || minutes <= 0) {return "{\"s\":\"no_data\"}";}
+		long now = System.currentTimeMillis() / 1000;
+		long length = minutes * 60;
+		StringBuilder t = new StringBuilder();
+		StringBuilder o = new StringBuilder();
+		StringBuilder h = new StringBuilder();
+		StringBuilder l = new StringBuilder();
+		StringBuilder c = new StringBuilder();
+		StringBuilder v = new StringBuilder();
+		double[] out = new double[5];
+		int count = 0;
+		for (long start = Math.floorDiv(Math.max(from, market.origin * 60), length) * length; start <= Math.min(to, now); start += length) {
+			if (start < from) {continue;}
+			double open = Double.NaN;
+			double high = Double.NEGATIVE_INFINITY;
+			double low = Double.POSITIVE_INFINITY;
+			double close = Double.NaN;
+			double volume = 0;
+			for (long minute = start / 60; minute < start / 60 + minutes; minute++) {
+				if (!market.candle(minute, now, out)) {continue;}
+				if (Double.isNaN(open)) {open = out[0];}
+				high = Math.max(high, out[1]);
+				low = Math.min(low, out[2]);
+				close = out[3];
+				volume += out[4];
+			}
+			if (Double.isNaN(open)) {continue;}
+			String separator = (count == 0) ? "" : ",";
+			t.append(separator).append(start);
+			o.append(separator).append(number(open));
+			h.append(separator).append(number(high));
+			l.append(separator).append(number(low));
+			c.append(separator).append(number(close));
+			v.append(separator).append(number(volume));
+			count++;
+		}
+		if (count == 0) {return "{\"s\":\"no_data\"}";}
+		return "{\"c\":[" + c + "],\"h\":[" + h + "],\"l\":[" + l + "],\"o\":[" + o + "],\"s\":\"ok\",\"t\":[" + t + "],\"v\":[" + v + "]}";
+	}
+
+	/** Runs a simulator until the process is stopped.
+	 * Arguments: [port] [fixture directory] [upstream base URL]. Start the application with -Dmarketwatch.bitkub.baseUrl=(printed URL) to use it.
+	 * @param args Arguments
+	 * @throws IOException If the port cannot be used */
+	public static void main(String[] args) throws IOException {
+		Simulator simulator = new Simulator(1);
+		if (args.length >= 2) {
+			simulator.setFixtureDirectory(Paths.get(args[1]));
+		}
+		if (args.length >= 3) {
+			simulator.setUpstream(args[2]);
+		}
+		simulator.start((args.length >= 1) ? Integer.parseInt(args[0]) : 0);
+		new PrintClass().println("Simulator: " + simulator.getBaseUrl());
+		try {
+			Thread.currentThread().join();
+		}
+		catch (InterruptedException ie) {
+			simulator.stop();
+		}
+	}
+}
\ No newline at end of file
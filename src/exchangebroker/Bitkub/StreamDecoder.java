@@ -0,0 +1,81 @@
+package exchangebroker.Bitkub;
+
+import java.io.IOException;
+
+import marketwatch.tools.JsonCursor;
+
+/** Decodes one message of Bitkub WebSocket API, for example
+ * {"stream": "market.trade.thb_btc", "sym": "THB_BTC", "rat": 1912000.00, "amt": 0.00008, "ts": 1629173185, ...} or
+ * {"stream": "market.ticker.thb_btc", "last": ..., "highestBid": ..., "lowestAsk": ..., "baseVolume": ..., ...}.
+ * Values are read char by char by a JsonCursor into fields, so only the stream name is created. Numbers may be quoted. Use one decoder per connection. */
+class StreamDecoder {
+
+	private final JsonCursor cursor = new JsonCursor("stream message");
+
+	/** Stream name, or null if the message has no stream. */
+	String stream;
+	/** Trade price ("rat"). */
+	double rate;
+	/** Trade amount ("amt"). */
+	double amount;
+	/** Time as second or millisecond ("ts"), or -1 if there is no time. */
+	long time;
+	double last;
+	double highestBid;
+	double lowestAsk;
+	double baseVolume;
+
+	/** Decodes a message. The previous values are replaced, and values that are not in the message are NaN.
+	 * @param json Text of the frame
+	 * @param start Start of the message
+	 * @param end End of the message (exclusive)
+	 * @throws IOException If the message is not a JSON object */
+	public void decode(CharSequence json, int start, int end) throws IOException {
+		cursor.reset(json, start, end);
+		stream = null;
+		rate = Double.NaN;
+		amount = Double.NaN;
+		time = -1;
+		last = Double.NaN;
+		highestBid = Double.NaN;
+		lowestAsk = Double.NaN;
+		baseVolume = Double.NaN;
+		cursor.expect('{');
+		if (!cursor.skip('}')) {
+			do {
+				cursor.readKey();
+				if (cursor.isKey("stream") && cursor.peek() == '"') {
+					stream = cursor.readString();
+				}
+				else if (!cursor.isNumberValue()) {
+					cursor.skipValue();
+				}
+				else if (cursor.isKey("rat")) {
+					rate = cursor.readNumber();
+				}
+				else if (cursor.isKey("amt")) {
+					amount = cursor.readNumber();
+				}
+				else if (cursor.isKey("ts")) {
+					time = (long)cursor.readNumber();
+				}
+				else if (cursor.isKey("last")) {
+					last = cursor.readNumber();
+				}
+				else if (cursor.isKey("highestBid")) {
+					highestBid = cursor.readNumber();
+				}
+				else if (cursor.isKey("lowestAsk")) {
+					lowestAsk = cursor.readNumber();
+				}
+				else if (cursor.isKey("baseVolume")) {
+					baseVolume = cursor.readNumber();
+				}
+				else {
+					cursor.skipValue();
+				}
+			} while (cursor.nextMember());
+		}
+		cursor.release();
+	}
+}
\ No newline at end of file
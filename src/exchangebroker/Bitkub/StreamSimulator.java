@@ -0,0 +1,424 @@
+package exchangebroker.Bitkub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Local stand-in of Bitkub WebSocket API, for tests and latency measurement without api.bitkub.com.
+ * It accepts "/websocket-api/(streams)" connections, and pushes trades and tickers of a random walk of each symbol in the format of Bitkub.
+ * Only what the streams need of WebSocket (RFC 6455) is done: the handshake, unmasked text frames to the client, and ping, pong, and close of the client.
+ * Connections can be dropped, or can stop sending without closing, to test reconnection and gap detection. */
+public class StreamSimulator {
+
+	private static final String acceptGuid = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	/** Change of log price per trade. */
+	private static final double volatility = 0.0003;
+	/** Half of the spread as ratio of last price. */
+	private static final double halfSpread = 0.0005;
+
+	/** Random walk of one symbol. Only the generator thread changes it. */
+	private static class Market {
+		final int id;
+		/** Symbol (Bitkub format), for example "THB_BTC". */
+		final String exchangeSymbol;
+		double price;
+		double high;
+		double low;
+		double volume;
+
+		Market(int id, String exchangeSymbol, double price) {
+			this.id = id;
+			this.exchangeSymbol = exchangeSymbol;
+			this.price = price;
+			high = price;
+			low = price;
+		}
+	}
+
+	/** One client. Frames are written by the generator thread and the reader thread, so writing is synchronized. */
+	private class Connection {
+		final Socket socket;
+		final OutputStream out;
+		/** Symbols (Bitkub format) of trade streams. */
+		final List<String> trades = new ArrayList<String>();
+		/** Symbols (Bitkub format) of ticker streams. */
+		final List<String> tickers = new ArrayList<String>();
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			out = socket.getOutputStream();
+		}
+
+		synchronized void send(int opcode, byte[] payload) throws IOException {
+			int header = (payload.length < 126) ? 2 : (payload.length < 65536) ? 4 : 10;
+			byte[] frame = new byte[header + payload.length];
+			frame[0] = (byte)(0x80 | opcode);
+			if (header == 2) {
+				frame[1] = (byte)payload.length;
+			}
+			else if (header == 4) {
+				frame[1] = 126;
+				frame[2] = (byte)(payload.length >>> 8);
+				frame[3] = (byte)payload.length;
+			}
+			else {
+				frame[1] = 127;
+				for (int i = 0; i < 8; i++) {
+					frame[2 + i] = (byte)((long)payload.length >>> (56 - 8 * i));
+				}
+			}
+			System.arraycopy(payload, 0, frame, header, payload.length);
+			out.write(frame);
+			out.flush();
+		}
+
+		void close() {
+			connections.remove(this);
+			try {
+				socket.close();
+			}
+			catch (IOException ioe) {
+				//Already closed.
+			}
+		}
+	}
+
+	private final Random random;
+	/** Symbol (Bitkub format) to market. Guarded by this simulator. */
+	private final Map<String, Market> markets = new HashMap<String, Market>();
+	private final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+	private volatile double tradeRate = 10;
+	private volatile boolean paused;
+
+	private ServerSocket server;
+	private ExecutorService executor;
+	private volatile boolean running;
+	private final AtomicLong acceptedCount = new AtomicLong();
+	private final AtomicLong messageCount = new AtomicLong();
+	private long tradeId;
+
+	/** Constructor.
+	 * @param seed Seed of random numbers */
+	public StreamSimulator(long seed) {
+		random = new Random(seed);
+	}
+
+	/** Sets price of a symbol. Symbols that are not set start at 1000.
+	 * @param exchangeSymbol Symbol (Bitkub format), for example "THB_BTC"
+	 * @param price Price */
+	public synchronized void setStartPrice(String exchangeSymbol, double price) {
+		Market previous = markets.get(exchangeSymbol);
+		markets.put(exchangeSymbol, new Market((previous != null) ? previous.id : markets.size() + 1, exchangeSymbol, price));
+	}
+
+	/** Sets number of trades of each symbol per second.
+	 * @param tradeRate Trades per second */
+	public void setTradeRate(double tradeRate) {
+		this.tradeRate = Math.max(0.1, tradeRate);
+	}
+
+	/** Stops or starts sending messages without closing connections, like a silently dropped connection.
+	 * @param paused True to stop sending */
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+
+	/** Starts the server on the loopback address.
+	 * @param port Port, or 0 to use any free port
+	 * @return Base URL of streams, for example "ws://127.0.0.1:12345/websocket-api/"
+	 * @throws IOException If the port cannot be used */
+	public synchronized String start(int port) throws IOException {
+		if (server != null) {return getUrl();}
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "StreamSimulator");
+			thread.setDaemon(true);
+			return thread;
+		});
+		running = true;
+		ServerSocket listening = server;
+		executor.execute(() -> accept(listening));
+		executor.execute(this::generate);
+		return getUrl();
+	}
+
+	/** Stops the server and closes all connections. */
+	public synchronized void stop() {
+		if (server == null) {return;}
+		running = false;
+		try {
+			server.close();
+		}
+		catch (IOException ioe) {
+			//Already closed.
+		}
+		dropConnections();
+		executor.shutdownNow();
+		server = null;
+		executor = null;
+	}
+
+	/** Gets base URL of streams.
+	 * @return Base URL, or null if the simulator is not started */
+	public synchronized String getUrl() {
+		if (server == null) {return null;}
+		return "ws://" + server.getInetAddress().getHostAddress() + ":" + server.getLocalPort() + "/websocket-api/";
+	}
+
+	/** Closes all connections without close frame, like a broken network. */
+	public void dropConnections() {
+		for (Connection connection : connections) {
+			connection.close();
+		}
+	}
+
+	/** Gets number of open connections.
+	 * @return Number of connections */
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	/** Gets number of connections that have been accepted.
+	 * @return Number of connections */
+	public long getAcceptedCount() {
+		return acceptedCount.get();
+	}
+
+	/** Gets number of messages that have been sent.
+	 * @return Number of messages */
+	public long getMessageCount() {
+		return messageCount.get();
+	}
+
+	private void accept(ServerSocket listening) {
+		while (running) {
+			Socket socket;
+			try {
+				socket = listening.accept();
+				socket.setTcpNoDelay(true);
+			}
+			catch (IOException ioe) {
+				return;
+			}
+			executor.execute(() -> serve(socket));
+		}
+	}
+
+	/** Does the handshake, and reads frames of the client until the connection is closed. */
+	private void serve(Socket socket) {
+		Connection connection = null;
+		try {
+			InputStream in = socket.getInputStream();
+			String request = readHeaders(in);
+			String[] lines = request.split("\r\n");
+			String[] requestLine = lines[0].split(" ");
+			String key = null;
+			for (String line : lines) {
+				int separator = line.indexOf(':');
+				if (separator > 0 && line.substring(0, separator).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+					key = line.substring(separator + 1).trim();
+				}
+			}
+			String prefix = "/websocket-api/";
+			if (requestLine.length < 2 || key == null || !requestLine[1].startsWith(prefix)) {
+				socket.getOutputStream().write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+				socket.close();
+				return;
+			}
+			connection = new Connection(socket);
+			for (String stream : requestLine[1].substring(prefix.length()).split(",")) {
+				if (stream.startsWith("market.trade.")) {
+					connection.trades.add(stream.substring("market.trade.".length()).toUpperCase());
+				}
+				else if (stream.startsWith("market.ticker.")) {
+					connection.tickers.add(stream.substring("market.ticker.".length()).toUpperCase());
+				}
+			}
+			String response = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n";
+			synchronized (connection) {
+				connection.out.write(response.getBytes(StandardCharsets.US_ASCII));
+				connection.out.flush();
+			}
+			connections.add(connection);
+			acceptedCount.incrementAndGet();
+			readFrames(connection, new DataInputStream(in));
+		}
+		catch (IOException ioe) {
+			//The connection is closed or broken.
+		}
+		finally {
+			if (connection != null) {
+				connection.close();
+			}
+			else {
+				try {
+					socket.close();
+				}
+				catch (IOException ioe) {
+					//Already closed.
+				}
+			}
+		}
+	}
+
+	private static String readHeaders(InputStream in) throws IOException {
+		ByteArrayOutputStream headers = new ByteArrayOutputStream();
+		int matched = 0;
+		while (matched < 4) {
+			int b = in.read();
+			if (b < 0 || headers.size() > 16384) {throw new IOException("Handshake is incorrect.");}
+			headers.write(b);
+			matched = (b == ((matched % 2 == 0) ? '\r' : '\n')) ? matched + 1 : (b == '\r') ? 1 : 0;
+		}
+		return headers.toString(StandardCharsets.US_ASCII);
+	}
+
+	private static String acceptKey(String key) {
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			return Base64.getEncoder().encodeToString(sha1.digest((key + acceptGuid).getBytes(StandardCharsets.US_ASCII)));
+		}
+		catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException(nsae);
+		}
+	}
+
+	/** Reads frames of the client. Pings are answered, a close frame is echoed, and other frames are ignored. */
+	private void readFrames(Connection connection, DataInputStream in) throws IOException {
+		while (true) {
+			int first = in.readUnsignedByte();
+			int second = in.readUnsignedByte();
+			int opcode = first & 0x0F;
+			long length = second & 0x7F;
+			if (length == 126) {
+				length = in.readUnsignedShort();
+			}
+			else if (length == 127) {
+				length = in.readLong();
+			}
+			if (length > 1 << 20) {throw new IOException("Frame is too large.");}
+			byte[] mask = new byte[4];
+			boolean masked = (second & 0x80) != 0;
+			if (masked) {
+				in.readFully(mask);
+			}
+			byte[] payload = new byte[(int)length];
+			in.readFully(payload);
+			if (masked) {
+				for (int i = 0; i < payload.length; i++) {
+					payload[i] ^= mask[i % 4];
+				}
+			}
+			if (opcode == 0x9) {
+				connection.send(0xA, payload);
+			}
+			else if (opcode == 0x8) {
+				connection.send(0x8, payload);
+				return;
+			}
+		}
+	}
+
+	/** Sends trades of every subscribed symbol tradeRate times per second, and tickers every second. */
+	private void generate() {
+		long nextTicker = System.currentTimeMillis() + 1000;
+		while (running) {
+			try {
+				Thread.sleep(Math.max(1, Math.round(1000 / tradeRate)));
+			}
+			catch (InterruptedException ie) {
+				return;
+			}
+			if (paused) {continue;}
+			long now = System.currentTimeMillis();
+			boolean sendTicker = now >= nextTicker;
+			if (sendTicker) {
+				nextTicker = now + 1000;
+			}
+			Map<String, String> trades = new HashMap<String, String>();
+			Map<String, String> tickers = new HashMap<String, String>();
+			for (Connection connection : connections) {
+				StringBuilder frame = new StringBuilder();
+				for (String symbol : connection.trades) {
+					String message = trades.get(symbol);
+					if (message == null) {
+						message = trade(market(symbol), now);
+						trades.put(symbol, message);
+					}
+					frame.append(message).append('\n');
+				}
+				if (sendTicker) {
+					for (String symbol : connection.tickers) {
+						String message = tickers.get(symbol);
+						if (message == null) {
+							message = ticker(market(symbol));
+							tickers.put(symbol, message);
+						}
+						frame.append(message).append('\n');
+					}
+				}
+				if (frame.length() == 0) {continue;}
+				frame.setLength(frame.length() - 1);
+				try {
+					connection.send(0x1, frame.toString().getBytes(StandardCharsets.UTF_8));
+					messageCount.addAndGet(trades.size() + (sendTicker ? connection.tickers.size() : 0));
+				}
+				catch (IOException ioe) {
+					connection.close();
+				}
+			}
+		}
+	}
+
+	private synchronized Market market(String exchangeSymbol) {
+		Market market = markets.get(exchangeSymbol);
+		if (market == null) {
+			market = new Market(markets.size() + 1, exchangeSymbol, 1000);
+			markets.put(exchangeSymbol, market);
+		}
+		return market;
+	}
+
+	private static String number(double value) {
+		return BigDecimal.valueOf(Math.round(value * 1e8) / 1e8).stripTrailingZeros().toPlainString();
+	}
+
+	/** Moves the price of a symbol by one trade, and makes the trade message. */
+	private String trade(Market market, long now) {
+		market.price *= Math.exp(volatility * random.nextGaussian());
+		market.high = Math.max(market.high, market.price);
+		market.low = Math.min(market.low, market.price);
+		double amount = Math.round(random.nextDouble() * 1000 / market.price * 1e8) / 1e8;
+		market.volume += amount;
+		tradeId++;
+		return "{\"stream\":\"market.trade." + market.exchangeSymbol.toLowerCase() + "\",\"sym\":\"" + market.exchangeSymbol
+				+ "\",\"txn\":\"SIM" + tradeId + "\",\"rat\":" + number(market.price) + ",\"amt\":" + number(amount)
+				+ ",\"bid\":" + tradeId + ",\"sid\":" + tradeId + ",\"ts\":" + (now / 1000) + "}";
+	}
+
+	private String ticker(Market market) {
+		return "{\"stream\":\"market.ticker." + market.exchangeSymbol.toLowerCase() + "\",\"id\":" + market.id
+				+ ",\"last\":" + number(market.price) + ",\"lowestAsk\":" + number(market.price * (1 + halfSpread))
+				+ ",\"highestBid\":" + number(market.price * (1 - halfSpread)) + ",\"baseVolume\":" + number(market.volume)
+				+ ",\"isFrozen\":0,\"high24hr\":" + number(market.high) + ",\"low24hr\":" + number(market.low) + "}";
+	}
+}
\ No newline at end of file
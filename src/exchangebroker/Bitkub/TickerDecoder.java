@@ -0,0 +1,83 @@
+package exchangebroker.Bitkub;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import exchangebroker.SymbolCatalog;
+import exchangebroker.SymbolTable;
+import exchangebroker.TickerSnapshot;
+import marketwatch.tools.JsonCursor;
+
+/** Decodes Bitkub ticker response ({"THB_BTC": {"id": 1, "last": ..., "lowestAsk": ..., "highestBid": ..., "baseVolume": ...}, ...}) straight into ticker snapshots.
+ * Values are read byte by byte by a JsonCursor. Only symbols and snapshots are created, and no map or boxed number is created for the values. */
+class TickerDecoder {
+
+	private final JsonCursor cursor = new JsonCursor("ticker response");
+
+	/** Decodes a response.
+	 * @param json Response body
+	 * @param receiveTime Time that the response was received as millisecond
+	 * @param catalog Changes a symbol of Bitkub to an entry of the symbol table, or to a plain symbol that has no entry. Symbols that are not in the catalog are skipped.
+	 * @return Map of symbol (bridge format) to frozen snapshot
+	 * @throws IOException If the response is not Bitkub ticker format */
+	public Map<String, TickerSnapshot> decode(byte[] json, long receiveTime, SymbolCatalog catalog) throws IOException {
+		cursor.reset(json);
+		Map<String, TickerSnapshot> tickers = new HashMap<String, TickerSnapshot>();
+		cursor.expect('{');
+		if (!cursor.skip('}')) {
+			do {
+				String exchangeSymbol = cursor.readString();
+				SymbolTable.Entry entry = catalog.getExchangeEntry(exchangeSymbol);
+				//A plain symbol has no entry, so it is looked up by name.
+				String symbol = (entry != null) ? entry.getSymbol() : catalog.fromExchangeSymbol(exchangeSymbol);
+				cursor.expect(':');
+				if (symbol == null || cursor.peek() != '{') {
+					cursor.skipValue();
+				}
+				else {
+					TickerSnapshot snapshot = readTicker(symbol, (entry != null) ? entry.getId() : -1, receiveTime);
+					tickers.put(symbol, snapshot);
+				}
+			} while (cursor.nextMember());
+		}
+		cursor.release();
+		return tickers;
+	}
+
+	/** Reads a ticker object. */
+	private TickerSnapshot readTicker(String symbol, int symbolId, long receiveTime) throws IOException {
+		double last = Double.NaN;
+		double highestBid = Double.NaN;
+		double lowestAsk = Double.NaN;
+		double volume = Double.NaN;
+		cursor.expect('{');
+		if (!cursor.skip('}')) {
+			do {
+				cursor.readKey();
+				if (!cursor.isNumberValue()) {
+					cursor.skipValue();
+				}
+				else if (cursor.isKey("last")) {
+					last = cursor.readNumber();
+				}
+				else if (cursor.isKey("highestBid")) {
+					highestBid = cursor.readNumber();
+				}
+				else if (cursor.isKey("lowestAsk")) {
+					lowestAsk = cursor.readNumber();
+				}
+				else if (cursor.isKey("baseVolume")) {
+					volume = cursor.readNumber();
+				}
+				else {
+					cursor.skipValue();
+				}
+			} while (cursor.nextMember());
+		}
+		TickerSnapshot snapshot = new TickerSnapshot();
+		snapshot.set(symbol, symbolId, -1, receiveTime, last, highestBid, lowestAsk, volume);
+		snapshot.freeze();
+		return snapshot;
+	}
+}
\ No newline at end of file
@@ -1,168 +1,562 @@
 package exchangebroker;
 
-import java.util.Date;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.json.simple.JSONObject;
 
+import marketwatch.candlestore.CandleFile;
+import marketwatch.candlestore.CandleStore;
+import marketwatch.candlestore.CandleView;
 import marketwatch.exception.*;
-import marketwatch.tools.DateTime;
+import marketwatch.tools.CandleAggregator;
+import marketwatch.tools.CandleSeries;
+import marketwatch.tools.Timeframe;
 
 /** Declare a variable as this class, and call any exchangebroker functions indirectly by this class.
- * The class will call target functions. Using this class to call functions is recommanded. */
+ * The class will call target functions. Using this class to call functions is recommanded.
+ * A bridge is bound to one exchange or broker, and it cannot be changed. Get the shared bridge of an exchange or a broker by get function.
+ * Bridges are thread-safe, so Active Watchers of different exchanges or brokers can run at the same time. */
 public class Bridge implements ApiInterface {
 	
-	private static String exchangeBrokerName;
+	/** Shared bridge of each exchange or broker by lower case name. */
+	private static final Map<String, Bridge> bridges = new ConcurrentHashMap<String, Bridge>();
+	/** Time frames that can be requested to build other time frames, from the longest. */
+	private static final Timeframe[] sourceTimeframes = {Timeframe.D1, Timeframe.H4, Timeframe.H1, Timeframe.M30, Timeframe.M15, Timeframe.M5, Timeframe.M1};
+	/** Closed candles are read from and saved to the store. Null if history is not stored. Set by "marketwatch.candleStore" system property (directory).
+	 * Files are separated by exchange or broker, so one store is shared by all bridges. */
+	private static volatile CandleStore candleStore = (System.getProperty("marketwatch.candleStore") == null) ? null : new CandleStore(Paths.get(System.getProperty("marketwatch.candleStore")));
 	
-	/** Check if exchange or broker name is exist.
-	 * @param name Exchange or broker name
-	 * @return If exchange or broker name is exist, returns true; if not, returns false. */
-	public boolean isExchangeBrokerName(String name) {
-		switch (name.toLowerCase()) {
-		case "bitkub":
-			exchangeBrokerName = name;
-			return true;
-		default:
-			return false;
-		}
+	private final String exchangeBrokerName;
+	/** API of the exchange or broker, or null if the bridge has no exchange or broker. */
+	private final ApiInterface api;
+	private final HistoryBackfill backfill = new HistoryBackfill();
+	private final HistoryCache historyCache = new HistoryCache(backfill, () -> getServerClock().currentSecond());
+	/** Time of this exchange or broker without a request. Started by getServerClock function, and replaced when the data source changes. */
+	private volatile ServerClock serverClock = new ServerClock(this::serverTimeAsync);
+	/** Data source that serverClock is calibrated against, or null if it has not been started. */
+	private volatile String serverClockSource;
+	
+	/** long: Millisecond */
+	private static final long tickerSnapshotLifetime = 1000;
+	/** Frozen snapshots, so they are shared without copying. Guarded by this bridge. */
+	private CompletableFuture<Map<String, TickerSnapshot>> tickerSnapshot;
+	/** long: Millisecond. Guarded by this bridge. */
+	private long tickerSnapshotTime;
+	/** Data source that tickerSnapshot is requested from. Guarded by this bridge. */
+	private String tickerSnapshotSource;
+	/** Maps of tickerJsonSource, so they are made once per snapshot and not once per caller. Guarded by this bridge. */
+	private CompletableFuture<Map<String, JSONObject>> tickerJson;
+	/** Snapshot that tickerJson is made from. Guarded by this bridge. */
+	private CompletableFuture<Map<String, TickerSnapshot>> tickerJsonSource;
+	
+	/** Constructor.
+	 * Creates a bridge without exchange or broker. Symbols and time frames are not exist, and requests return null.
+	 * Use get function to get a bridge of an exchange or a broker. */
+	public Bridge() {
+		this.exchangeBrokerName = null;
+		this.api = null;
 	}
 	
-	/** Set exchange or broker name.
-	 * @param name Exchange or broker name
+	private Bridge(String exchangeBrokerName, ApiInterface api) {
+		this.exchangeBrokerName = exchangeBrokerName;
+		this.api = api;
+	}
+	
+	/** Get the shared bridge of an exchange or a broker. The bridge is created when it is used for the first time.
+	 * @param name Exchange or broker name (case insensitive)
+	 * @return Bridge
 	 * @throws ExchangeBrokerNameException */
-	public void setExchangeBrokerName(String name) throws ExchangeBrokerNameException {
-		if (isExchangeBrokerName(name)) {
-			exchangeBrokerName = name;
-		}
-		else {
+	public static Bridge get(String name) throws ExchangeBrokerNameException {
+		ApiInterface found = ExchangeBrokerRegistry.get(name);
+		if (found == null) {
 			throw new ExchangeBrokerNameException("Exchange or broker name is not exist.");
 		}
+		return bridges.computeIfAbsent(name.toLowerCase(), key -> new Bridge(found.getExchangeBrokerName(), found));
+	}
+	
+	/** Check if exchange or broker name is exist.
+	 * @param name Exchange or broker name
+	 * @return If exchange or broker name is exist, returns true; if not, returns false. */
+	public static boolean isExchangeBrokerName(String name) {
+		return ExchangeBrokerRegistry.contains(name);
 	}
 	
 	/** Get exchange or broker name.
-	 * @return Exchange or broker name */
+	 * @return Exchange or broker name, or null if the bridge has no exchange or broker */
 	public String getExchangeBrokerName() {
 		return exchangeBrokerName;
 	}
 	
+	/** Get name that cached and stored data is kept by, for example a different name while a simulator is used.
+	 * @return Data source name, or null if the bridge has no exchange or broker */
+	public String getDataSourceName() {
+		if (api == null) {return null;}
+		return api.getDataSourceName();
+	}
+	
 	public String[] showAllSymbols() {
-		switch (exchangeBrokerName.toLowerCase()) {
-		case "bitkub":
-			exchangebroker.Bitkub.Api api = new exchangebroker.Bitkub.Api();
-			return api.showAllSymbols();
-		default:
-			return null;
-		}
+		if (api == null) {return null;}
+		return api.showAllSymbols();
+	}
+
+	/** Get entry of the symbol in the symbol table. Resolve it once, for example when a watcher is set up, and use the symbol ID afterwards.
+	 * @param symbol Symbol (bridge format)
+	 * @return Entry, or null if the symbol is not exist */
+	public SymbolTable.Entry getSymbolEntry(String symbol) {
+		if (api == null) {return null;}
+		return api.getSymbolEntry(symbol);
 	}
 
 	public boolean isSymbol(String symbol) {
-		switch (exchangeBrokerName.toLowerCase()) {
-		case "bitkub":
-			exchangebroker.Bitkub.Api api = new exchangebroker.Bitkub.Api();
-			return api.isSymbol(symbol);
-		default:
-			return false;
-		}
-	}
-	
-	/** Change time frame to correct format for the exchange or broker.
-	 * @param timeframe Time frame to be changed
-	 * @return New time frame */
-	private String correctTimeframe(String timeframe) {
-		switch (exchangeBrokerName.toLowerCase()) {
-		case "bitkub":
-			switch (timeframe.toLowerCase()) {
-			case "1m":	return "1";
-			case "5m":	return "5";
-			case "15m":	return "15";
-			case "30m":	return "30";
-			case "60m":	return "60";
-			case "1h":	return "60";
-			case "4h":	return "240";
-			case "1d":	return "1D";
-			default:	return timeframe;
-			}
-		default:
-			return timeframe;
-		}
+		if (api == null) {return false;}
+		return api.isSymbol(symbol);
+	}
+	
+	public String correctTimeframe(String timeframe) {
+		if (api == null) {return timeframe;}
+		return api.correctTimeframe(timeframe);
 	}
 
 	public boolean isTimeframe(String timeframe) {
-		switch (exchangeBrokerName.toLowerCase()) {
-		case "bitkub":
-			exchangebroker.Bitkub.Api api = new exchangebroker.Bitkub.Api();
-			return api.isTimeframe(correctTimeframe(timeframe));
-		default:
-			return false;
+		if (api == null) {return false;}
+		return api.isTimeframe(correctTimeframe(timeframe));
+	}
+	
+	public Map<Timeframe, String> getTimeframeCodes() {
+		if (api == null) {return Collections.emptyMap();}
+		return api.getTimeframeCodes();
+	}
+	
+	/** Change a time frame to a time frame value of the exchange or the broker. Resolve it once, for example when a watcher is set up, and use the value afterwards.
+	 * @param timeframe Time frame (bridge format, or the code of the exchange or the broker)
+	 * @return Time frame
+	 * @throws TimeframeException If the exchange or the broker does not have the time frame */
+	public Timeframe resolveTimeframe(String timeframe) throws TimeframeException {
+		Map<Timeframe, String> codes = getTimeframeCodes();
+		Timeframe value = Timeframe.parse(timeframe);
+		if (value != null && codes.containsKey(value)) {return value;}
+		for (Map.Entry<Timeframe, String> entry : codes.entrySet()) {
+			if (entry.getValue().equals(timeframe)) {return entry.getKey();}
 		}
+		throw new TimeframeException("\"" + timeframe + "\" timeframe is not exist.");
 	}
 	
 	public long serverTime() {
-		switch (exchangeBrokerName.toLowerCase()) {
-		case "bitkub":
-			exchangebroker.Bitkub.Api api = new exchangebroker.Bitkub.Api();
-			return api.serverTime();
-		default:
-			return -1;
-		}
+		return serverTimeAsync().join();
 	}
 	
-	/** Get a map of history of currency.
+	public CompletableFuture<Long> serverTimeAsync() {
+		if (api == null) {return CompletableFuture.completedFuture(-1L);}
+		return api.serverTimeAsync();
+	}
+	
+	/** Get history of currency.
 	 * @param symbol Symbol
 	 * @param timeframe Time frame
 	 * @return History of currency 
 	 * @throws SymbolException
 	 * @throws TimeframeException */
-	public JSONObject history(String symbol, String timeframe) throws SymbolException, TimeframeException {
-		DateTime dateTime = new DateTime();
-		long finalDate = dateTime.dateToSecond(new Date());
+	public CandleSeries history(String symbol, String timeframe) throws SymbolException, TimeframeException {
+		long finalDate = getServerClock().currentSecond();
 		long initialDate = finalDate - (60 * 60 * 24);   // 1 day before current
-		JSONObject ret = new JSONObject();
-		ret = history(symbol, timeframe, initialDate, finalDate);
-		return ret;
+		return history(symbol, timeframe, initialDate, finalDate);
 	}
 	
-	@SuppressWarnings("unchecked")
-	public JSONObject history(String symbol, String timeframe, long initialDate, long finalDate) throws SymbolException, TimeframeException {
+	public CandleSeries history(String symbol, String timeframe, long initialDate, long finalDate) throws SymbolException, TimeframeException {
+		return historyAsync(symbol, timeframe, initialDate, finalDate).join();
+	}
+	
+	/** Get history of currency.
+	 * @param symbol Symbol
+	 * @param timeframe Time frame
+	 * @param initialDate Initial date and time to get the set
+	 * @param finalDate Final date and time to get the set
+	 * @return History of currency
+	 * @throws SymbolException
+	 * @throws TimeframeException */
+	public CandleSeries history(String symbol, Timeframe timeframe, long initialDate, long finalDate) throws SymbolException, TimeframeException {
+		return historyAsync(symbol, timeframe, initialDate, finalDate).join();
+	}
+	
+	/** Get history of currency without blocking.
+	 * Symbol and time frame are checked before the request is sent.
+	 * @param symbol Symbol
+	 * @param timeframe Time frame
+	 * @param initialDate Initial date and time to get the set
+	 * @param finalDate Final date and time to get the set
+	 * @return Future of history of currency. History is null if the request is failed.
+	 * @throws SymbolException
+	 * @throws TimeframeException */
+	public CompletableFuture<CandleSeries> historyAsync(String symbol, String timeframe, long initialDate, long finalDate) throws SymbolException, TimeframeException {
 		if (!isSymbol(symbol)) {
 			throw new SymbolException("\"" + symbol + "\" symbol is not exist.");
 		}
-		if (!isTimeframe(timeframe)) {
+		return historyAsync(symbol, resolveTimeframe(timeframe), initialDate, finalDate);
+	}
+	
+	/** Get history of currency without blocking. The time frame is not parsed again.
+	 * @param symbol Symbol
+	 * @param timeframe Time frame
+	 * @param initialDate Initial date and time to get the set
+	 * @param finalDate Final date and time to get the set
+	 * @return Future of history of currency. History is null if the request is failed.
+	 * @throws SymbolException
+	 * @throws TimeframeException */
+	public CompletableFuture<CandleSeries> historyAsync(String symbol, Timeframe timeframe, long initialDate, long finalDate) throws SymbolException, TimeframeException {
+		if (!isSymbol(symbol)) {
+			throw new SymbolException("\"" + symbol + "\" symbol is not exist.");
+		}
+		if (!getTimeframeCodes().containsKey(timeframe)) {
 			throw new TimeframeException("\"" + timeframe + "\" timeframe is not exist.");
 		}
+		
+		CandleFile file = null;
+		if (candleStore != null) {
+			try {
+				file = candleStore.open(api.getDataSourceName(), symbol, timeframe);
+			}
+			catch (IOException ioe) {
+				//History is not stored. Request it.
+			}
+		}
+		if (file == null) {
+			//Only candles that are not cached are requested. A long range is split into chunks and requested concurrently.
+			return historyCache.historyAsync(api, symbol, timeframe, initialDate, finalDate);
+		}
+		return storedHistoryAsync(file, symbol, timeframe, initialDate, finalDate);
+	}
+	
+	/** Get history of some time frames of currency with one request.
+	 * The longest time frame of the exchange or the broker that divides every time frame is requested, and the others are built from it.
+	 * Time frames can be any number of minutes, hours, or days, for example "3m" or "2h", even if the exchange or the broker does not have them.
+	 * @param symbol Symbol
+	 * @param timeframes Time frames
+	 * @param initialDate Initial date and time to get the set
+	 * @param finalDate Final date and time to get the set
+	 * @return Map of time frame to history of currency, or null if the request is failed
+	 * @throws SymbolException
+	 * @throws TimeframeException */
+	public Map<String, CandleSeries> historyFamily(String symbol, Collection<String> timeframes, long initialDate, long finalDate) throws SymbolException, TimeframeException {
+		return historyFamilyAsync(symbol, timeframes, initialDate, finalDate).join();
+	}
+	
+	/** Get history of some time frames of currency with one request without blocking.
+	 * @param symbol Symbol
+	 * @param timeframes Time frames
+	 * @param initialDate Initial date and time to get the set
+	 * @param finalDate Final date and time to get the set
+	 * @return Future of map of time frame to history of currency. Map is null if the request is failed.
+	 * @throws SymbolException
+	 * @throws TimeframeException */
+	public CompletableFuture<Map<String, CandleSeries>> historyFamilyAsync(String symbol, Collection<String> timeframes, long initialDate, long finalDate) throws SymbolException, TimeframeException {
+		if (!isSymbol(symbol)) {
+			throw new SymbolException("\"" + symbol + "\" symbol is not exist.");
+		}
+		Timeframe[] values = new Timeframe[timeframes.size()];
+		long[] lengths = new long[timeframes.size()];
+		int index = 0;
+		for (String timeframe : timeframes) {
+			values[index] = Timeframe.parse(timeframe);
+			if (values[index] == null) {
+				throw new TimeframeException("\"" + timeframe + "\" timeframe is not exist.");
+			}
+			lengths[index] = values[index].getSeconds();
+			index++;
+		}
+		
+		Timeframe source = null;
+		for (Timeframe candidate : sourceTimeframes) {
+			boolean divides = getTimeframeCodes().containsKey(candidate);
+			for (int i = 0; divides && i < values.length; i++) {
+				divides = values[i].isMultipleOf(candidate);
+			}
+			if (divides) {
+				source = candidate;
+				break;
+			}
+		}
+		if (source == null) {
+			throw new TimeframeException("Time frames cannot be built from time frames of the exchange or the broker.");
+		}
+		
+		long length = source.getSeconds();
+		return historyAsync(symbol, source, initialDate, finalDate).thenApply(series -> {
+			if (series == null) {return null;}
+			//Time frames that are the same as the source are not aggregated.
+			CandleAggregator[] aggregators = new CandleAggregator[lengths.length];
+			int count = 0;
+			for (int i = 0; i < lengths.length; i++) {
+				if (lengths[i] != length) {
+					aggregators[count++] = new CandleAggregator(lengths[i]);
+				}
+			}
+			CandleAggregator.update(series, Arrays.copyOf(aggregators, count));
 			
-		JSONObject ret = new JSONObject();
-		switch (exchangeBrokerName.toLowerCase()) {
-		case "bitkub":
-			exchangebroker.Bitkub.Api api = new exchangebroker.Bitkub.Api();
-			JSONObject temp = api.history(symbol, correctTimeframe(timeframe), initialDate, finalDate);
-			ret.put("open", temp.get("o"));
-			ret.put("close", temp.get("c"));
-			ret.put("high", temp.get("h"));
-			ret.put("low", temp.get("l"));
-			ret.put("time", temp.get("t"));
-			ret.put("volume", temp.get("v"));
+			Map<String, CandleSeries> ret = new LinkedHashMap<String, CandleSeries>();
+			int i = 0;
+			int aggregator = 0;
+			for (String timeframe : timeframes) {
+				CandleSeries bars = (lengths[i] == length) ? series : aggregators[aggregator++].getSeries();
+				//A bar that starts before the initial date has only some of its candles.
+				ret.put(timeframe, bars.slice(bars.indexOf(initialDate), bars.size()));
+				i++;
+			}
 			return ret;
-		default:
-			return null;
+		});
+	}
+	
+	/** Get history of currency from the candle store, and request only candles after the stored range.
+	 * Requested candles that are closed are appended to the store.
+	 * @return Future of history of currency. History is null if the request is failed. */
+	private CompletableFuture<CandleSeries> storedHistoryAsync(CandleFile file, String symbol, Timeframe timeframe, long initialDate, long finalDate) throws SymbolException, TimeframeException {
+		if (file.covers(initialDate, finalDate)) {
+			return CompletableFuture.completedFuture(file.view(initialDate, finalDate).toCandleSeries());
 		}
+		CandleView stored = null;
+		long requestFrom = initialDate;
+		if (file.covers(initialDate, initialDate)) {
+			long coveredTo = file.getCoveredTo();
+			stored = file.view(initialDate, coveredTo);
+			requestFrom = coveredTo + 1;
+		}
+		CandleView storedView = stored;
+		long from = requestFrom;
+		//A candle is closed when its length has passed since its time.
+		long closedTo = Math.min(finalDate, getServerClock().currentSecond() - file.getCandleLength());
+		return historyCache.historyAsync(api, symbol, timeframe, from, finalDate).thenApply(requested -> {
+			if (requested == null) {return null;}
+			try {
+				file.append(requested, from, closedTo);
+			}
+			catch (IOException ioe) {
+				//The store is full or broken. History is still returned.
+			}
+			if (storedView == null) {return requested;}
+			CandleSeries ret = storedView.toCandleSeries(requested.size());
+			ret.append(requested);
+			return ret;
+		});
+	}
+	
+	/** Set candle store that is shared by all bridges. Closed candles are read from and saved to it.
+	 * @param store Candle store, or null to request all history from the exchange or the broker */
+	public static void setCandleStore(CandleStore store) {
+		candleStore = store;
+	}
+	
+	/** Get candle store that is shared by all bridges.
+	 * @return Candle store, or null if history is not stored */
+	public static CandleStore getCandleStore() {
+		return candleStore;
+	}
+	
+	/** Get clock of this exchange or broker, and start its calibration in the background if it has not started.
+	 * Use it instead of serverTime function or the local clock to compute ranges of history.
+	 * A new clock is started when the data source changes, for example when a simulator is used, because its time may differ.
+	 * @return Server clock. The local clock is used until the first calibration ends, or if the bridge has no exchange or broker. */
+	public ServerClock getServerClock() {
+		if (api == null) {return serverClock;}
+		String source = api.getDataSourceName();
+		if (!source.equals(serverClockSource)) {
+			synchronized (this) {
+				if (!source.equals(serverClockSource)) {
+					if (serverClockSource != null) {
+						serverClock.stop();
+						serverClock = new ServerClock(this::serverTimeAsync);
+					}
+					serverClockSource = source;
+				}
+			}
+		}
+		ServerClock clock = serverClock;
+		clock.start();
+		return clock;
+	}
+	
+	/** Get cache of history of this exchange or broker.
+	 * @return History cache */
+	public HistoryCache getHistoryCache() {
+		return historyCache;
 	}
 	
-	@SuppressWarnings("unchecked")
 	public JSONObject ticker(String symbol) throws SymbolException {
+		return tickerAsync(symbol).join();
+	}
+	
+	/** Get a map of the last ticker of currency without blocking.
+	 * Symbol is checked before the request is sent.
+	 * @param symbol Symbol
+	 * @return Future of the last ticker of currency. Ticker is null if the request is failed.
+	 * @throws SymbolException */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<JSONObject> tickerAsync(String symbol) throws SymbolException {
 		if (!isSymbol(symbol)) {
 			throw new SymbolException("\"" + symbol + "\" symbol is not exist.");
 		}
+		return api.tickerAsync(symbol).thenApply(this::toTicker);
+	}
+	
+	/** Change a ticker of the exchange or the broker to bridge format.
+	 * @param temp Ticker of the exchange or the broker
+	 * @return Ticker in bridge format, or null if the ticker is null */
+	@SuppressWarnings("unchecked")
+	private JSONObject toTicker(JSONObject temp) {
+		if (temp == null) {return null;}
 		JSONObject ret = new JSONObject();
-		switch (exchangeBrokerName.toLowerCase()) {
-		case "bitkub":
-			exchangebroker.Bitkub.Api api = new exchangebroker.Bitkub.Api();
-			JSONObject temp = api.ticker(symbol);
-			ret.put("last", temp.get("last"));
-			ret.put("highestBid", temp.get("highestBid"));
-			ret.put("lowestAsk", temp.get("lowestAsk"));
-			return ret;
-		default:
-			return null;
+		ret.put("last", temp.get("last"));
+		ret.put("highestBid", temp.get("highestBid"));
+		ret.put("lowestAsk", temp.get("lowestAsk"));
+		return ret;
+	}
+	
+	/** Get maps of the last tickers of all currencies.
+	 * All tickers are requested in one request, and the snapshot is shared by all callers until it is older than tickerSnapshotLifetime.
+	 * @return Map of symbol to the last ticker of currency, or null if the request is failed */
+	public Map<String, JSONObject> tickerAll() {
+		return tickerAllAsync().join();
+	}
+	
+	/** Get maps of the last tickers of all currencies without blocking. The maps are made from the typed snapshot once per snapshot,
+	 * and they are shared by all callers until the next snapshot, so do not change them. Use tickers function for maps that the caller owns.
+	 * @return Future of unmodifiable map of symbol to the last ticker of currency. Map is null if the request is failed. */
+	public CompletableFuture<Map<String, JSONObject>> tickerAllAsync() {
+		CompletableFuture<Map<String, TickerSnapshot>> snapshot = tickerSnapshotAllAsync();
+		synchronized (this) {
+			if (tickerJsonSource != snapshot) {
+				tickerJsonSource = snapshot;
+				tickerJson = snapshot.thenApply(all -> {
+					if (all == null) {return null;}
+					Map<String, JSONObject> ret = new HashMap<String, JSONObject>();
+					for (Map.Entry<String, TickerSnapshot> entry : all.entrySet()) {
+						ret.put(entry.getKey(), entry.getValue().toJson());
+					}
+					return Collections.unmodifiableMap(ret);
+				});
+			}
+			return tickerJson;
 		}
 	}
+	
+	/** Get typed snapshots of the last tickers of all currencies.
+	 * All tickers are requested in one request, and the snapshot is shared by all callers until it is older than tickerSnapshotLifetime.
+	 * @return Map of symbol to frozen snapshot of the last ticker of currency, or null if the request is failed */
+	public Map<String, TickerSnapshot> tickerSnapshotAll() {
+		return tickerSnapshotAllAsync().join();
+	}
+	
+	/** Get typed snapshots of the last tickers of all currencies without blocking.
+	 * @return Future of map of symbol to frozen snapshot of the last ticker of currency. Map is null if the request is failed. */
+	public CompletableFuture<Map<String, TickerSnapshot>> tickerSnapshotAllAsync() {
+		if (api == null) {return CompletableFuture.completedFuture(null);}
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			String source = api.getDataSourceName();
+			if (tickerSnapshot == null || now - tickerSnapshotTime >= tickerSnapshotLifetime || !source.equals(tickerSnapshotSource)) {
+				tickerSnapshotTime = now;
+				tickerSnapshotSource = source;
+				tickerSnapshot = api.tickerSnapshotAllAsync().thenApply(temp -> (temp == null) ? null : Collections.unmodifiableMap(temp));
+			}
+			return tickerSnapshot;
+		}
+	}
+	
+	/** Copies the last ticker of currency from the shared snapshot into a snapshot of the caller.
+	 * The snapshot of the caller can be reused every time, so no object is created when the shared snapshot is still fresh.
+	 * @param symbol Symbol
+	 * @param into Snapshot that is not frozen
+	 * @return True if the ticker is copied, or false if the request is failed or there is no ticker of the symbol
+	 * @throws SymbolException */
+	public boolean ticker(String symbol, TickerSnapshot into) throws SymbolException {
+		if (!isSymbol(symbol)) {
+			throw new SymbolException("\"" + symbol + "\" symbol is not exist.");
+		}
+		Map<String, TickerSnapshot> all = tickerSnapshotAll();
+		TickerSnapshot tick = (all == null) ? null : all.get(symbol);
+		if (tick == null) {return false;}
+		into.copyFrom(tick);
+		return true;
+	}
+	
+	public OrderBook depth(String symbol, int limit) throws SymbolException {
+		return depthAsync(symbol, limit).join();
+	}
+	
+	/** Get order book (depth) of currency without blocking.
+	 * Symbol is checked before the request is sent.
+	 * @param symbol Symbol
+	 * @param limit Maximum number of levels of each side
+	 * @return Future of frozen order book. Book is null if the request is failed.
+	 * @throws SymbolException */
+	public CompletableFuture<OrderBook> depthAsync(String symbol, int limit) throws SymbolException {
+		if (!isSymbol(symbol)) {
+			throw new SymbolException("\"" + symbol + "\" symbol is not exist.");
+		}
+		return api.depthAsync(symbol, limit);
+	}
+	
+	/** Get stream of trades and tickers that are pushed by the exchange or the broker. Use it instead of polling ticker when it is not null.
+	 * @return Tick stream, or null if the exchange or the broker has no stream */
+	public TickStream getTickStream() {
+		if (api == null) {return null;}
+		return api.getTickStream();
+	}
+	
+	/** Get order book of currency into a book of the caller.
+	 * The book of the caller can be reused every time, so its arrays are created only when it grows.
+	 * @param symbol Symbol
+	 * @param limit Maximum number of levels of each side
+	 * @param into Book that is not frozen
+	 * @return True if the book is set, or false if the request is failed
+	 * @throws SymbolException */
+	public boolean depth(String symbol, int limit, OrderBook into) throws SymbolException {
+		return depthAsync(symbol, limit, into).join();
+	}
+	
+	/** Get order book of currency into a book of the caller without blocking.
+	 * The response is decoded into a book that is used again, and it is copied into the book of the caller, so polling creates no book.
+	 * The request is not shared with other callers, and there is no stale book if it is failed.
+	 * @param symbol Symbol
+	 * @param limit Maximum number of levels of each side
+	 * @param into Book that is not frozen. It is not changed if the request is failed.
+	 * @return Future of true if the book is set, or false if the request is failed
+	 * @throws SymbolException */
+	public CompletableFuture<Boolean> depthAsync(String symbol, int limit, OrderBook into) throws SymbolException {
+		if (!isSymbol(symbol)) {
+			throw new SymbolException("\"" + symbol + "\" symbol is not exist.");
+		}
+		if (api == null) {return CompletableFuture.completedFuture(false);}
+		return api.depthAsync(symbol, limit, into);
+	}
+	
+	/** Get maps of the last tickers of some currencies. The tickers are taken from the snapshot of all tickers,
+	 * and only the tickers of the symbols are made into maps.
+	 * @param symbols Symbols
+	 * @return Map of symbol to the last ticker of currency, or null if the request is failed
+	 * @throws SymbolException */
+	public Map<String, JSONObject> tickers(Collection<String> symbols) throws SymbolException {
+		for (String symbol : symbols) {
+			if (!isSymbol(symbol)) {
+				throw new SymbolException("\"" + symbol + "\" symbol is not exist.");
+			}
+		}
+		Map<String, TickerSnapshot> all = tickerSnapshotAll();
+		if (all == null) {return null;}
+		Map<String, JSONObject> ret = new HashMap<String, JSONObject>();
+		for (String symbol : symbols) {
+			TickerSnapshot tick = all.get(symbol);
+			if (tick != null) {
+				ret.put(symbol, tick.toJson());
+			}
+		}
+		return ret;
+	}
 }
\ No newline at end of file
@@ -3,6 +3,8 @@ package exchangebroker;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
+import marketwatch.tools.CandleSeries;
+
 /** Get and return a value in map or array from bridge. Use this class to get a value easily. */
 public class BridgeValue {
 	
@@ -28,9 +30,9 @@ public class BridgeValue {
 	/** Get and return a double value of specific map.
 	 * @param obj Map
 	 * @param key Key
-	 * @return Value of map */
+	 * @return Value of map. Any number type is accepted, for example Long of a whole price. */
 	public double mapValue_double(JSONObject obj, String key) {
-		double value = (double)obj.get(key);
+		double value = ((Number)obj.get(key)).doubleValue();
 		return value;
 	}
 	
@@ -39,7 +41,7 @@ public class BridgeValue {
 	 * @param key Key
 	 * @return Value of map */
 	public float mapValue_float(JSONObject obj, String key) {
-		float value = (float)obj.get(key);
+		float value = ((Number)obj.get(key)).floatValue();
 		return value;
 	}
 	
@@ -48,7 +50,7 @@ public class BridgeValue {
 	 * @param key Key
 	 * @return Value of map */
 	public int mapValue_integer(JSONObject obj, String key) {
-		int value = (int)obj.get(key);
+		int value = ((Number)obj.get(key)).intValue();
 		return value;
 	}
 	
@@ -57,7 +59,7 @@ public class BridgeValue {
 	 * @param key Key
 	 * @return Value of map */
 	public long mapValue_long(JSONObject obj, String key) {
-		long value = (long)obj.get(key);
+		long value = ((Number)obj.get(key)).longValue();
 		return value;
 	}
 	
@@ -81,45 +83,45 @@ public class BridgeValue {
 	}
 		
 	/** Get and return "open" value of history.
-	 * @param hist History map
-	 * @return Value of map */
-	public JSONArray history_open(JSONObject hist) {
-		return mapValue_array(hist, "open");
+	 * @param hist History
+	 * @return Copy of open column */
+	public double[] history_open(CandleSeries hist) {
+		return hist.openArray();
 	}
 	
 	/** Get and return "close" value of history.
-	 * @param hist History map
-	 * @return Value of map */
-	public JSONArray history_close(JSONObject hist) {
-		return mapValue_array(hist, "close");
+	 * @param hist History
+	 * @return Copy of close column */
+	public double[] history_close(CandleSeries hist) {
+		return hist.closeArray();
 	}
 	
 	/** Get and return "high" value of history.
-	 * @param hist History map
-	 * @return Value of map */
-	public JSONArray history_high(JSONObject hist) {
-		return mapValue_array(hist, "high");
+	 * @param hist History
+	 * @return Copy of high column */
+	public double[] history_high(CandleSeries hist) {
+		return hist.highArray();
 	}
 	
 	/** Get and return "low" value of history.
-	 * @param hist History map
-	 * @return Value of map */
-	public JSONArray history_low(JSONObject hist) {
-		return mapValue_array(hist, "low");
+	 * @param hist History
+	 * @return Copy of low column */
+	public double[] history_low(CandleSeries hist) {
+		return hist.lowArray();
 	}
 	
 	/** Get and return "time" value of history.
-	 * @param hist History map
-	 * @return Value of map */
-	public JSONArray history_time(JSONObject hist) {
-		return mapValue_array(hist, "time");
+	 * @param hist History
+	 * @return Copy of time column */
+	public long[] history_time(CandleSeries hist) {
+		return hist.timeArray();
 	}
 	
 	/** Get and return "volume" value of history.
-	 * @param hist History map
-	 * @return Value of map */
-	public JSONArray history_volume(JSONObject hist) {
-		return mapValue_array(hist, "volume");
+	 * @param hist History
+	 * @return Copy of volume column */
+	public double[] history_volume(CandleSeries hist) {
+		return hist.volumeArray();
 	}
 
 	/** Get and return "last" value of ticker.
@@ -142,4 +144,25 @@ public class BridgeValue {
 	public double ticker_lowestAsk(JSONObject tick) {
 		return mapValue_double(tick, "lowestAsk");
 	}
+	
+	/** Get and return last price of ticker.
+	 * @param tick Ticker snapshot
+	 * @return Last price */
+	public double ticker_last(TickerSnapshot tick) {
+		return tick.getLast();
+	}
+	
+	/** Get and return highest bid price of ticker.
+	 * @param tick Ticker snapshot
+	 * @return Highest bid price */
+	public double ticker_highestBid(TickerSnapshot tick) {
+		return tick.getHighestBid();
+	}
+	
+	/** Get and return lowest ask price of ticker.
+	 * @param tick Ticker snapshot
+	 * @return Lowest ask price */
+	public double ticker_lowestAsk(TickerSnapshot tick) {
+		return tick.getLowestAsk();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package exchangebroker;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Circuit breaker of one endpoint.
+ * After some failures in a row, the circuit opens and requests fail at once without being sent, so a slow or broken exchange does not hold callers.
+ * When the open time has passed, one probe request is allowed (half open). The circuit closes if the probe is successful, or it opens again. */
+public class CircuitBreaker {
+
+	public enum State {
+		Closed,
+		Open,
+		HalfOpen
+	}
+
+	private final int failureThreshold;
+	/** long: Millisecond */
+	private final long openTime;
+
+	private final AtomicInteger failures = new AtomicInteger();
+	/** long: Millisecond. Time that the circuit opened, or 0 if it is closed. */
+	private final AtomicLong openedAt = new AtomicLong();
+	/** Only one probe is sent while the circuit is half open. */
+	private final AtomicBoolean probing = new AtomicBoolean(false);
+	private final AtomicLong openCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/** Constructor.
+	 * @param failureThreshold Number of failures in a row that opens the circuit
+	 * @param openTime Time that the circuit stays open as millisecond */
+	public CircuitBreaker(int failureThreshold, long openTime) {
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.openTime = Math.max(0, openTime);
+	}
+
+	/** Return whether a request can be sent now. If the request is allowed, its result must be recorded by recordSuccess or recordFailure.
+	 * @return True if the request can be sent, or false if the circuit is open */
+	public boolean allowRequest() {
+		long opened = openedAt.get();
+		if (opened == 0) {return true;}
+		if (System.currentTimeMillis() - opened >= openTime && probing.compareAndSet(false, true)) {
+			return true;
+		}
+		rejectedCount.incrementAndGet();
+		return false;
+	}
+
+	/** Records a successful request. The circuit closes. */
+	public void recordSuccess() {
+		failures.set(0);
+		openedAt.set(0);
+		probing.set(false);
+	}
+
+	/** Records a failed request. The circuit opens if there are enough failures in a row, or if the probe is failed. */
+	public void recordFailure() {
+		int count = failures.incrementAndGet();
+		if (probing.get() || (count >= failureThreshold && openedAt.get() == 0)) {
+			openedAt.set(Math.max(1, System.currentTimeMillis()));
+			openCount.incrementAndGet();
+			probing.set(false);
+		}
+	}
+
+	/** Gets state of the circuit.
+	 * @return State */
+	public State getState() {
+		long opened = openedAt.get();
+		if (opened == 0) {return State.Closed;}
+		return (probing.get() || System.currentTimeMillis() - opened >= openTime) ? State.HalfOpen : State.Open;
+	}
+
+	/** Gets number of times that the circuit opened.
+	 * @return Number of times */
+	public long getOpenCount() {
+		return openCount.get();
+	}
+
+	/** Gets number of requests that were not sent because the circuit was open.
+	 * @return Number of requests */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return getState() + " (failures in a row=" + failures.get() + ", opened=" + getOpenCount() + ", rejected=" + getRejectedCount() + ")";
+	}
+}
\ No newline at end of file
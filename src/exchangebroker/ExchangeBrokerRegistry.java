@@ -0,0 +1,54 @@
+package exchangebroker;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/** Registry of all exchange or broker APIs.
+ * APIs are discovered once by ServiceLoader (META-INF/services/exchangebroker.ApiInterface), and each exchange or broker has only one API object.
+ * API objects are shared by all threads, so they must be thread-safe. */
+public final class ExchangeBrokerRegistry {
+
+	/** Lower case exchange or broker name to API. */
+	private static final Map<String, ApiInterface> apis = discover();
+
+	private ExchangeBrokerRegistry() {
+	}
+
+	/** Discovers all APIs.
+	 * @return Map of lower case exchange or broker name to API */
+	private static Map<String, ApiInterface> discover() {
+		Map<String, ApiInterface> found = new HashMap<String, ApiInterface>();
+		for (ApiInterface api : ServiceLoader.load(ApiInterface.class)) {
+			found.put(api.getExchangeBrokerName().toLowerCase(), api);
+		}
+		//Built-in APIs are registered even if the service file is not in the class path.
+		if (!found.containsKey("bitkub")) {
+			ApiInterface bitkub = new exchangebroker.Bitkub.Api();
+			found.put(bitkub.getExchangeBrokerName().toLowerCase(), bitkub);
+		}
+		return Collections.unmodifiableMap(found);
+	}
+
+	/** Gets API of the exchange or the broker.
+	 * @param name Exchange or broker name (case insensitive)
+	 * @return API, or null if the exchange or the broker is not exist */
+	public static ApiInterface get(String name) {
+		if (name == null) {return null;}
+		return apis.get(name.toLowerCase());
+	}
+
+	/** Check if exchange or broker name is exist.
+	 * @param name Exchange or broker name (case insensitive)
+	 * @return If exchange or broker name is exist, returns true; if not, returns false. */
+	public static boolean contains(String name) {
+		return get(name) != null;
+	}
+
+	/** Gets all exchange or broker names.
+	 * @return All exchange or broker names in lower case */
+	public static String[] getExchangeBrokerNames() {
+		return apis.keySet().toArray(new String[0]);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,241 @@
+package exchangebroker;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import marketwatch.exception.*;
+import marketwatch.tools.CandleSeries;
+import marketwatch.tools.Timeframe;
+
+/** Gets a long range of history by splitting it into chunks that the exchange or the broker can return in one request.
+ * Chunks are requested concurrently, but no more than parallelism requests are in flight at the same time.
+ * Results are merged in time order, and candles at chunk boundaries are not duplicated. */
+public class HistoryBackfill {
+
+	private final int candlesPerChunk;
+	private final int parallelism;
+	/** Number of times that a failed chunk is requested again. */
+	private final int retries = 1;
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong partialCount = new AtomicLong();
+
+	/** Constructor.
+	 * Uses 1000 candles per chunk and 4 requests in flight. */
+	public HistoryBackfill() {
+		this(1000, 4);
+	}
+
+	/** Constructor.
+	 * @param candlesPerChunk Maximum number of candles in a request
+	 * @param parallelism Maximum number of requests in flight */
+	public HistoryBackfill(int candlesPerChunk, int parallelism) {
+		this.candlesPerChunk = Math.max(1, candlesPerChunk);
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/** Gets maximum number of candles in a request.
+	 * @return Number of candles */
+	public int getCandlesPerChunk() {
+		return candlesPerChunk;
+	}
+
+	/** Gets maximum number of requests in flight.
+	 * @return Number of requests */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/** Gets length of a chunk.
+	 * @param timeframe Time frame
+	 * @return Length of a chunk as second */
+	public long chunkLength(Timeframe timeframe) {
+		return timeframe.getSeconds() * candlesPerChunk;
+	}
+
+	/** Return whether the range needs more than one request.
+	 * @param timeframe Time frame
+	 * @param initialDate Initial date and time as seconds since year 1970
+	 * @param finalDate Final date and time as seconds since year 1970
+	 * @return True or false */
+	public boolean isSplit(Timeframe timeframe, long initialDate, long finalDate) {
+		return finalDate - initialDate > chunkLength(timeframe);
+	}
+
+	/** History of a range that may start later than requested, because the oldest chunks failed. */
+	public static class Partial {
+		private final CandleSeries series;
+		private final long from;
+
+		Partial(CandleSeries series, long from) {
+			this.series = series;
+			this.from = from;
+		}
+
+		/** Gets history.
+		 * @return History of currency */
+		public CandleSeries getSeries() {
+			return series;
+		}
+
+		/** Gets start of the range that the history covers. It is later than the requested initial date if the oldest chunks failed.
+		 * @return Date and time as seconds since year 1970 */
+		public long getFrom() {
+			return from;
+		}
+	}
+
+	/** Gets history of currency without blocking. Symbol and time frame are not checked.
+	 * A failed chunk is requested once more. If the oldest chunks still fail, the history starts after them.
+	 * @param api API of the exchange or the broker
+	 * @param symbol Symbol
+	 * @param timeframe Time frame
+	 * @param initialDate Initial date and time as seconds since year 1970
+	 * @param finalDate Final date and time as seconds since year 1970
+	 * @return Future of history of currency. History is null if the newest chunk is failed.
+	 * @throws SymbolException
+	 * @throws TimeframeException If the exchange or the broker does not have the time frame */
+	public CompletableFuture<CandleSeries> historyAsync(ApiInterface api, String symbol, Timeframe timeframe, long initialDate, long finalDate) throws SymbolException, TimeframeException {
+		return historyPartialAsync(api, symbol, timeframe, initialDate, finalDate).thenApply(partial -> (partial == null) ? null : partial.getSeries());
+	}
+
+	/** Gets history of currency and the range that it covers without blocking. Symbol and time frame are not checked.
+	 * A failed chunk is requested once more. If the oldest chunks still fail, the history starts after them, and getFrom tells where.
+	 * @param api API of the exchange or the broker
+	 * @param symbol Symbol
+	 * @param timeframe Time frame
+	 * @param initialDate Initial date and time as seconds since year 1970
+	 * @param finalDate Final date and time as seconds since year 1970
+	 * @return Future of history and its range. It is null if the newest chunk is failed.
+	 * @throws SymbolException
+	 * @throws TimeframeException If the exchange or the broker does not have the time frame */
+	public CompletableFuture<Partial> historyPartialAsync(ApiInterface api, String symbol, Timeframe timeframe, long initialDate, long finalDate) throws SymbolException, TimeframeException {
+		String exchangeTimeframe = api.getTimeframeCodes().get(timeframe);
+		if (exchangeTimeframe == null) {
+			throw new TimeframeException("\"" + timeframe + "\" timeframe is not exist.");
+		}
+		long length = chunkLength(timeframe);
+		if (finalDate - initialDate <= length) {
+			return api.historyAsync(symbol, exchangeTimeframe, initialDate, finalDate).thenApply(series -> (series == null) ? null : new Partial(series, initialDate));
+		}
+		int chunks = (int)((finalDate - initialDate + length - 1) / length);
+		Job job = new Job(api, symbol, exchangeTimeframe, chunks);
+		for (int i = 0; i < chunks; i++) {
+			job.chunkStart[i] = initialDate + length * i;
+			job.chunkEnd[i] = Math.min(finalDate, job.chunkStart[i] + length);
+			job.pending.add(i);
+		}
+		job.pump();
+		return job.done;
+	}
+
+	/** Gets number of chunks that were requested again after they failed.
+	 * @return Number of chunks */
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	/** Gets number of histories that start later than requested, because the oldest chunks failed.
+	 * @return Number of histories */
+	public long getPartialCount() {
+		return partialCount.get();
+	}
+
+	/** Chunks of one range. Requests are started by one drain loop at a time, so chunks that complete at once (cached or rejected by a circuit breaker) do not grow the stack. */
+	private class Job {
+		final ApiInterface api;
+		final String symbol;
+		final String exchangeTimeframe;
+		final long[] chunkStart;
+		final long[] chunkEnd;
+		final CandleSeries[] results;
+		final int[] attempts;
+		/** Later chunks are started by other threads, so they keep the requester of the caller. */
+		final RequestScheduler.Requester requester = RequestScheduler.getCurrentRequester();
+		final Queue<Integer> pending = new ConcurrentLinkedQueue<Integer>();
+		final AtomicInteger inFlight = new AtomicInteger();
+		/** Number of calls of pump that are not handled yet. Only the call that makes it 1 runs the loop. */
+		final AtomicInteger work = new AtomicInteger();
+		final AtomicInteger remaining;
+		final CompletableFuture<Partial> done = new CompletableFuture<Partial>();
+
+		Job(ApiInterface api, String symbol, String exchangeTimeframe, int chunks) {
+			this.api = api;
+			this.symbol = symbol;
+			this.exchangeTimeframe = exchangeTimeframe;
+			chunkStart = new long[chunks];
+			chunkEnd = new long[chunks];
+			results = new CandleSeries[chunks];
+			attempts = new int[chunks];
+			remaining = new AtomicInteger(chunks);
+		}
+
+		/** Starts pending chunks while fewer than parallelism requests are in flight. */
+		void pump() {
+			if (work.getAndIncrement() != 0) {return;}
+			do {
+				while (inFlight.get() < parallelism) {
+					Integer index = pending.poll();
+					if (index == null) {break;}
+					inFlight.incrementAndGet();
+					start(index);
+				}
+			} while (work.decrementAndGet() != 0);
+		}
+
+		void start(int index) {
+			CompletableFuture<CandleSeries> request;
+			RequestScheduler.Requester previous = RequestScheduler.getCurrentRequester();
+			RequestScheduler.setCurrentRequester(requester);
+			try {
+				request = api.historyAsync(symbol, exchangeTimeframe, chunkStart[index], chunkEnd[index]);
+			}
+			catch (SymbolException | TimeframeException e) {
+				request = CompletableFuture.completedFuture(null);
+			}
+			finally {
+				RequestScheduler.setCurrentRequester(previous);
+			}
+			request.whenComplete((series, ex) -> finish(index, (ex == null) ? series : null));
+		}
+
+		void finish(int index, CandleSeries series) {
+			inFlight.decrementAndGet();
+			if (series == null && attempts[index]++ < retries) {
+				retryCount.incrementAndGet();
+				pending.add(index);
+				pump();
+				return;
+			}
+			results[index] = series;
+			if (remaining.decrementAndGet() == 0) {
+				done.complete(merge());
+				return;
+			}
+			pump();
+		}
+
+		/** Merges the chunks after the last failed chunk. */
+		Partial merge() {
+			int first = results.length;
+			while (first > 0 && results[first - 1] != null) {
+				first--;
+			}
+			if (first == results.length) {return null;}
+			if (first > 0) {
+				partialCount.incrementAndGet();
+			}
+			int total = 0;
+			for (int i = first; i < results.length; i++) {
+				total += results[i].size();
+			}
+			CandleSeries merged = new CandleSeries(Math.max(1, total));
+			for (int i = first; i < results.length; i++) {
+				merged.append(results[i]);
+			}
+			return new Partial(merged, chunkStart[first]);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,266 @@
+package exchangebroker;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import marketwatch.exception.*;
+import marketwatch.tools.CandleSeries;
+import marketwatch.tools.Timeframe;
+
+/** Keeps history of each exchange or broker, symbol, and time frame in memory, so a request only asks the exchange or the broker for the missing candles.
+ * The tail request always starts at the last cached candle, so the candle that was still forming is refreshed.
+ * A range that is already covered is served from memory without any request. The covered range ends at the last closed candle,
+ * so a range that includes the forming candle is always requested again.
+ * Updates of the same history are done one by one. Returned history is a copy, so callers can keep it while the cache is updated.
+ * Each history keeps at most maxCandles candles; the oldest candles are removed first. When there are more than maxEntries histories,
+ * the least recently used history is removed. */
+public class HistoryCache {
+
+	/** Cached history of a symbol and a time frame. Guarded by itself. */
+	private static class Entry {
+		final CandleSeries series = new CandleSeries();
+		/** long: Second. Start of the covered range, or -1 if nothing is cached. */
+		long coveredFrom = -1;
+		/** long: Second. End of the covered range. It is never after the start of the last closed candle. */
+		long coveredTo = -1;
+		/** Last update. The next update starts after it. */
+		CompletableFuture<CandleSeries> update = CompletableFuture.completedFuture(null);
+	}
+
+	private final HistoryBackfill backfill;
+	/** Current second of the exchange or the broker. */
+	private final LongSupplier clock;
+	private final int maxEntries;
+	private final int maxCandles;
+	/** Access order, so the eldest entry is the least recently used one. */
+	private final Map<String, Entry> entries;
+
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/** Constructor. At most 256 histories of 100000 candles are kept, and the local clock is used.
+	 * @param backfill Requests history from the exchange or the broker */
+	public HistoryCache(HistoryBackfill backfill) {
+		this(backfill, () -> System.currentTimeMillis() / 1000);
+	}
+
+	/** Constructor. At most 256 histories of 100000 candles are kept.
+	 * @param backfill Requests history from the exchange or the broker
+	 * @param clock Current second of the exchange or the broker, for example ServerClock.currentSecond */
+	public HistoryCache(HistoryBackfill backfill, LongSupplier clock) {
+		this(backfill, clock, 256, 100000);
+	}
+
+	/** Constructor. The local clock is used.
+	 * @param backfill Requests history from the exchange or the broker
+	 * @param maxEntries Maximum number of histories (symbol and time frame)
+	 * @param maxCandles Maximum number of candles of each history */
+	public HistoryCache(HistoryBackfill backfill, int maxEntries, int maxCandles) {
+		this(backfill, () -> System.currentTimeMillis() / 1000, maxEntries, maxCandles);
+	}
+
+	/** Constructor.
+	 * @param backfill Requests history from the exchange or the broker
+	 * @param clock Current second of the exchange or the broker, for example ServerClock.currentSecond
+	 * @param maxEntries Maximum number of histories (symbol and time frame)
+	 * @param maxCandles Maximum number of candles of each history */
+	public HistoryCache(HistoryBackfill backfill, LongSupplier clock, int maxEntries, int maxCandles) {
+		this.backfill = backfill;
+		this.clock = clock;
+		this.maxEntries = Math.max(1, maxEntries);
+		this.maxCandles = Math.max(1, maxCandles);
+		this.entries = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() <= HistoryCache.this.maxEntries) {return false;}
+				evictionCount.incrementAndGet();
+				return true;
+			}
+		});
+	}
+
+	/** Gets history of currency without blocking. Symbol and time frame are not checked.
+	 * @param api API of the exchange or the broker
+	 * @param symbol Symbol
+	 * @param timeframe Time frame
+	 * @param initialDate Initial date and time as seconds since year 1970
+	 * @param finalDate Final date and time as seconds since year 1970
+	 * @return Future of history of currency. History is null if the request is failed, and it starts later than initialDate if only the oldest chunks are failed.
+	 * @throws SymbolException
+	 * @throws TimeframeException */
+	public CompletableFuture<CandleSeries> historyAsync(ApiInterface api, String symbol, Timeframe timeframe, long initialDate, long finalDate) throws SymbolException, TimeframeException {
+		requestCount.incrementAndGet();
+		String key = api.getDataSourceName() + "|" + symbol + "|" + timeframe;
+		Entry entry = entries.computeIfAbsent(key, k -> new Entry());
+		RequestScheduler.Requester requester = RequestScheduler.getCurrentRequester();
+
+		synchronized (entry) {
+			if (entry.update.isDone() && isCovered(entry, initialDate, finalDate)) {
+				hitCount.incrementAndGet();
+				return CompletableFuture.completedFuture(window(entry, initialDate, finalDate));
+			}
+			//The previous update may cover this range, so check again after it.
+			CompletableFuture<CandleSeries> result = entry.update.handle((ignored, ex) -> null).thenCompose(ignored -> {
+				synchronized (entry) {
+					if (isCovered(entry, initialDate, finalDate)) {
+						hitCount.incrementAndGet();
+						return CompletableFuture.completedFuture(window(entry, initialDate, finalDate));
+					}
+				}
+				return update(api, symbol, timeframe, entry, requester, initialDate, finalDate);
+			});
+			entry.update = result;
+			return result;
+		}
+	}
+
+	/** Requests the missing head and tail, and merges them into the cache.
+	 * @return Future of the requested window, or null if a request is failed */
+	private CompletableFuture<CandleSeries> update(ApiInterface api, String symbol, Timeframe timeframe, Entry entry, RequestScheduler.Requester requester, long initialDate, long finalDate) {
+		long headFrom;
+		long headTo;
+		long tailFrom;
+		synchronized (entry) {
+			//Cached candles after the covered range are still forming, but the tail starts at the last one, so they connect the range too.
+			long reach = entry.series.isEmpty() ? entry.coveredTo : Math.max(entry.coveredTo, entry.series.lastTime());
+			if (entry.coveredFrom < 0 || initialDate > reach || finalDate < entry.coveredFrom) {
+				//Not connected to the cached range. Start again from the requested range.
+				entry.series.truncate(0);
+				entry.coveredFrom = -1;
+				entry.coveredTo = -1;
+				headFrom = -1;
+				headTo = -1;
+				tailFrom = initialDate;
+			}
+			else {
+				headFrom = (initialDate < entry.coveredFrom) ? initialDate : -1;
+				headTo = entry.coveredFrom - 1;
+				if (finalDate <= entry.coveredTo) {
+					tailFrom = -1;
+				}
+				else {
+					tailFrom = entry.series.isEmpty() ? entry.coveredFrom : entry.series.lastTime();
+				}
+			}
+		}
+
+		CompletableFuture<HistoryBackfill.Partial> head = (headFrom < 0) ? CompletableFuture.completedFuture(null) : request(api, symbol, timeframe, requester, headFrom, headTo);
+		CompletableFuture<HistoryBackfill.Partial> tail = (tailFrom < 0) ? CompletableFuture.completedFuture(null) : request(api, symbol, timeframe, requester, tailFrom, finalDate);
+		return head.thenCombine(tail, (headPart, tailPart) -> {
+			if ((headFrom >= 0 && headPart == null) || (tailFrom >= 0 && tailPart == null)) {
+				return null;
+			}
+			synchronized (entry) {
+				if (headPart != null) {
+					//Head is before every cached candle. Copy cached candles after it.
+					//If its oldest chunks failed, the covered range starts later, so the next request asks for them again.
+					CandleSeries headSeries = headPart.getSeries();
+					CandleSeries merged = new CandleSeries(headSeries.size() + entry.series.size());
+					merged.append(headSeries);
+					merged.append(entry.series);
+					entry.series.truncate(0);
+					entry.series.append(merged);
+					entry.coveredFrom = headPart.getFrom();
+				}
+				if (tailPart != null) {
+					CandleSeries tailSeries = tailPart.getSeries();
+					if (tailPart.getFrom() > tailFrom) {
+						//The oldest chunks of the tail failed, so the tail is not connected to the cache. Keep only the tail.
+						entry.series.truncate(0);
+						entry.series.append(tailSeries);
+						entry.coveredFrom = tailPart.getFrom();
+					}
+					else if (!tailSeries.isEmpty()) {
+						//Candles from the first new candle are replaced, so the forming candle gets its latest values.
+						entry.series.truncate(entry.series.indexOf(tailSeries.time(0)));
+						entry.series.append(tailSeries);
+					}
+					if (entry.coveredFrom < 0) {
+						entry.coveredFrom = tailPart.getFrom();
+					}
+					//The forming candle may still change, so only closed candles are covered.
+					entry.coveredTo = Math.min(finalDate, clock.getAsLong() - timeframe.getSeconds());
+				}
+				CandleSeries ret = window(entry, initialDate, finalDate);
+				trim(entry);
+				return ret;
+			}
+		});
+	}
+
+	/** Removes the oldest candles over maxCandles, and moves the start of the covered range to the first kept candle. Entry must be locked. */
+	private void trim(Entry entry) {
+		int size = entry.series.size();
+		if (size <= maxCandles) {return;}
+		CandleSeries kept = new CandleSeries(maxCandles);
+		kept.append(entry.series.slice(size - maxCandles, size));
+		entry.series.truncate(0);
+		entry.series.append(kept);
+		entry.coveredFrom = entry.series.time(0);
+	}
+
+	/** Requests history with the requester of the caller, because the request may be sent from another thread. */
+	private CompletableFuture<HistoryBackfill.Partial> request(ApiInterface api, String symbol, Timeframe timeframe, RequestScheduler.Requester requester, long initialDate, long finalDate) {
+		RequestScheduler.Requester previous = RequestScheduler.getCurrentRequester();
+		RequestScheduler.setCurrentRequester(requester);
+		try {
+			return backfill.historyPartialAsync(api, symbol, timeframe, initialDate, finalDate);
+		}
+		catch (SymbolException | TimeframeException e) {
+			return CompletableFuture.completedFuture(null);
+		}
+		finally {
+			RequestScheduler.setCurrentRequester(previous);
+		}
+	}
+
+	/** Return whether a range is cached. Entry must be locked. */
+	private boolean isCovered(Entry entry, long initialDate, long finalDate) {
+		return entry.coveredFrom >= 0 && initialDate >= entry.coveredFrom && finalDate <= entry.coveredTo;
+	}
+
+	/** Copies candles of a range. Entry must be locked. */
+	private CandleSeries window(Entry entry, long initialDate, long finalDate) {
+		int from = entry.series.indexOf(initialDate);
+		int to = entry.series.indexOf(finalDate + 1);
+		CandleSeries ret = new CandleSeries(Math.max(1, to - from));
+		ret.append(entry.series.slice(from, to));
+		return ret;
+	}
+
+	/** Removes all cached history. */
+	public void clear() {
+		entries.clear();
+	}
+
+	/** Gets number of cached histories.
+	 * @return Number of histories (symbol and time frame) */
+	public int getEntryCount() {
+		return entries.size();
+	}
+
+	/** Gets number of histories that were removed because the cache was full.
+	 * @return Number of histories */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/** Gets number of requests since the cache is created.
+	 * @return Number of requests */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/** Gets number of requests that were served from memory without any request to the exchange or the broker.
+	 * @return Number of requests */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+}
\ No newline at end of file
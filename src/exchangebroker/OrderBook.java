@@ -0,0 +1,324 @@
+package exchangebroker;
+
+import java.util.Arrays;
+
+/** Order book (L2) of currency: amount at each price level of bids and asks.
+ * Each side is a pair of primitive arrays sorted by price, best price first, so no map or boxed number is created.
+ * A level is found by binary search, best prices are read directly, and cumulative amounts are kept as prefix sums that are calculated again only after the changed level.
+ * Adding or removing a level shifts the levels after it, so it is O(n) in the number of levels. This is accepted: books are limited to the requested levels,
+ * and shifting a few hundred doubles is a short memory move without any object, cheaper than the nodes of a tree.
+ * Changing the amount of an existing level is O(log n). A snapshot in price order only appends, so it is O(n log n).
+ * A book can be reused: copy another book into it every time. Books that are shared by a bridge are frozen, and they cannot be changed. */
+public class OrderBook {
+
+	/** Price levels of one side. */
+	private static class Side {
+		/** Bids are sorted from high to low, and asks are sorted from low to high. */
+		final boolean descending;
+		double[] price = new double[16];
+		double[] amount = new double[16];
+		/** Cumulative amount from the best level to each level. Valid before index dirtyFrom. */
+		double[] cumulative = new double[16];
+		int size;
+		int dirtyFrom;
+
+		Side(boolean descending) {
+			this.descending = descending;
+		}
+
+		/** Finds a price.
+		 * @return Index of the price, or (-(insertion point) - 1) if the price does not exist */
+		int find(double p) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				double value = price[mid];
+				boolean before = descending ? value > p : value < p;
+				if (before) {
+					low = mid + 1;
+				}
+				else if (value == p) {
+					return mid;
+				}
+				else {
+					high = mid - 1;
+				}
+			}
+			return -(low + 1);
+		}
+
+		/** Sets amount at a price. O(log n) if the level exists and stays, otherwise O(n) to shift the levels after it. */
+		void set(double p, double a) {
+			int index = find(p);
+			if (index >= 0) {
+				if (a > 0) {
+					amount[index] = a;
+				}
+				else {
+					System.arraycopy(price, index + 1, price, index, size - index - 1);
+					System.arraycopy(amount, index + 1, amount, index, size - index - 1);
+					size--;
+				}
+				dirtyFrom = Math.min(dirtyFrom, index);
+				return;
+			}
+			if (a <= 0) {return;}
+			index = -index - 1;
+			if (size == price.length) {
+				price = Arrays.copyOf(price, size * 2);
+				amount = Arrays.copyOf(amount, size * 2);
+				cumulative = Arrays.copyOf(cumulative, size * 2);
+			}
+			System.arraycopy(price, index, price, index + 1, size - index);
+			System.arraycopy(amount, index, amount, index + 1, size - index);
+			price[index] = p;
+			amount[index] = a;
+			size++;
+			dirtyFrom = Math.min(dirtyFrom, index);
+		}
+
+		/** Gets cumulative amount of the best levels. */
+		double depth(int levels) {
+			levels = Math.min(levels, size);
+			if (levels <= 0) {return 0;}
+			if (dirtyFrom < levels) {
+				double sum = (dirtyFrom == 0) ? 0 : cumulative[dirtyFrom - 1];
+				for (int i = dirtyFrom; i < size; i++) {
+					sum += amount[i];
+					cumulative[i] = sum;
+				}
+				dirtyFrom = size;
+			}
+			return cumulative[levels - 1];
+		}
+
+		void clear() {
+			size = 0;
+			dirtyFrom = 0;
+		}
+
+		void copyFrom(Side other) {
+			if (price.length < other.size) {
+				price = new double[other.price.length];
+				amount = new double[other.price.length];
+				cumulative = new double[other.price.length];
+			}
+			System.arraycopy(other.price, 0, price, 0, other.size);
+			System.arraycopy(other.amount, 0, amount, 0, other.size);
+			size = other.size;
+			dirtyFrom = Math.min(other.dirtyFrom, other.size);
+			System.arraycopy(other.cumulative, 0, cumulative, 0, dirtyFrom);
+		}
+	}
+
+	private final Side bids = new Side(true);
+	private final Side asks = new Side(false);
+	private String symbol;
+	/** long: Millisecond. Time that the book was received or last changed. */
+	private long updateTime;
+	/** True if the request was failed and this is the last good book. */
+	private boolean stale;
+	private boolean frozen;
+
+	private void checkFrozen() {
+		if (frozen) {throw new UnsupportedOperationException("Order book is frozen.");}
+	}
+
+	/** Sets symbol and time of the book.
+	 * @param symbol Symbol (bridge format)
+	 * @param updateTime Time that the book was received or changed as millisecond */
+	public void setHeader(String symbol, long updateTime) {
+		checkFrozen();
+		this.symbol = symbol;
+		this.updateTime = updateTime;
+		stale = false;
+	}
+
+	/** Marks the book as the last good book of a failed request, or as a new book.
+	 * @param stale True if the book is not new */
+	public void setStale(boolean stale) {
+		checkFrozen();
+		this.stale = stale;
+	}
+
+	/** Return whether the book is the last good book of a failed request. Its age is known from the update time.
+	 * @return True or false */
+	public boolean isStale() {
+		return stale;
+	}
+
+	/** Removes all levels, for example before a full snapshot is applied. */
+	public void clear() {
+		checkFrozen();
+		bids.clear();
+		asks.clear();
+	}
+
+	/** Sets amount at a bid price. This is how both a snapshot and an incremental diff are applied.
+	 * @param price Price
+	 * @param amount Amount. The level is removed if the amount is 0. */
+	public void setBid(double price, double amount) {
+		checkFrozen();
+		bids.set(price, amount);
+	}
+
+	/** Sets amount at an ask price. This is how both a snapshot and an incremental diff are applied.
+	 * @param price Price
+	 * @param amount Amount. The level is removed if the amount is 0. */
+	public void setAsk(double price, double amount) {
+		checkFrozen();
+		asks.set(price, amount);
+	}
+
+	/** Copies levels of another book. No object is created if this book is large enough.
+	 * @param other Book to be copied */
+	public void copyFrom(OrderBook other) {
+		checkFrozen();
+		bids.copyFrom(other.bids);
+		asks.copyFrom(other.asks);
+		symbol = other.symbol;
+		updateTime = other.updateTime;
+		stale = other.stale;
+	}
+
+	/** Prevents changes, so the book can be shared by threads.
+	 * Cumulative amounts are calculated here, so reading a frozen book never writes. */
+	public void freeze() {
+		bids.depth(bids.size);
+		asks.depth(asks.size);
+		frozen = true;
+	}
+
+	/** Return whether the book cannot be changed.
+	 * @return True or false */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/** Gets symbol.
+	 * @return Symbol (bridge format), or null if no value is set */
+	public String getSymbol() {
+		return symbol;
+	}
+
+	/** Gets time that the book was received or last changed.
+	 * @return Millisecond since year 1970 */
+	public long getUpdateTime() {
+		return updateTime;
+	}
+
+	/** Gets number of bid levels.
+	 * @return Number of levels */
+	public int bidLevels() {
+		return bids.size;
+	}
+
+	/** Gets number of ask levels.
+	 * @return Number of levels */
+	public int askLevels() {
+		return asks.size;
+	}
+
+	/** Gets price of a bid level.
+	 * @param level Level. 0 is the highest bid.
+	 * @return Price */
+	public double bidPrice(int level) {
+		if (level < 0 || level >= bids.size) {throw new IndexOutOfBoundsException(level);}
+		return bids.price[level];
+	}
+
+	/** Gets amount of a bid level.
+	 * @param level Level. 0 is the highest bid.
+	 * @return Amount */
+	public double bidAmount(int level) {
+		if (level < 0 || level >= bids.size) {throw new IndexOutOfBoundsException(level);}
+		return bids.amount[level];
+	}
+
+	/** Gets price of an ask level.
+	 * @param level Level. 0 is the lowest ask.
+	 * @return Price */
+	public double askPrice(int level) {
+		if (level < 0 || level >= asks.size) {throw new IndexOutOfBoundsException(level);}
+		return asks.price[level];
+	}
+
+	/** Gets amount of an ask level.
+	 * @param level Level. 0 is the lowest ask.
+	 * @return Amount */
+	public double askAmount(int level) {
+		if (level < 0 || level >= asks.size) {throw new IndexOutOfBoundsException(level);}
+		return asks.amount[level];
+	}
+
+	/** Gets the highest bid price.
+	 * @return Price, or NaN if there is no bid */
+	public double bestBid() {
+		return (bids.size == 0) ? Double.NaN : bids.price[0];
+	}
+
+	/** Gets the lowest ask price.
+	 * @return Price, or NaN if there is no ask */
+	public double bestAsk() {
+		return (asks.size == 0) ? Double.NaN : asks.price[0];
+	}
+
+	/** Gets the lowest ask price minus the highest bid price.
+	 * @return Spread, or NaN if a side is empty */
+	public double spread() {
+		return bestAsk() - bestBid();
+	}
+
+	/** Gets the middle of the highest bid price and the lowest ask price.
+	 * @return Price, or NaN if a side is empty */
+	public double midPrice() {
+		return (bestAsk() + bestBid()) / 2;
+	}
+
+	/** Gets amount at a bid price.
+	 * @param price Price
+	 * @return Amount, or 0 if the level does not exist */
+	public double bidAmountAt(double price) {
+		int index = bids.find(price);
+		return (index < 0) ? 0 : bids.amount[index];
+	}
+
+	/** Gets amount at an ask price.
+	 * @param price Price
+	 * @return Amount, or 0 if the level does not exist */
+	public double askAmountAt(double price) {
+		int index = asks.find(price);
+		return (index < 0) ? 0 : asks.amount[index];
+	}
+
+	/** Gets cumulative amount of the best bid levels.
+	 * @param levels Number of levels
+	 * @return Amount */
+	public double bidDepth(int levels) {
+		return bids.depth(levels);
+	}
+
+	/** Gets cumulative amount of the best ask levels.
+	 * @param levels Number of levels
+	 * @return Amount */
+	public double askDepth(int levels) {
+		return asks.depth(levels);
+	}
+
+	/** Gets cumulative amount of bids at or above a price, which can be sold without going below the price.
+	 * @param price Price
+	 * @return Amount */
+	public double bidDepthTo(double price) {
+		int index = bids.find(price);
+		return bids.depth((index >= 0) ? index + 1 : -index - 1);
+	}
+
+	/** Gets cumulative amount of asks at or below a price, which can be bought without going above the price.
+	 * @param price Price
+	 * @return Amount */
+	public double askDepthTo(double price) {
+		int index = asks.find(price);
+		return asks.depth((index >= 0) ? index + 1 : -index - 1);
+	}
+}
\ No newline at end of file
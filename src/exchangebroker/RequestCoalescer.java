@@ -0,0 +1,152 @@
+package exchangebroker;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/** Shares one request among concurrent callers that send the same request (single flight).
+ * The key of a request is its endpoint and parameters, for example URL.
+ * A finished result can also be shared for a short time (freshness). Failed results (null) are never shared after they finish.
+ * Results that can be changed must be shared by the call with a share function, which gives each caller a read-only view or a copy.
+ * Only immutable or frozen results are shared as they are. */
+public class RequestCoalescer {
+
+	/** Request in flight or fresh result. */
+	private static class Flight {
+		final CompletableFuture<?> future;
+		/** long: Millisecond. Zero while the request is in flight. */
+		volatile long finishedTime;
+
+		Flight(CompletableFuture<?> future) {
+			this.future = future;
+		}
+	}
+
+	/** Expired results are swept when number of flights is more than this. */
+	private static final int sweepSize = 256;
+
+	private final Map<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+	/** long: Millisecond */
+	private volatile long freshness;
+
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/** Constructor.
+	 * Only requests in flight are shared. */
+	public RequestCoalescer() {
+		this(0);
+	}
+
+	/** Constructor.
+	 * @param freshness Time that a finished result is shared as millisecond */
+	public RequestCoalescer(long freshness) {
+		this.freshness = freshness;
+	}
+
+	/** Sets time that a finished result is shared.
+	 * @param freshness Millisecond. Zero means only requests in flight are shared. */
+	public void setFreshness(long freshness) {
+		this.freshness = freshness;
+	}
+
+	/** Gets time that a finished result is shared.
+	 * @return Millisecond */
+	public long getFreshness() {
+		return freshness;
+	}
+
+	/** Sends a request, or joins the same request in flight.
+	 * @param key Endpoint and parameters of request
+	 * @param request Sends the request. It is called only if there is no same request in flight or fresh result.
+	 * @return Future of result */
+	@SuppressWarnings("unchecked")
+	public <T> CompletableFuture<T> call(String key, Supplier<CompletableFuture<T>> request) {
+		requestCount.incrementAndGet();
+		while (true) {
+			Flight flight = flights.get(key);
+			if (flight != null) {
+				long finished = flight.finishedTime;
+				if (finished == 0 || System.currentTimeMillis() - finished < freshness) {
+					coalescedCount.incrementAndGet();
+					return (CompletableFuture<T>)flight.future;
+				}
+				flights.remove(key, flight);
+			}
+
+			CompletableFuture<T> future = new CompletableFuture<T>();
+			Flight newFlight = new Flight(future);
+			if (flights.putIfAbsent(key, newFlight) != null) {
+				continue;   //Another caller has just sent the same request. Join it.
+			}
+			if (flights.size() > sweepSize) {
+				sweep();
+			}
+			CompletableFuture<T> sent;
+			try {
+				sent = request.get();
+			}
+			catch (RuntimeException re) {
+				flights.remove(key, newFlight);
+				future.completeExceptionally(re);
+				return future;
+			}
+			sent.whenComplete((result, ex) -> {
+				if (ex != null || result == null || freshness <= 0) {
+					flights.remove(key, newFlight);
+				}
+				else {
+					newFlight.finishedTime = System.currentTimeMillis();
+				}
+				if (ex != null) {
+					future.completeExceptionally(ex);
+				}
+				else {
+					future.complete(result);
+				}
+			});
+			return future;
+		}
+	}
+
+	/** Sends a request, or joins the same request in flight. Each caller gets its own read-only view or copy of the shared result, so a caller cannot change the result of the others.
+	 * @param key Endpoint and parameters of request
+	 * @param request Sends the request. It is called only if there is no same request in flight or fresh result.
+	 * @param share Makes a read-only view or a copy of the result for one caller. It is not called for null.
+	 * @return Future of result */
+	public <T> CompletableFuture<T> call(String key, Supplier<CompletableFuture<T>> request, UnaryOperator<T> share) {
+		return call(key, request).thenApply(result -> (result == null) ? null : share.apply(result));
+	}
+
+	/** Removes fresh results that have expired. Keys with a time parameter are rarely requested again, so they are not replaced by a new request. */
+	private void sweep() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Flight> entry : flights.entrySet()) {
+			long finished = entry.getValue().finishedTime;
+			if (finished != 0 && now - finished >= freshness) {
+				flights.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/** Gets number of calls since the coalescer is created.
+	 * @return Number of calls */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/** Gets number of calls that shared another request instead of sending a new one.
+	 * @return Number of coalesced calls */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/** Gets number of requests in flight and fresh results.
+	 * @return Number of requests */
+	public int getFlightCount() {
+		return flights.size();
+	}
+}
\ No newline at end of file
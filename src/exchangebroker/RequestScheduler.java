@@ -0,0 +1,275 @@
+package exchangebroker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Request budget of an exchange or a broker. Each endpoint class has a token bucket, and every request must take a token before it is sent.
+ * When tokens run out, requests wait in a queue. Higher priority is served first. Requests of the same priority are served by weighted fair queueing,
+ * so a requester with weight 2 gets twice as many requests as a requester with weight 1 when both are waiting.
+ * Waiting does not block any thread. Queueing delay is recorded per requester.
+ * The requester of a thread is set by setCurrentRequester function. Requests without a requester use the default requester. */
+public class RequestScheduler {
+
+	/** Endpoint class. Each class has its own budget. */
+	public enum EndpointClass {
+		/** Symbols, ticker, server time, and order book. */
+		Market,
+		/** History (candles). */
+		History
+	}
+
+	/** Requester of requests, for example an Active Watcher. Weight and priority cannot be changed later. */
+	public static class Requester {
+		private final String name;
+		private final int weight;
+		private final int priority;
+		private final AtomicLong requestCount = new AtomicLong();
+		/** long: Nanosecond */
+		private final AtomicLong totalDelay = new AtomicLong();
+		/** long: Nanosecond */
+		private final AtomicLong maxDelay = new AtomicLong();
+
+		/** Constructor.
+		 * @param name Name of requester
+		 * @param weight Weight in fair queueing (1 or more)
+		 * @param priority Priority. Higher priority is served first. */
+		public Requester(String name, int weight, int priority) {
+			this.name = name;
+			this.weight = Math.max(1, weight);
+			this.priority = priority;
+		}
+
+		/** Gets name of requester.
+		 * @return Name */
+		public String getName() {
+			return name;
+		}
+
+		/** Gets weight in fair queueing.
+		 * @return Weight */
+		public int getWeight() {
+			return weight;
+		}
+
+		/** Gets priority.
+		 * @return Priority */
+		public int getPriority() {
+			return priority;
+		}
+
+		/** Gets number of granted requests.
+		 * @return Number of requests */
+		public long getRequestCount() {
+			return requestCount.get();
+		}
+
+		/** Gets average queueing delay.
+		 * @return Average delay as millisecond */
+		public double getAverageDelay() {
+			long count = requestCount.get();
+			return (count == 0) ? 0 : totalDelay.get() / 1e6 / count;
+		}
+
+		/** Gets maximum queueing delay.
+		 * @return Maximum delay as millisecond */
+		public double getMaxDelay() {
+			return maxDelay.get() / 1e6;
+		}
+
+		private void record(long delay) {
+			requestCount.incrementAndGet();
+			totalDelay.addAndGet(delay);
+			maxDelay.accumulateAndGet(delay, Math::max);
+		}
+	}
+
+	/** Request waiting for a token. */
+	private static class Ticket {
+		final Requester requester;
+		final double tag;
+		final long sequence;
+		/** long: Nanosecond */
+		final long enqueued;
+		final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+		Ticket(Requester requester, double tag, long sequence, long enqueued) {
+			this.requester = requester;
+			this.tag = tag;
+			this.sequence = sequence;
+			this.enqueued = enqueued;
+		}
+	}
+
+	/** Token bucket of an endpoint class. */
+	private static class Bucket {
+		/** Tokens per second */
+		double rate;
+		double burst;
+		double tokens;
+		/** long: Nanosecond */
+		long lastRefill = System.nanoTime();
+		/** Virtual time of fair queueing. It is the tag of the last granted request. */
+		double virtualTime;
+		long sequence;
+		boolean drainScheduled;
+		/** Finish tag of the last request of each requester. A requester can use many schedulers, so its tags are kept by each bucket.
+		 * Keys are weak, so requesters that are replaced are removed. */
+		final Map<Requester, double[]> lastTags = new WeakHashMap<Requester, double[]>();
+		final PriorityQueue<Ticket> queue = new PriorityQueue<Ticket>((a, b) -> {
+			if (a.requester.priority != b.requester.priority) {return Integer.compare(b.requester.priority, a.requester.priority);}
+			if (a.tag != b.tag) {return Double.compare(a.tag, b.tag);}
+			return Long.compare(a.sequence, b.sequence);
+		});
+
+		Bucket(double rate, double burst) {
+			this.rate = rate;
+			this.burst = burst;
+			this.tokens = burst;
+		}
+
+		void refill(long now) {
+			tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * rate);
+			lastRefill = now;
+		}
+	}
+
+	private static final Map<String, RequestScheduler> schedulers = new ConcurrentHashMap<String, RequestScheduler>();
+	private static final ThreadLocal<Requester> currentRequester = new ThreadLocal<Requester>();
+	private static final Requester defaultRequester = new Requester("Default", 1, 0);
+	/** Grants waiting requests when tokens are refilled. One thread is shared by all schedulers. */
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "RequestScheduler-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Bucket[] buckets = new Bucket[EndpointClass.values().length];
+
+	/** Constructor.
+	 * Market endpoints have 50 requests per second (burst 50). History endpoints have 10 requests per second (burst 20). */
+	public RequestScheduler() {
+		buckets[EndpointClass.Market.ordinal()] = new Bucket(50, 50);
+		buckets[EndpointClass.History.ordinal()] = new Bucket(10, 20);
+	}
+
+	/** Gets the scheduler of an exchange or a broker. The scheduler is created when it is used for the first time.
+	 * @param name Exchange or broker name (case insensitive)
+	 * @return Request scheduler */
+	public static RequestScheduler get(String name) {
+		return schedulers.computeIfAbsent(name.toLowerCase(), key -> new RequestScheduler());
+	}
+
+	/** Sets requester of the current thread.
+	 * @param requester Requester, or null to use the default requester */
+	public static void setCurrentRequester(Requester requester) {
+		if (requester == null) {
+			currentRequester.remove();
+		}
+		else {
+			currentRequester.set(requester);
+		}
+	}
+
+	/** Gets requester of the current thread.
+	 * @return Requester */
+	public static Requester getCurrentRequester() {
+		Requester requester = currentRequester.get();
+		return (requester == null) ? defaultRequester : requester;
+	}
+
+	/** Sets budget of an endpoint class.
+	 * @param endpointClass Endpoint class
+	 * @param rate Requests per second
+	 * @param burst Maximum number of requests that can be sent at once */
+	public void setRate(EndpointClass endpointClass, double rate, double burst) {
+		Bucket bucket = buckets[endpointClass.ordinal()];
+		synchronized (bucket) {
+			bucket.refill(System.nanoTime());
+			bucket.rate = rate;
+			bucket.burst = burst;
+			bucket.tokens = Math.min(bucket.tokens, burst);
+		}
+	}
+
+	/** Gets number of requests waiting for a token.
+	 * @param endpointClass Endpoint class
+	 * @return Number of requests */
+	public int getQueueLength(EndpointClass endpointClass) {
+		Bucket bucket = buckets[endpointClass.ordinal()];
+		synchronized (bucket) {
+			return bucket.queue.size();
+		}
+	}
+
+	/** Takes a token for the requester of the current thread.
+	 * @param endpointClass Endpoint class
+	 * @return Future that completes when the request may be sent */
+	public CompletableFuture<Void> acquire(EndpointClass endpointClass) {
+		return acquire(endpointClass, getCurrentRequester());
+	}
+
+	/** Takes a token for a requester.
+	 * @param endpointClass Endpoint class
+	 * @param requester Requester
+	 * @return Future that completes when the request may be sent */
+	public CompletableFuture<Void> acquire(EndpointClass endpointClass, Requester requester) {
+		Bucket bucket = buckets[endpointClass.ordinal()];
+		long now = System.nanoTime();
+		Ticket ticket;
+		synchronized (bucket) {
+			bucket.refill(now);
+			double[] lastTag = bucket.lastTags.computeIfAbsent(requester, key -> new double[1]);
+			double tag = Math.max(bucket.virtualTime, lastTag[0]) + 1.0 / requester.weight;
+			lastTag[0] = tag;
+			if (bucket.queue.isEmpty() && bucket.tokens >= 1) {
+				bucket.tokens -= 1;
+				bucket.virtualTime = tag;
+				requester.record(0);
+				return CompletableFuture.completedFuture(null);
+			}
+			ticket = new Ticket(requester, tag, bucket.sequence++, now);
+			bucket.queue.add(ticket);
+			scheduleDrain(bucket);
+		}
+		return ticket.future;
+	}
+
+	/** Schedules the next grant at the time the next token is refilled. Bucket must be locked. */
+	private void scheduleDrain(Bucket bucket) {
+		if (bucket.drainScheduled || bucket.queue.isEmpty()) {return;}
+		bucket.drainScheduled = true;
+		long wait = (long)Math.ceil(Math.max(0, 1 - bucket.tokens) / bucket.rate * 1e9);
+		timer.schedule(() -> drain(bucket), wait, TimeUnit.NANOSECONDS);
+	}
+
+	/** Grants waiting requests while there are tokens. */
+	private void drain(Bucket bucket) {
+		List<Ticket> granted = new ArrayList<Ticket>();
+		long now = System.nanoTime();
+		synchronized (bucket) {
+			bucket.drainScheduled = false;
+			bucket.refill(now);
+			while (bucket.tokens >= 1 && !bucket.queue.isEmpty()) {
+				Ticket ticket = bucket.queue.poll();
+				bucket.tokens -= 1;
+				bucket.virtualTime = Math.max(bucket.virtualTime, ticket.tag);
+				granted.add(ticket);
+			}
+			scheduleDrain(bucket);
+		}
+		//Futures are completed outside the lock, because their callbacks send requests.
+		for (Ticket ticket : granted) {
+			ticket.requester.record(now - ticket.enqueued);
+			ticket.future.complete(null);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,287 @@
+package exchangebroker;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import marketwatch.tools.LatencyHistogram;
+
+/** Sends requests of an exchange or a broker so that a slow or broken endpoint does not stall the caller.
+ * - Each endpoint has a circuit breaker. While it is open, requests are not sent.
+ * - If a request is slower than the observed p95 latency of its endpoint, a second (hedged) request is sent, and the first response is used.
+ *   Latency and the hedging delay are counted from the time that the request budget lets the request be sent, so waiting in the queue never sends a hedge.
+ *   A hedge is sent only if the circuit breaker allows it, and each attempt records one result in the breaker however many requests it sent.
+ * - A failed request is sent again a few times, after a random delay that grows exponentially (full jitter).
+ * Retries and hedges are sent from timer threads, so the requester of the caller is kept by the call and set around every admission and request.
+ * - If all requests are failed, the last good value of the same request is used if it is not too old, and it is marked as stale.
+ * A request is failed if its future completes exceptionally or with null. Failed calls complete with null, the same as GetPost. */
+public class ResilientCaller {
+
+	/** Latency of an endpoint is used for hedging after this number of responses. */
+	private static final int minHedgeSamples = 20;
+	/** The hedging delay is recalculated every this number of responses. */
+	private static final int hedgeUpdateInterval = 16;
+	/** long: Millisecond. The smallest hedging delay, so fast endpoints are not requested twice for every small jitter. */
+	private static final long minHedgeDelay = 50;
+
+	/** Circuit breaker and latency of one endpoint. */
+	private class Endpoint {
+		final CircuitBreaker breaker = new CircuitBreaker(failureThreshold, openTime);
+		final LatencyHistogram latency = new LatencyHistogram();
+		/** long: Millisecond. Zero until there are enough responses. */
+		volatile long hedgeDelay;
+
+		void record(long nano) {
+			latency.recordNanos(nano);
+			long count = latency.getCount();
+			if (count >= minHedgeSamples && count % hedgeUpdateInterval == 0) {
+				hedgeDelay = Math.max(minHedgeDelay, (long)Math.ceil(latency.getPercentile(95)));
+			}
+		}
+	}
+
+	/** One call. Everything that an attempt and its hedge need. */
+	private static class Call<T> {
+		final Endpoint endpoint;
+		final Supplier<CompletableFuture<Void>> admission;
+		final Supplier<CompletableFuture<T>> request;
+		/** Requester of the thread that made the call. */
+		final RequestScheduler.Requester requester;
+
+		Call(Endpoint endpoint, Supplier<CompletableFuture<Void>> admission, Supplier<CompletableFuture<T>> request) {
+			this.endpoint = endpoint;
+			this.admission = admission;
+			this.request = request;
+			requester = RequestScheduler.getCurrentRequester();
+		}
+
+		/** Runs an admission or a request as the requester of the caller.
+		 * @return Future. It completes exceptionally if the supplier throws. */
+		<U> CompletableFuture<U> asCaller(Supplier<CompletableFuture<U>> supplier) {
+			RequestScheduler.Requester previous = RequestScheduler.getCurrentRequester();
+			RequestScheduler.setCurrentRequester(requester);
+			try {
+				return supplier.get();
+			}
+			catch (RuntimeException re) {
+				return CompletableFuture.failedFuture(re);
+			}
+			finally {
+				RequestScheduler.setCurrentRequester(previous);
+			}
+		}
+	}
+
+	/** Last good value of a request. */
+	private static class Cached {
+		final Object value;
+		/** long: Millisecond */
+		final long time;
+
+		Cached(Object value, long time) {
+			this.value = value;
+			this.time = time;
+		}
+	}
+
+	private final int maxAttempts;
+	/** long: Millisecond */
+	private final long baseBackoff;
+	/** long: Millisecond */
+	private final long maxBackoff;
+	private final int failureThreshold;
+	/** long: Millisecond */
+	private final long openTime;
+	/** long: Millisecond. Older good values are not used. */
+	private final long staleLimit;
+	private volatile boolean hedging = true;
+
+	private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+	/** Request key to last good value. */
+	private final Map<String, Cached> lastGood = new ConcurrentHashMap<String, Cached>();
+
+	private final AtomicLong hedgeCount = new AtomicLong();
+	private final AtomicLong hedgeWinCount = new AtomicLong();
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong fallbackCount = new AtomicLong();
+
+	/** Constructor.
+	 * 3 attempts with backoff from 100 milliseconds to 2 seconds, circuit opens after 5 failures in a row for 5 seconds, and good values are used for 1 minute. */
+	public ResilientCaller() {
+		this(3, 100, 2000, 5, 5000, 1000 * 60);
+	}
+
+	/** Constructor.
+	 * @param maxAttempts Number of attempts of a call including the first request
+	 * @param baseBackoff Largest delay before the first retry as millisecond
+	 * @param maxBackoff Largest delay before any retry as millisecond
+	 * @param failureThreshold Number of failures in a row that opens the circuit of an endpoint
+	 * @param openTime Time that a circuit stays open as millisecond
+	 * @param staleLimit Largest age of a good value that is used when a call is failed as millisecond */
+	public ResilientCaller(int maxAttempts, long baseBackoff, long maxBackoff, int failureThreshold, long openTime, long staleLimit) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.baseBackoff = Math.max(0, baseBackoff);
+		this.maxBackoff = Math.max(this.baseBackoff, maxBackoff);
+		this.failureThreshold = failureThreshold;
+		this.openTime = openTime;
+		this.staleLimit = staleLimit;
+	}
+
+	/** Turns hedged requests on or off.
+	 * @param hedging True to send a hedged request when a request is slower than p95 */
+	public void setHedging(boolean hedging) {
+		this.hedging = hedging;
+	}
+
+	/** Sends a request without fallback, for example a request whose parameters are always different.
+	 * @param endpoint Endpoint name. Circuit breaker and latency are kept by it.
+	 * @param admission Waits until a request may be sent, for example by taking a token of the request scheduler. It is called before every request.
+	 * @param request Sends the request. It may be called more than once.
+	 * @return Future of result. Result is null if all attempts are failed. */
+	public <T> CompletableFuture<T> call(String endpoint, Supplier<CompletableFuture<Void>> admission, Supplier<CompletableFuture<T>> request) {
+		return attempt(new Call<T>(endpointOf(endpoint), admission, request), 0);
+	}
+
+	/** Sends a request, and uses the last good value of the same request if all attempts are failed.
+	 * @param endpoint Endpoint name. Circuit breaker and latency are kept by it.
+	 * @param key Endpoint and parameters of request. The last good value is kept by it.
+	 * @param admission Waits until a request may be sent, for example by taking a token of the request scheduler. It is called before every request.
+	 * @param request Sends the request. It may be called more than once.
+	 * @param markStale Makes a copy of a good value that is marked as stale. The good value may be shared, so it must not be changed.
+	 * @return Future of result. Result is null if all attempts are failed and there is no good value that is new enough. */
+	@SuppressWarnings("unchecked")
+	public <T> CompletableFuture<T> call(String endpoint, String key, Supplier<CompletableFuture<Void>> admission, Supplier<CompletableFuture<T>> request, UnaryOperator<T> markStale) {
+		return attempt(new Call<T>(endpointOf(endpoint), admission, request), 0).thenApply(value -> {
+			long now = System.currentTimeMillis();
+			if (value != null) {
+				lastGood.put(key, new Cached(value, now));
+				return value;
+			}
+			Cached cached = lastGood.get(key);
+			if (cached == null || now - cached.time > staleLimit) {return null;}
+			fallbackCount.incrementAndGet();
+			return markStale.apply((T)cached.value);
+		});
+	}
+
+	private Endpoint endpointOf(String endpoint) {
+		return endpoints.computeIfAbsent(endpoint, key -> new Endpoint());
+	}
+
+	/** Sends an attempt, and sends the next attempt after a jittered backoff if it is failed. */
+	private <T> CompletableFuture<T> attempt(Call<T> call, int attempt) {
+		if (!call.endpoint.breaker.allowRequest()) {return CompletableFuture.completedFuture(null);}
+		return hedged(call).thenCompose(value -> {
+			if (value != null || attempt + 1 >= maxAttempts) {return CompletableFuture.completedFuture(value);}
+			retryCount.incrementAndGet();
+			long backoff = Math.min(maxBackoff, baseBackoff << Math.min(attempt, 20));
+			long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+			return CompletableFuture.supplyAsync(() -> attempt, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+					.thenCompose(previous -> attempt(call, previous + 1));
+		});
+	}
+
+	/** Sends a request, and sends a hedged request if the first one is slower than p95 of the endpoint after it is admitted.
+	 * The attempt records one result in the circuit breaker when it ends.
+	 * @return Future of the first good response, or null if all requests are failed */
+	private <T> CompletableFuture<T> hedged(Call<T> call) {
+		Endpoint endpoint = call.endpoint;
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		AtomicInteger pending = new AtomicInteger(1);
+		send(call, result, pending, false).thenRun(() -> {
+			long delay = endpoint.hedgeDelay;
+			if (!hedging || delay <= 0) {return;}
+			CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+				//A hedge during a half open probe is not allowed, because the probe is the only request.
+				if (result.isDone() || !endpoint.breaker.allowRequest()) {return;}
+				//Pending is 0 when the first request has already failed.
+				if (pending.getAndIncrement() == 0) {return;}
+				hedgeCount.incrementAndGet();
+				send(call, result, pending, true);
+			});
+		});
+		return result.whenComplete((value, ex) -> {
+			if (value != null) {
+				endpoint.breaker.recordSuccess();
+			}
+			else {
+				endpoint.breaker.recordFailure();
+			}
+		});
+	}
+
+	/** Sends one request after it is admitted.
+	 * @return Future that completes when the request is admitted. It does not complete if the admission is failed. */
+	private <T> CompletableFuture<Void> send(Call<T> call, CompletableFuture<T> result, AtomicInteger pending, boolean hedge) {
+		CompletableFuture<Void> admitted = new CompletableFuture<Void>();
+		call.asCaller(call.admission).thenCompose(granted -> {
+			admitted.complete(null);
+			long start = System.nanoTime();
+			return call.asCaller(call.request).thenApply(value -> {
+				if (value != null) {
+					call.endpoint.record(System.nanoTime() - start);
+				}
+				return value;
+			});
+		}).whenComplete((value, ex) -> {
+			if (ex == null && value != null) {
+				if (result.complete(value) && hedge) {
+					hedgeWinCount.incrementAndGet();
+				}
+			}
+			else if (pending.decrementAndGet() == 0) {
+				result.complete(null);
+			}
+		});
+		return admitted;
+	}
+
+	/** Gets circuit breakers of all endpoints that have been requested.
+	 * @return Map of endpoint name to circuit breaker */
+	public Map<String, CircuitBreaker> getCircuitBreakers() {
+		Map<String, CircuitBreaker> ret = new TreeMap<String, CircuitBreaker>();
+		for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+			ret.put(entry.getKey(), entry.getValue().breaker);
+		}
+		return ret;
+	}
+
+	/** Gets delay before a hedged request of an endpoint.
+	 * @param endpoint Endpoint name
+	 * @return Millisecond, or 0 if there are not enough responses yet */
+	public long getHedgeDelay(String endpoint) {
+		Endpoint found = endpoints.get(endpoint);
+		return (found == null) ? 0 : found.hedgeDelay;
+	}
+
+	/** Gets number of hedged requests that were sent.
+	 * @return Number of requests */
+	public long getHedgeCount() {
+		return hedgeCount.get();
+	}
+
+	/** Gets number of hedged requests that responded before the first request.
+	 * @return Number of requests */
+	public long getHedgeWinCount() {
+		return hedgeWinCount.get();
+	}
+
+	/** Gets number of retries.
+	 * @return Number of retries */
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	/** Gets number of calls that returned a stale good value.
+	 * @return Number of calls */
+	public long getFallbackCount() {
+		return fallbackCount.get();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,249 @@
+package exchangebroker;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/** Time of the exchange or the broker, read from the local monotonic clock without a request.
+ * The clock is calibrated by a few server time requests, and it is calibrated again periodically in the background.
+ * Server time has only second resolution, so each sample means that server time was within one second at some moment between sending and receiving (NTP-style, with round trip time).
+ * The offset is the middle of the range that the most samples agree with (Marzullo's algorithm), so a wrong sample, for example a response that was shared with an older request,
+ * is outvoted wherever it comes in the calibration. Drift is measured between calibrations when the ranges are narrow enough. */
+public class ServerClock {
+
+	/** Number of samples of a calibration. */
+	private static final int defaultSamples = 5;
+	/** long: Millisecond. Not a multiple of one second, so samples see different parts of the server second and the range narrows. */
+	private static final long sampleSpacing = 230;
+	/** long: Millisecond */
+	private static final long defaultInterval = 1000 * 60 * 10;   // 10 minutes
+	/** long: Millisecond. Resolution of server time. */
+	private static final long resolution = 1000;
+	/** Largest accepted drift as ratio (500 ppm). */
+	private static final double maxDrift = 500e-6;
+	/** Drift is measured only if the uncertainty over the elapsed time is below it (100 ppm). */
+	private static final double driftPrecision = 100e-6;
+
+	/** Result of a calibration. Immutable, so it is read without locking. */
+	private static class State {
+		/** long: Nanosecond. Local monotonic time of the calibration. */
+		final long baseNano;
+		/** long: Millisecond. Server time at baseNano. */
+		final double baseServer;
+		/** Server time advances (1 + drift) milliseconds per local millisecond. */
+		final double drift;
+		/** Half width of the range of the offset as millisecond. */
+		final double uncertainty;
+
+		State(long baseNano, double baseServer, double drift, double uncertainty) {
+			this.baseNano = baseNano;
+			this.baseServer = baseServer;
+			this.drift = drift;
+			this.uncertainty = uncertainty;
+		}
+
+		double serverAt(long nano) {
+			double elapsed = (nano - baseNano) / 1e6;
+			return baseServer + elapsed * (1 + drift);
+		}
+	}
+
+	/** Returns server time as second, or -1 if the request is failed. */
+	private final Supplier<CompletableFuture<Long>> source;
+	private final int samples;
+	/** long: Millisecond */
+	private final long interval;
+	private volatile State state;
+	/** long: Millisecond. Time is never returned smaller than before, even after a calibration. */
+	private final AtomicLong lastTime = new AtomicLong(Long.MIN_VALUE);
+	private volatile long calibrationCount;
+	private ScheduledExecutorService scheduler;
+
+	/** Constructor.
+	 * @param source Requests server time as second. Server time is -1 if the request is failed. */
+	public ServerClock(Supplier<CompletableFuture<Long>> source) {
+		this(source, defaultSamples, defaultInterval);
+	}
+
+	/** Constructor.
+	 * @param source Requests server time as second. Server time is -1 if the request is failed.
+	 * @param samples Number of samples of a calibration
+	 * @param interval Time between calibrations in the background as millisecond */
+	public ServerClock(Supplier<CompletableFuture<Long>> source, int samples, long interval) {
+		this.source = source;
+		this.samples = Math.max(1, samples);
+		this.interval = Math.max(1000, interval);
+	}
+
+	/** Starts calibration in the background, now and every interval. Calling it again does nothing.
+	 * Until the first calibration ends, the local clock is used. */
+	public synchronized void start() {
+		if (scheduler != null) {return;}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "ServerClock");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::calibrate, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stops calibration in the background. The last calibration is still used. */
+	public synchronized void stop() {
+		if (scheduler == null) {return;}
+		scheduler.shutdownNow();
+		scheduler = null;
+	}
+
+	/** Requests server time a few times, and calibrates the clock. This function blocks for about one second.
+	 * @return True if the clock is calibrated, or false if all requests are failed */
+	public boolean calibrate() {
+		long reference = System.nanoTime();
+		//Range of (server time - local time since reference) of each sample as millisecond.
+		double[] lows = new double[samples];
+		double[] highs = new double[samples];
+		int count = 0;
+		for (int i = 0; i < samples; i++) {
+			if (i > 0) {
+				try {
+					Thread.sleep(sampleSpacing);
+				}
+				catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			long sent = System.nanoTime();
+			Long second;
+			try {
+				second = source.get().join();
+			}
+			catch (RuntimeException re) {
+				continue;
+			}
+			long received = System.nanoTime();
+			if (second == null || second < 0) {continue;}
+			lows[count] = second * resolution - (received - reference) / 1e6;
+			highs[count] = second * resolution + resolution - (sent - reference) / 1e6;
+			count++;
+		}
+		if (count == 0) {return false;}
+
+		double[] range = agreedRange(lows, highs, count);
+		double server = (range[0] + range[1]) / 2;
+		double uncertainty = (range[1] - range[0]) / 2;
+		State previous = state;
+		double drift = (previous == null) ? 0 : previous.drift;
+		if (previous != null) {
+			double elapsed = (reference - previous.baseNano) / 1e6;
+			double error = previous.uncertainty + uncertainty;
+			if (elapsed > 0 && error / elapsed <= driftPrecision) {
+				double predicted = previous.baseServer + elapsed;
+				double measured = (server - predicted) / elapsed;
+				measured = Math.max(-maxDrift, Math.min(maxDrift, measured));
+				drift = (previous.drift == 0) ? measured : (previous.drift + measured) / 2;
+			}
+		}
+		state = new State(reference, server, drift, uncertainty);
+		calibrationCount++;
+		return true;
+	}
+
+	/** Finds the range that the most samples agree with (Marzullo's algorithm).
+	 * Starts and ends of all ranges are sorted, and the number of overlapping ranges is counted from the smallest.
+	 * @param lows Start of the range of each sample
+	 * @param highs End of the range of each sample
+	 * @param count Number of samples
+	 * @return Start and end of the first range that the most samples overlap */
+	private static double[] agreedRange(double[] lows, double[] highs, int count) {
+		double[] edges = new double[count * 2];
+		//Starts are sorted before ends at the same value, so ranges that only touch agree.
+		boolean[] starts = new boolean[count * 2];
+		Integer[] order = new Integer[count * 2];
+		for (int i = 0; i < count; i++) {
+			edges[i * 2] = lows[i];
+			starts[i * 2] = true;
+			edges[i * 2 + 1] = highs[i];
+			order[i * 2] = i * 2;
+			order[i * 2 + 1] = i * 2 + 1;
+		}
+		Arrays.sort(order, (a, b) -> (edges[a] != edges[b]) ? Double.compare(edges[a], edges[b]) : Boolean.compare(starts[b], starts[a]));
+		int overlap = 0;
+		int best = 0;
+		double[] ret = {lows[0], highs[0]};
+		for (int i = 0; i < order.length; i++) {
+			int edge = order[i];
+			if (starts[edge]) {
+				overlap++;
+				if (overlap > best) {
+					best = overlap;
+					ret[0] = edges[edge];
+					//If the next edge is a start, this range is replaced when it is counted.
+					ret[1] = edges[order[i + 1]];
+				}
+			}
+			else {
+				overlap--;
+			}
+		}
+		return ret;
+	}
+
+	/** Gets time of the exchange or the broker. No request is sent.
+	 * @return Millisecond since year 1970. The local clock is used if the clock is not calibrated. */
+	public long currentTimeMillis() {
+		State s = state;
+		long now = (s == null) ? System.currentTimeMillis() : (long)Math.floor(s.serverAt(System.nanoTime()));
+		return lastTime.accumulateAndGet(now, Math::max);
+	}
+
+	/** Gets time of the exchange or the broker. No request is sent.
+	 * @return Seconds since year 1970 */
+	public long currentSecond() {
+		return Math.floorDiv(currentTimeMillis(), 1000);
+	}
+
+	/** Changes a time of the local clock to time of the exchange or the broker, for example time that a response was received.
+	 * @param localMillis Local time as millisecond since year 1970
+	 * @return Server time as millisecond since year 1970 */
+	public long toServerTime(long localMillis) {
+		return localMillis + getOffset();
+	}
+
+	/** Gets server time minus local time.
+	 * @return Offset as millisecond, or 0 if the clock is not calibrated */
+	public long getOffset() {
+		State s = state;
+		if (s == null) {return 0;}
+		return (long)Math.floor(s.serverAt(System.nanoTime())) - System.currentTimeMillis();
+	}
+
+	/** Gets how much the offset may be wrong at the last calibration.
+	 * @return Half width of the range as millisecond, or -1 if the clock is not calibrated */
+	public double getUncertainty() {
+		State s = state;
+		return (s == null) ? -1 : s.uncertainty;
+	}
+
+	/** Gets how fast the server clock runs against the local monotonic clock.
+	 * @return Drift as parts per million. Positive means that the server clock is faster. */
+	public double getDriftPpm() {
+		State s = state;
+		return (s == null) ? 0 : s.drift * 1e6;
+	}
+
+	/** Return whether the clock has been calibrated at least once.
+	 * @return True or false */
+	public boolean isCalibrated() {
+		return state != null;
+	}
+
+	/** Gets number of successful calibrations.
+	 * @return Number of calibrations */
+	public long getCalibrationCount() {
+		return calibrationCount;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+package exchangebroker;
+
+import java.util.Random;
+
+/** Local order book feed without network, for trying strategies and the console offline.
+ * It makes a full snapshot and then incremental diffs around a middle price that moves randomly. The same seed always makes the same books. */
+public class StubDepthFeed {
+
+	private final Random random;
+	private final String symbol;
+	private final double tickSize;
+	private final int levels;
+	/** Middle price as number of ticks. */
+	private long middle;
+	/** long: Millisecond */
+	private long time;
+
+	/** Constructor.
+	 * @param seed Seed of random numbers
+	 * @param symbol Symbol (bridge format)
+	 * @param middlePrice Middle price at the beginning
+	 * @param tickSize Difference between price levels
+	 * @param levels Number of levels of each side */
+	public StubDepthFeed(long seed, String symbol, double middlePrice, double tickSize, int levels) {
+		if (tickSize <= 0 || levels <= 0) {throw new IllegalArgumentException("Tick size and levels must be positive.");}
+		random = new Random(seed);
+		this.symbol = symbol;
+		this.tickSize = tickSize;
+		this.levels = levels;
+		middle = Math.round(middlePrice / tickSize);
+		time = System.currentTimeMillis();
+	}
+
+	/** Writes a full snapshot into a book.
+	 * @param book Book that is not frozen */
+	public void snapshot(OrderBook book) {
+		book.clear();
+		for (int i = 1; i <= levels; i++) {
+			book.setBid(price(middle - i), amount());
+			book.setAsk(price(middle + i), amount());
+		}
+		book.setHeader(symbol, time);
+	}
+
+	/** Applies the next incremental diff to a book: the middle price may move by one tick, crossed levels are removed, and a few levels change.
+	 * @param book Book that has a snapshot of this feed
+	 * @return Number of levels that are changed */
+	public int next(OrderBook book) {
+		int changes = 0;
+		time += 1000;
+		middle += random.nextInt(3) - 1;
+		double middlePrice = price(middle);
+		while (book.bidLevels() > 0 && book.bestBid() >= middlePrice) {
+			book.setBid(book.bestBid(), 0);
+			changes++;
+		}
+		while (book.askLevels() > 0 && book.bestAsk() <= middlePrice) {
+			book.setAsk(book.bestAsk(), 0);
+			changes++;
+		}
+		int count = 1 + random.nextInt(4);
+		for (int i = 0; i < count; i++) {
+			long offset = 1 + random.nextInt(levels);
+			//One change in five removes a level.
+			double amount = (random.nextInt(5) == 0) ? 0 : amount();
+			if (random.nextBoolean()) {
+				book.setBid(price(middle - offset), amount);
+			}
+			else {
+				book.setAsk(price(middle + offset), amount);
+			}
+			changes++;
+		}
+		book.setHeader(symbol, time);
+		return changes;
+	}
+
+	private double price(long ticks) {
+		return ticks * tickSize;
+	}
+
+	private double amount() {
+		return Math.round((0.01 + random.nextDouble() * 2) * 1e4) / 1e4;
+	}
+}
\ No newline at end of file
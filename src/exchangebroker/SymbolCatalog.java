@@ -0,0 +1,200 @@
+package exchangebroker;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Catalog of all symbols in an exchange or a broker.
+ * Symbols are kept in a hash map, so checking a symbol does not request the exchange or the broker.
+ * Every symbol is interned in the symbol table, so both formats are made once when the catalog is loaded.
+ * A symbol that the table cannot intern, because it does not have exactly two currencies, is still kept in the catalog without an entry, and it is counted.
+ * When time to live has expired, the catalog is refreshed in background and the old symbols are used until the refresh ends. */
+public class SymbolCatalog {
+
+	/** Loads all symbols from an exchange or a broker. */
+	public interface Loader {
+
+		/** Loads all symbols.
+		 * @return Map of symbol (bridge format) to symbol (exchange or broker format), or null if the request is failed */
+		public Map<String, String> load();
+	}
+
+	/** One thread is shared by all catalogs. Refreshing is rare, and it must not block the application when it exits. */
+	private static final ExecutorService refresher = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SymbolCatalog-refresher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String exchange;
+	private final Loader loader;
+	private final long timeToLive;
+
+	/** Symbol (bridge format) to entry. Null until the first load succeeds. */
+	private volatile Map<String, SymbolTable.Entry> symbols;
+	/** Symbol (exchange or broker format) to entry. */
+	private volatile Map<String, SymbolTable.Entry> exchangeSymbols = Collections.emptyMap();
+	/** Symbol (bridge format) to symbol (exchange or broker format) of symbols without an entry. */
+	private volatile Map<String, String> plainSymbols = Collections.emptyMap();
+	/** Symbol (exchange or broker format) to symbol (bridge format) of symbols without an entry. */
+	private volatile Map<String, String> plainExchangeSymbols = Collections.emptyMap();
+	private volatile String[] sortedSymbols = new String[0];
+	/** long: Millisecond */
+	private volatile long lastRefresh;
+
+	private final AtomicBoolean refreshing = new AtomicBoolean(false);
+	private final AtomicLong refreshCount = new AtomicLong();
+	private final AtomicLong failedRefreshCount = new AtomicLong();
+	private volatile int plainCount;
+
+	/** Constructor.
+	 * @param exchange Exchange or broker name
+	 * @param loader Loader of all symbols
+	 * @param timeToLive Time to live of the catalog as millisecond */
+	public SymbolCatalog(String exchange, Loader loader, long timeToLive) {
+		this.exchange = exchange;
+		this.loader = loader;
+		this.timeToLive = timeToLive;
+	}
+
+	/** Loads symbols now, and replaces the catalog if the request is successful.
+	 * @return If the catalog is refreshed, returns true; if not, returns false. */
+	public boolean refresh() {
+		Map<String, String> loaded = loader.load();
+		if (loaded == null) {
+			failedRefreshCount.incrementAndGet();
+			return false;
+		}
+		Map<String, SymbolTable.Entry> entries = new HashMap<String, SymbolTable.Entry>();
+		Map<String, SymbolTable.Entry> reverse = new HashMap<String, SymbolTable.Entry>();
+		Map<String, String> plain = new HashMap<String, String>();
+		Map<String, String> plainReverse = new HashMap<String, String>();
+		for (Map.Entry<String, String> loadedSymbol : loaded.entrySet()) {
+			SymbolTable.Entry entry = SymbolTable.intern(exchange, loadedSymbol.getKey(), loadedSymbol.getValue());
+			if (entry == null) {
+				plain.put(loadedSymbol.getKey(), loadedSymbol.getValue());
+				plainReverse.put(loadedSymbol.getValue(), loadedSymbol.getKey());
+				continue;
+			}
+			entries.put(entry.getSymbol(), entry);
+			reverse.put(loadedSymbol.getValue(), entry);
+		}
+		String[] sorted = new String[entries.size() + plain.size()];
+		int index = 0;
+		for (String symbol : entries.keySet()) {sorted[index++] = symbol;}
+		for (String symbol : plain.keySet()) {sorted[index++] = symbol;}
+		Arrays.sort(sorted);
+		exchangeSymbols = Collections.unmodifiableMap(reverse);
+		plainSymbols = Collections.unmodifiableMap(plain);
+		plainExchangeSymbols = Collections.unmodifiableMap(plainReverse);
+		plainCount = plain.size();
+		symbols = Collections.unmodifiableMap(entries);
+		sortedSymbols = sorted;
+		lastRefresh = System.currentTimeMillis();
+		refreshCount.incrementAndGet();
+		return true;
+	}
+
+	/** Makes sure that the catalog is usable.
+	 * The first load blocks the caller. After that, an expired catalog is refreshed in background. */
+	private void check() {
+		if (symbols == null) {
+			synchronized (this) {
+				if (symbols == null) {
+					refresh();
+				}
+			}
+			return;
+		}
+		if (System.currentTimeMillis() - lastRefresh >= timeToLive && refreshing.compareAndSet(false, true)) {
+			refresher.execute(() -> {
+				try {
+					refresh();
+				}
+				finally {
+					refreshing.set(false);
+				}
+			});
+		}
+	}
+
+	/** Return whether the symbol is in the catalog.
+	 * @param symbol Symbol (bridge format)
+	 * @return True or false */
+	public boolean contains(String symbol) {
+		return getEntry(symbol) != null || (symbol != null && plainSymbols.containsKey(symbol));
+	}
+
+	/** Gets entry of a symbol in the symbol table.
+	 * @param symbol Symbol (bridge format)
+	 * @return Entry, or null if the symbol is not in the catalog or it does not have an entry */
+	public SymbolTable.Entry getEntry(String symbol) {
+		check();
+		Map<String, SymbolTable.Entry> current = symbols;
+		if (current == null || symbol == null) {return null;}
+		return current.get(symbol);
+	}
+
+	/** Gets entry of a symbol in the symbol table by the format of the exchange or the broker.
+	 * @param exchangeSymbol Symbol (exchange or broker format)
+	 * @return Entry, or null if the symbol is not in the catalog or it does not have an entry */
+	public SymbolTable.Entry getExchangeEntry(String exchangeSymbol) {
+		check();
+		if (exchangeSymbol == null) {return null;}
+		return exchangeSymbols.get(exchangeSymbol);
+	}
+
+	/** Gets symbol in the exchange or the broker format.
+	 * @param symbol Symbol (bridge format)
+	 * @return Symbol in the exchange or the broker format, or null if the symbol is not in the catalog */
+	public String toExchangeSymbol(String symbol) {
+		SymbolTable.Entry entry = getEntry(symbol);
+		if (entry != null) {return entry.getExchangeSymbol();}
+		return (symbol == null) ? null : plainSymbols.get(symbol);
+	}
+
+	/** Gets symbol in the bridge format.
+	 * @param exchangeSymbol Symbol (exchange or broker format)
+	 * @return Symbol in the bridge format, or null if the symbol is not in the catalog */
+	public String fromExchangeSymbol(String exchangeSymbol) {
+		SymbolTable.Entry entry = getExchangeEntry(exchangeSymbol);
+		if (entry != null) {return entry.getSymbol();}
+		return (exchangeSymbol == null) ? null : plainExchangeSymbols.get(exchangeSymbol);
+	}
+
+	/** Gets all symbols in ascending order.
+	 * @return All symbols (bridge format) */
+	public String[] getSymbols() {
+		check();
+		return sortedSymbols.clone();
+	}
+
+	/** Gets number of symbols of the last refresh that are kept without an entry, because they do not have exactly two currencies.
+	 * @return Number of symbols */
+	public int getPlainSymbolCount() {
+		return plainCount;
+	}
+
+	/** Gets number of successful refreshes since the catalog is created.
+	 * @return Number of refreshes */
+	public long getRefreshCount() {
+		return refreshCount.get();
+	}
+
+	/** Gets number of failed refreshes since the catalog is created.
+	 * @return Number of failed refreshes */
+	public long getFailedRefreshCount() {
+		return failedRefreshCount.get();
+	}
+
+	/** Gets date and time of the last successful refresh.
+	 * @return Date and time as milliseconds since year 1970, or 0 if the catalog has never been loaded */
+	public long getLastRefresh() {
+		return lastRefresh;
+	}
+}
\ No newline at end of file
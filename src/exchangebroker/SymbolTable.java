@@ -0,0 +1,169 @@
+package exchangebroker;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Table of all symbols of all exchanges and brokers. Each (exchange, base currency, quote currency) is interned once and gets a dense ID from 0.
+ * Both orientations of a symbol are made when it is interned, so a symbol is never split or joined again.
+ * Caches, indicators, and wallets can keep values in an array by symbol ID instead of a map by symbol string.
+ * Getting an entry by ID reads one array without locking, so concurrent watchers never wait. */
+public final class SymbolTable {
+
+	/** One interned symbol. Immutable, so it can be shared by threads. */
+	public static final class Entry {
+		private final int id;
+		private final String exchange;
+		private final String base;
+		private final String quote;
+		/** Symbol in bridge format, for example "BTC_THB". */
+		private final String symbol;
+		/** Symbol in the exchange or the broker format, for example "THB_BTC" on Bitkub. */
+		private final String exchangeSymbol;
+		/** Symbol with the currencies swapped, for example "THB_BTC". */
+		private final String reversedSymbol;
+
+		private Entry(int id, String exchange, String base, String quote, String exchangeSymbol) {
+			this.id = id;
+			this.exchange = exchange;
+			this.base = base;
+			this.quote = quote;
+			symbol = base + "_" + quote;
+			reversedSymbol = quote + "_" + base;
+			this.exchangeSymbol = (exchangeSymbol == null) ? symbol : exchangeSymbol;
+		}
+
+		/** Gets symbol ID. IDs start from 0 and have no gap, so they can be used as array index.
+		 * @return Symbol ID */
+		public int getId() {
+			return id;
+		}
+
+		/** Gets exchange or broker name.
+		 * @return Exchange or broker name */
+		public String getExchange() {
+			return exchange;
+		}
+
+		/** Gets base currency (the first currency in bridge format).
+		 * @return Base currency */
+		public String getBase() {
+			return base;
+		}
+
+		/** Gets quote currency (the second currency in bridge format).
+		 * @return Quote currency */
+		public String getQuote() {
+			return quote;
+		}
+
+		/** Gets symbol.
+		 * @return Symbol (bridge format) */
+		public String getSymbol() {
+			return symbol;
+		}
+
+		/** Gets symbol in the format of the exchange or the broker.
+		 * @return Symbol (exchange or broker format) */
+		public String getExchangeSymbol() {
+			return exchangeSymbol;
+		}
+
+		/** Gets symbol with the first currency and the second currency swapped.
+		 * @return Reversed symbol */
+		public String getReversedSymbol() {
+			return reversedSymbol;
+		}
+
+		@Override
+		public String toString() {
+			return exchange + ":" + symbol;
+		}
+	}
+
+	/** Symbols of one exchange or broker. */
+	private static class Names {
+		/** Symbol (bridge format) to entry. */
+		final ConcurrentHashMap<String, Entry> symbols = new ConcurrentHashMap<String, Entry>();
+		/** Symbol (exchange or broker format) to entry. */
+		final ConcurrentHashMap<String, Entry> exchangeSymbols = new ConcurrentHashMap<String, Entry>();
+	}
+
+	/** Lower case exchange or broker name to its symbols. */
+	private static final ConcurrentHashMap<String, Names> exchanges = new ConcurrentHashMap<String, Names>();
+	/** Entry by ID. A new array is published for every new entry, so readers never see a half written array. */
+	private static volatile Entry[] entries = new Entry[0];
+
+	private SymbolTable() {
+	}
+
+	/** Interns a symbol. If the symbol is already in the table, the same entry is returned.
+	 * @param exchange Exchange or broker name
+	 * @param base Base currency
+	 * @param quote Quote currency
+	 * @param exchangeSymbol Symbol in the exchange or the broker format, or null if it is the bridge format. It is used only when the symbol is new.
+	 * @return Shared entry */
+	public static Entry intern(String exchange, String base, String quote, String exchangeSymbol) {
+		Names names = exchanges.computeIfAbsent(exchange.toLowerCase(), key -> new Names());
+		Entry found = names.symbols.get(base + "_" + quote);
+		if (found != null) {return found;}
+		synchronized (SymbolTable.class) {
+			found = names.symbols.get(base + "_" + quote);
+			if (found != null) {return found;}
+			Entry[] current = entries;
+			Entry entry = new Entry(current.length, exchange, base, quote, exchangeSymbol);
+			Entry[] grown = Arrays.copyOf(current, current.length + 1);
+			grown[entry.id] = entry;
+			entries = grown;
+			names.exchangeSymbols.putIfAbsent(entry.exchangeSymbol, entry);
+			names.symbols.put(entry.symbol, entry);
+			return entry;
+		}
+	}
+
+	/** Interns a symbol. If the symbol is already in the table, the same entry is returned.
+	 * @param exchange Exchange or broker name
+	 * @param symbol Symbol (bridge format), for example "BTC_THB"
+	 * @param exchangeSymbol Symbol in the exchange or the broker format, or null if it is the bridge format. It is used only when the symbol is new.
+	 * @return Shared entry, or null if the symbol does not have two currencies */
+	public static Entry intern(String exchange, String symbol, String exchangeSymbol) {
+		Entry found = find(exchange, symbol);
+		if (found != null) {return found;}
+		int separator = symbol.indexOf('_');
+		if (separator <= 0 || separator == symbol.length() - 1 || symbol.indexOf('_', separator + 1) >= 0) {return null;}
+		return intern(exchange, symbol.substring(0, separator), symbol.substring(separator + 1), exchangeSymbol);
+	}
+
+	/** Gets an entry by ID. No lock is taken.
+	 * @param id Symbol ID
+	 * @return Entry, or null if the ID is not in the table */
+	public static Entry get(int id) {
+		Entry[] current = entries;
+		return (id >= 0 && id < current.length) ? current[id] : null;
+	}
+
+	/** Finds an interned symbol.
+	 * @param exchange Exchange or broker name (case insensitive)
+	 * @param symbol Symbol (bridge format)
+	 * @return Entry, or null if the symbol has not been interned */
+	public static Entry find(String exchange, String symbol) {
+		if (exchange == null || symbol == null) {return null;}
+		Names names = exchanges.get(exchange.toLowerCase());
+		return (names == null) ? null : names.symbols.get(symbol);
+	}
+
+	/** Finds an interned symbol by the format of the exchange or the broker.
+	 * @param exchange Exchange or broker name (case insensitive)
+	 * @param exchangeSymbol Symbol (exchange or broker format)
+	 * @return Entry, or null if the symbol has not been interned */
+	public static Entry findExchangeSymbol(String exchange, String exchangeSymbol) {
+		if (exchange == null || exchangeSymbol == null) {return null;}
+		Names names = exchanges.get(exchange.toLowerCase());
+		return (names == null) ? null : names.exchangeSymbols.get(exchangeSymbol);
+	}
+
+	/** Gets number of interned symbols. Arrays of this size can be indexed by every symbol ID that exists now.
+	 * @return Number of symbols */
+	public static int size() {
+		return entries.length;
+	}
+}
\ No newline at end of file
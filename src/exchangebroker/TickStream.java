@@ -0,0 +1,43 @@
+package exchangebroker;
+
+/** Trades and tickers that are pushed by an exchange or a broker, instead of polling ticker.
+ * Many symbols share one connection. If the connection is lost, it is connected again, and subscribers are told about the time that may have lost messages. */
+public interface TickStream {
+
+	/** Receives pushed messages. Functions are called by the thread of the connection, so they must return quickly, for example by putting the message in a queue. */
+	public interface Subscriber {
+
+		/** Called for every trade.
+		 * @param symbol Symbol (bridge format)
+		 * @param time Time of the trade as millisecond since year 1970
+		 * @param price Price
+		 * @param amount Amount of base currency
+		 * @param receiveNanos System.nanoTime() when the message was received, to measure latency */
+		public void trade(String symbol, long time, double price, double amount, long receiveNanos);
+
+		/** Called for every ticker.
+		 * @param ticker Ticker. It is reused by the next message, so copy it to keep it.
+		 * @param receiveNanos System.nanoTime() when the message was received, to measure latency */
+		public void ticker(TickerSnapshot ticker, long receiveNanos);
+
+		/** Called after the connection is connected again. Messages between the times may be lost, so request history to fill them.
+		 * @param symbol Symbol (bridge format)
+		 * @param from Time of the last message before the connection was lost as millisecond since year 1970
+		 * @param to Time that the connection was connected again as millisecond since year 1970 */
+		public void gap(String symbol, long from, long to);
+	}
+
+	/** Subscribes to trades and tickers of a symbol. The connection is opened or changed in the background.
+	 * @param symbol Symbol (bridge format)
+	 * @param subscriber Subscriber */
+	public void subscribe(String symbol, Subscriber subscriber);
+
+	/** Removes a subscriber. The symbol is removed from the connection when it has no subscriber.
+	 * @param symbol Symbol (bridge format)
+	 * @param subscriber Subscriber */
+	public void unsubscribe(String symbol, Subscriber subscriber);
+
+	/** Return whether the connection is open.
+	 * @return True or false */
+	public boolean isConnected();
+}
\ No newline at end of file
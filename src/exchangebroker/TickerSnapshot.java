@@ -0,0 +1,143 @@
+package exchangebroker;
+
+import org.json.simple.JSONObject;
+
+/** The last ticker of currency as primitive values.
+ * A snapshot can be reused: copy another snapshot into it every time, so a loop that reads the ticker every second creates no object.
+ * Snapshots that are shared by a bridge are frozen, and they cannot be changed. */
+public class TickerSnapshot {
+
+	private String symbol;
+	/** Symbol ID of the symbol table, or -1 if it is unknown. */
+	private int symbolId = -1;
+	/** long: Millisecond. Time of the exchange or the broker, or -1 if the response has no time. */
+	private long exchangeTime = -1;
+	/** long: Millisecond. Time that the response was received. */
+	private long receiveTime;
+	private double last;
+	private double highestBid;
+	private double lowestAsk;
+	/** Volume of base currency in 24 hours. */
+	private double volume;
+	/** True if the request was failed and this is the last good ticker. */
+	private boolean stale;
+	private boolean frozen;
+
+	/** Sets all values.
+	 * @param symbol Symbol (bridge format)
+	 * @param symbolId Symbol ID of the symbol table, or -1 if it is unknown
+	 * @param exchangeTime Time of the exchange or the broker as millisecond, or -1 if it is unknown
+	 * @param receiveTime Time that the response was received as millisecond
+	 * @param last Last price
+	 * @param highestBid Highest bid price
+	 * @param lowestAsk Lowest ask price
+	 * @param volume Volume of base currency in 24 hours */
+	public void set(String symbol, int symbolId, long exchangeTime, long receiveTime, double last, double highestBid, double lowestAsk, double volume) {
+		if (frozen) {throw new UnsupportedOperationException("Snapshot is frozen.");}
+		this.symbol = symbol;
+		this.symbolId = symbolId;
+		this.exchangeTime = exchangeTime;
+		this.receiveTime = receiveTime;
+		this.last = last;
+		this.highestBid = highestBid;
+		this.lowestAsk = lowestAsk;
+		this.volume = volume;
+		stale = false;
+	}
+
+	/** Copies values of another snapshot. No object is created.
+	 * @param other Snapshot to be copied */
+	public void copyFrom(TickerSnapshot other) {
+		set(other.symbol, other.symbolId, other.exchangeTime, other.receiveTime, other.last, other.highestBid, other.lowestAsk, other.volume);
+		stale = other.stale;
+	}
+
+	/** Marks the snapshot as the last good ticker of a failed request, or as a new ticker.
+	 * @param stale True if the ticker is not new */
+	public void setStale(boolean stale) {
+		if (frozen) {throw new UnsupportedOperationException("Snapshot is frozen.");}
+		this.stale = stale;
+	}
+
+	/** Return whether the ticker is the last good ticker of a failed request. Its age is known from the receive time.
+	 * @return True or false */
+	public boolean isStale() {
+		return stale;
+	}
+
+	/** Prevents changes, so the snapshot can be shared by threads. */
+	public void freeze() {
+		frozen = true;
+	}
+
+	/** Return whether the snapshot cannot be changed.
+	 * @return True or false */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/** Gets symbol.
+	 * @return Symbol (bridge format), or null if no value is set */
+	public String getSymbol() {
+		return symbol;
+	}
+
+	/** Gets symbol ID of the symbol table. It can be used as array index instead of the symbol.
+	 * @return Symbol ID, or -1 if it is unknown */
+	public int getSymbolId() {
+		return symbolId;
+	}
+
+	/** Gets time of the exchange or the broker.
+	 * @return Millisecond since year 1970, or -1 if the response has no time */
+	public long getExchangeTime() {
+		return exchangeTime;
+	}
+
+	/** Gets time that the response was received.
+	 * @return Millisecond since year 1970 */
+	public long getReceiveTime() {
+		return receiveTime;
+	}
+
+	/** Gets time of the ticker. Time of the exchange or the broker is used if it exists.
+	 * @return Millisecond since year 1970 */
+	public long getTime() {
+		return (exchangeTime >= 0) ? exchangeTime : receiveTime;
+	}
+
+	/** Gets last price.
+	 * @return Last price */
+	public double getLast() {
+		return last;
+	}
+
+	/** Gets highest bid price.
+	 * @return Highest bid price */
+	public double getHighestBid() {
+		return highestBid;
+	}
+
+	/** Gets lowest ask price.
+	 * @return Lowest ask price */
+	public double getLowestAsk() {
+		return lowestAsk;
+	}
+
+	/** Gets volume of base currency in 24 hours.
+	 * @return Volume */
+	public double getVolume() {
+		return volume;
+	}
+
+	/** Changes the snapshot to a ticker map in bridge format for the console. Keys are "last", "highestBid", and "lowestAsk".
+	 * @return Ticker map */
+	@SuppressWarnings("unchecked")
+	public JSONObject toJson() {
+		JSONObject obj = new JSONObject();
+		obj.put("last", last);
+		obj.put("highestBid", highestBid);
+		obj.put("lowestAsk", lowestAsk);
+		return obj;
+	}
+}
\ No newline at end of file
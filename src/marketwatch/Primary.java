@@ -1,13 +1,21 @@
 package marketwatch;
 
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Paths;
 import java.util.Date;
+import java.util.Map;
 import java.util.Scanner;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import exchangebroker.*;
+import exchangebroker.Bitkub.Simulator;
+import exchangebroker.Bitkub.StreamSimulator;
 import marketwatch.activewatcher.ActiveWatcher;
+import marketwatch.candlestore.CandleFile;
+import marketwatch.candlestore.CandleStore;
 import marketwatch.exception.*;
 import marketwatch.tools.*;
 
@@ -23,6 +31,18 @@ public class Primary {
 	private static String exchangeBrokerName;
 	private static JSONObject historyRecord;
 	private static JSONObject tickerRecord;
+	/** Reused by every depth command. */
+	private static OrderBook depthRecord = new OrderBook();
+	/** Local order book feed, created by the first "depth stub" command. */
+	private static StubDepthFeed stubDepthFeed;
+	/** Local stand-in of Bitkub, started by "simulator" command. */
+	private static Simulator simulator;
+	/** Base URL of Bitkub before the simulator is started. */
+	private static String bitkubBaseUrl;
+	/** Local stand-in of Bitkub streams, started with the simulator. */
+	private static StreamSimulator streamSimulator;
+	/** Base URL of Bitkub streams before the simulator is started. */
+	private static String bitkubStreamUrl;
 	
 	/** Resets before main loop. */
 	private static void primary_reset() {
@@ -46,9 +66,9 @@ public class Primary {
 			pc.println("Error_P002: Argument is incorrect.");
 			return;
 		}
-		exchangeBrokerName = input[1];
 		try {
-			bridge.setExchangeBrokerName(exchangeBrokerName);
+			bridge = Bridge.get(input[1]);
+			exchangeBrokerName = input[1];
 		}
 		catch (ExchangeBrokerNameException ebne) {
 			pc.println("Error_P010: Invalid exchange or broker name.");
@@ -80,7 +100,7 @@ public class Primary {
 					exchangeBrokerName = favorite.getFavorite_exchangeBrokerName();
 				}
 				else {
-					if (bridge.isExchangeBrokerName(input[2])) {
+					if (Bridge.isExchangeBrokerName(input[2])) {
 						exchangeBrokerName = input[2];
 					}
 					else {
@@ -89,12 +109,21 @@ public class Primary {
 					}
 					
 				}
+				//Symbol and time frame are checked in the selected exchange or broker of this Active Watcher.
+				Bridge target;
+				try {
+					target = Bridge.get(exchangeBrokerName);
+				}
+				catch (ExchangeBrokerNameException ebne) {
+					pc.println("Error_P110: Exchange or broker name is incorrect.");
+					return;
+				}
 				// Symbol
 				if (input[3].equals("fav")) {
 					symbol = favorite.getFavorite_symbol();
 				}
 				else {
-					if (bridge.isSymbol(input[3])) {
+					if (target.isSymbol(input[3])) {
 						symbol = input[3];
 					}
 					else {
@@ -108,7 +137,7 @@ public class Primary {
 					timeframe = favorite.getFavorite_timeframe();
 				}
 				else {
-					if (bridge.isTimeframe(input[4])) {
+					if (target.isTimeframe(input[4])) {
 						timeframe = input[4];
 					}
 					else {
@@ -186,6 +215,13 @@ public class Primary {
 				case "timeframe":
 					pc.println("Active Watcher| Time frame: " + activeWatcher[selectedIndex].getTimeframe());
 					break;
+				case "delay":
+					RequestScheduler.Requester requester = activeWatcher[selectedIndex].getRequester();
+					pc.println("Active Watcher| Requests: " + requester.getRequestCount() + ", Average queueing delay: " + requester.getAverageDelay() + " ms, Maximum queueing delay: " + requester.getMaxDelay() + " ms");
+					break;
+				case "latency":
+					pc.println("Active Watcher| Tick to strategy latency: " + activeWatcher[selectedIndex].getTickLatency());
+					break;
 				default:
 					pc.println("Error_P102: Active Watcher argument is incorrect.");
 					return;
@@ -205,33 +241,23 @@ public class Primary {
 		String symbol = null;
 		String timeframe = null;
 		for (int i = 1; i < input.length; i++) {
-			switch (input[i].toLowerCase()) {
-			case "1m":
-			case "5m":
-			case "15m":
-			case "30m":
-			case "60m":
-			case "1h":
-			case "4h":
-			case "1d":
+			if (Timeframe.parse(input[i]) != null) {
 				if (timeframe != null) {
 					pc.println("Error_P021: Two or more timeframes are in a function.");
 					return;
 				}
 				timeframe = input[i];
-				break;
-			default:
-				if (bridge.isSymbol(input[i])) {
-					if (symbol != null) {
-						pc.println("Error_P020: Two or more symbol are in a function.");
-						return;
-					}
-					symbol = input[i].toUpperCase();
-				}
-				else {
-					pc.println("Error_P002: Argument is incorrect.");
+			}
+			else if (bridge.isSymbol(input[i])) {
+				if (symbol != null) {
+					pc.println("Error_P020: Two or more symbol are in a function.");
 					return;
 				}
+				symbol = input[i].toUpperCase();
+			}
+			else {
+				pc.println("Error_P002: Argument is incorrect.");
+				return;
 			}
 		}
 		Favorite favorite = new Favorite();
@@ -239,7 +265,8 @@ public class Primary {
 		if (timeframe == null) {timeframe = favorite.getFavorite_timeframe();}
 		
 		try {
-			historyRecord = bridge.history(symbol, timeframe);
+			CandleSeries series = bridge.history(symbol, timeframe);
+			historyRecord = (series == null) ? null : series.toJson();
 		}
 		catch (SymbolException se) {
 			pc.println("Error_P011: \"" + symbol + "\" symbol is not exist in \"" + exchangeBrokerName + "\" exchange or broker.");
@@ -283,6 +310,95 @@ public class Primary {
 		pc.println("Update ticker");
 	}
 	
+	/** Saves order book to depthRecord, and shows the best levels.
+	 * "depth stub" uses the local feed: the first command makes a snapshot, and the next commands apply diffs.
+	 * @param input Array of input string from user */
+	private static void depth(String[] input) {
+		String symbol = null;
+		int levels = 5;
+		if (input.length > 3) {
+			pc.println("Error_P002: Argument is incorrect.");
+			return;
+		}
+		if (input.length == 3) {
+			try {
+				levels = Integer.parseInt(input[2]);
+			}
+			catch (NumberFormatException nfe) {
+				pc.println("Error_P002: Argument is incorrect.");
+				return;
+			}
+		}
+		if (input.length == 1) {
+			Favorite favorite = new Favorite();
+			symbol = favorite.getFavorite_symbol();
+		}
+		else {
+			symbol = input[1];
+		}
+		
+		if (symbol.toLowerCase().equals("stub")) {
+			if (stubDepthFeed == null) {
+				stubDepthFeed = new StubDepthFeed(1, "STUB", 1000, 0.5, 20);
+				stubDepthFeed.snapshot(depthRecord);
+			}
+			else {
+				stubDepthFeed.next(depthRecord);
+			}
+		}
+		else {
+			try {
+				if (!bridge.depth(symbol, levels, depthRecord)) {
+					pc.println("Error_P013: Order book cannot be requested.");
+					return;
+				}
+			}
+			catch (SymbolException se) {
+				pc.println("Error_P011: \"" + symbol + "\" symbol is not exist in \"" + exchangeBrokerName + "\" exchange or broker.");
+				return;
+			}
+		}
+		pc.println("Symbol: " + depthRecord.getSymbol() + ", Spread: " + depthRecord.spread());
+		for (int i = 0; i < levels; i++) {
+			String bid = (i < depthRecord.bidLevels()) ? depthRecord.bidAmount(i) + " @ " + depthRecord.bidPrice(i) : "-";
+			String ask = (i < depthRecord.askLevels()) ? depthRecord.askAmount(i) + " @ " + depthRecord.askPrice(i) : "-";
+			pc.println("Bid " + bid + " | Ask " + ask);
+		}
+		pc.println("Depth of " + levels + " levels: Bid " + depthRecord.bidDepth(levels) + ", Ask " + depthRecord.askDepth(levels));
+	}
+	
+	/** Shows latency of each phase and failures by cause of every endpoint. "stats reset" removes them.
+	 * @param input Array of input string from user */
+	private static void stats(String[] input) {
+		if (input.length == 2 && input[1].toLowerCase().equals("reset")) {
+			GetPost.resetEndpointStats();
+			pc.println("Statistics are reset.");
+			return;
+		}
+		if (input.length != 1) {
+			pc.println("Error_P002: Argument is incorrect.");
+			return;
+		}
+		pc.println("Requests: " + GetPost.getRequestCount() + ", HTTP/2 responses: " + GetPost.getResponseCount(HttpClient.Version.HTTP_2) + ", HTTP/1.1 responses: " + GetPost.getResponseCount(HttpClient.Version.HTTP_1_1)
+				+ ", Timeouts: " + GetPost.getTimeoutCount() + ", Errors: " + GetPost.getErrorCount());
+		for (Map.Entry<String, GetPost.EndpointStats> entry : GetPost.getEndpointStats().entrySet()) {
+			GetPost.EndpointStats stats = entry.getValue();
+			pc.println(entry.getKey());
+			pc.println("  First byte: " + stats.getTimeToFirstByte());
+			pc.println("  Download:   " + stats.getDownload());
+			pc.println("  Parse:      " + stats.getParse());
+			pc.println("  Total:      " + stats.getTotal());
+			String failures = "";
+			for (GetPost.FailureCause cause : GetPost.FailureCause.values()) {
+				long count = stats.getFailureCount(cause);
+				if (count > 0) {
+					failures += " " + cause + "=" + count;
+				}
+			}
+			pc.println("  Failures:  " + (failures.isEmpty() ? " none" : failures));
+		}
+	}
+	
 	/** Shows output text.
 	 * @param input Array of input string from user */
 	private static void print(String[] input) {
@@ -354,11 +470,15 @@ public class Primary {
 		}
 	}
 	
-	/** Gets server time.
+	/** Gets server time from the server clock. The clock is calibrated first if it has not been calibrated.
 	 * @param input Array of input string from user */
 	private static void serverTime(String[] input) {
 		DateTime dateTime = new DateTime();
-		long second = bridge.serverTime();
+		ServerClock clock = bridge.getServerClock();
+		if (!clock.isCalibrated()) {
+			clock.calibrate();
+		}
+		long second = clock.currentSecond();
 		Date date = dateTime.secondToDate(second);
 		String str;
 		if (input.length == 1) {
@@ -389,6 +509,10 @@ public class Primary {
 			case "second":
 				pc.println(second);
 				break;
+			case "clock":
+				pc.println("Offset: " + clock.getOffset() + " ms (+/- " + Math.round(clock.getUncertainty()) + " ms), Drift: "
+						+ Math.round(clock.getDriftPpm()) + " ppm, Calibrations: " + clock.getCalibrationCount());
+				break;
 			default:
 				pc.println("Error_P002: Argument is incorrect.");
 				return;
@@ -400,6 +524,155 @@ public class Primary {
 		}
 	}
 	
+	/** Sets directory of candle store. Closed candles are saved there, and history in it is read without requests.
+	 * @param input Array of input string from user */
+	private static void store(String[] input) {
+		if (input.length != 2) {
+			pc.println("Error_P002: Argument is incorrect.");
+			return;
+		}
+		CandleStore previous = Bridge.getCandleStore();
+		if (previous != null) {
+			try {
+				previous.close();
+			}
+			catch (IOException ioe) {
+				pc.println("Error_P040: Candle store cannot be closed.");
+			}
+		}
+		if (input[1].toLowerCase().equals("off")) {
+			Bridge.setCandleStore(null);
+			pc.println("Candle store: off");
+		}
+		else {
+			Bridge.setCandleStore(new CandleStore(Paths.get(input[1])));
+			pc.println("Candle store: " + input[1]);
+		}
+	}
+	
+	/** Writes the stored candles of a symbol and a time frame to a compressed archive, reads the archive again,
+	 * and shows its size if every candle is the same as in the candle file.
+	 * @param input Array of input string from user */
+	private static void archive(String[] input) {
+		CandleStore store = Bridge.getCandleStore();
+		if (store == null) {
+			pc.println("Error_P041: Candle store is off.");
+			return;
+		}
+		String symbol = null;
+		Timeframe timeframe = null;
+		for (int i = 1; i < input.length; i++) {
+			if (Timeframe.parse(input[i]) != null) {
+				if (timeframe != null) {
+					pc.println("Error_P021: Two or more timeframes are in a function.");
+					return;
+				}
+				timeframe = Timeframe.parse(input[i]);
+			}
+			else if (bridge.isSymbol(input[i])) {
+				if (symbol != null) {
+					pc.println("Error_P020: Two or more symbol are in a function.");
+					return;
+				}
+				symbol = input[i].toUpperCase();
+			}
+			else {
+				pc.println("Error_P002: Argument is incorrect.");
+				return;
+			}
+		}
+		Favorite favorite = new Favorite();
+		if (symbol == null) {symbol = favorite.getFavorite_symbol();}
+		if (timeframe == null) {timeframe = Timeframe.parse(favorite.getFavorite_timeframe());}
+		
+		try {
+			CandleSeries stored = store.open(bridge.getDataSourceName(), symbol, timeframe).view().toCandleSeries();
+			long length = store.archive(bridge.getDataSourceName(), symbol, timeframe);
+			CandleSeries archived = store.readArchive(bridge.getDataSourceName(), symbol, timeframe, Long.MIN_VALUE, Long.MAX_VALUE);
+			if (!isSame(stored, archived)) {
+				pc.println("Error_P042: Archive is not the same as the candle file.");
+				return;
+			}
+			long fileLength = (long)stored.size() * CandleFile.recordSize;
+			pc.println("Symbol: " + symbol + ", Time frame: " + timeframe);
+			pc.println("Archive: " + stored.size() + " candles, " + length + " bytes (candle file " + fileLength + " bytes"
+					+ ((length == 0) ? ")" : ", " + String.format("%.1f", (double)fileLength / length) + " times smaller)"));
+		}
+		catch (IOException ioe) {
+			pc.println("Error_P043: Archive cannot be written.");
+		}
+	}
+	
+	/** Return whether two histories have the same candles. */
+	private static boolean isSame(CandleSeries a, CandleSeries b) {
+		if (a.size() != b.size()) {return false;}
+		for (int i = 0; i < a.size(); i++) {
+			if (a.time(i) != b.time(i) || Double.compare(a.open(i), b.open(i)) != 0 || Double.compare(a.high(i), b.high(i)) != 0
+					|| Double.compare(a.low(i), b.low(i)) != 0 || Double.compare(a.close(i), b.close(i)) != 0 || Double.compare(a.volume(i), b.volume(i)) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** Starts a local stand-in of Bitkub and its streams, and sends requests and streams of Bitkub to them. "simulator off" stops them and sends requests to Bitkub again.
+	 * @param input Array of input string from user */
+	private static void simulator(String[] input) {
+		if (input.length > 2) {
+			pc.println("Error_P002: Argument is incorrect.");
+			return;
+		}
+		if (input.length == 2 && input[1].toLowerCase().equals("off")) {
+			if (simulator != null) {
+				simulator.stop();
+				simulator = null;
+				exchangebroker.Bitkub.Api.setBaseUrl(bitkubBaseUrl);
+				streamSimulator.stop();
+				streamSimulator = null;
+				exchangebroker.Bitkub.Api.setStreamUrl(bitkubStreamUrl);
+			}
+			pc.println("Simulator: off");
+			return;
+		}
+		if (simulator != null) {
+			pc.println("Simulator: " + simulator.getBaseUrl() + ", Requests: " + simulator.getRequestCount() + ", Errors: " + simulator.getErrorCount());
+			pc.println("Stream simulator: " + streamSimulator.getUrl() + ", Connections: " + streamSimulator.getConnectionCount() + ", Messages: " + streamSimulator.getMessageCount());
+			return;
+		}
+		try {
+			int port = (input.length == 2) ? Integer.parseInt(input[1]) : 0;
+			Simulator started = new Simulator(1);
+			String url = started.start(port);
+			StreamSimulator streamStarted = new StreamSimulator(1);
+			for (String exchangeSymbol : started.getSymbols()) {
+				//Trades continue from the price of history.
+				streamStarted.setStartPrice(exchangeSymbol, started.getLastPrice(exchangeSymbol));
+			}
+			String streamUrl;
+			try {
+				streamUrl = streamStarted.start(0);
+			}
+			catch (IOException ioe) {
+				started.stop();
+				throw ioe;
+			}
+			simulator = started;
+			streamSimulator = streamStarted;
+			bitkubBaseUrl = exchangebroker.Bitkub.Api.getBaseUrl();
+			exchangebroker.Bitkub.Api.setBaseUrl(url);
+			bitkubStreamUrl = exchangebroker.Bitkub.Api.getStreamUrl();
+			exchangebroker.Bitkub.Api.setStreamUrl(streamUrl);
+			pc.println("Simulator: " + url);
+			pc.println("Stream simulator: " + streamUrl);
+		}
+		catch (NumberFormatException nfe) {
+			pc.println("Error_P002: Argument is incorrect.");
+		}
+		catch (IOException ioe) {
+			pc.println("Error_P050: Simulator cannot be started.");
+		}
+	}
+	
 	/** Main loop. */
 	public static void main(String[] args) {
 		primary_reset();
@@ -422,12 +695,27 @@ public class Primary {
 			case "ticker":
 				ticker(input);
 				break;
+			case "depth":
+				depth(input);
+				break;
 			case "print":
 				print(input);
 				break;
 			case "servertime":
 				serverTime(input);
 				break;
+			case "store":
+				store(input);
+				break;
+			case "archive":
+				archive(input);
+				break;
+			case "stats":
+				stats(input);
+				break;
+			case "simulator":
+				simulator(input);
+				break;
 			case "exit":
 				pc.print("Confirm terminate (Y/N): ");
 				String temp = scan.nextLine().toLowerCase();
@@ -444,5 +732,13 @@ public class Primary {
 		
 		//Outside main loop
 		scan.close();
+		if (Bridge.getCandleStore() != null) {
+			try {
+				Bridge.getCandleStore().close();
+			}
+			catch (IOException ioe) {
+				pc.println("Error_P040: Candle store cannot be closed.");
+			}
+		}
 	}
 }
\ No newline at end of file
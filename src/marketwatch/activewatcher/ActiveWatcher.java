@@ -1,29 +1,36 @@
 package marketwatch.activewatcher;
 
-import java.math.BigDecimal;
-import java.util.Date;
-
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import exchangebroker.*;
 import marketwatch.exception.*;
-import marketwatch.tools.DateTime;
+import marketwatch.tools.CandleSeries;
+import marketwatch.tools.LatencyHistogram;
 import marketwatch.tools.PrintClass;
-import marketwatch.tools.TradingView;
+import marketwatch.tools.TickCandleBuilder;
+import marketwatch.tools.Timeframe;
 
 public class ActiveWatcher extends Thread {
 	
 	private PrintClass pc = new PrintClass();
-	private Bridge bridge = new Bridge();
+	/** Bridge of the selected exchange or broker. It is replaced when the exchange or broker is changed. */
+	private volatile Bridge bridge = new Bridge();
 	ExpertAdvisor expertAdvisor = new ExpertAdvisor();
 
 	private final int identification;
 	private String exchangeBrokerName;
 	private String symbol;
-	private String timeframe;
-	private JSONObject historyRecord;
-	//private JSONObject tickerRecord;
+	/** Resolved once when it is set, so the loop never parses it. */
+	private Timeframe timeframe;
+	/** Private and writable, so closed candles and filled gaps are added in place. */
+	private CandleSeries historyRecord;
+	/** Reused every loop, so reading the ticker every second creates no object. Changed while it is locked, so getTickerRecord never copies half of a ticker. */
+	private final TickerSnapshot tickerRecord = new TickerSnapshot();
+	private volatile boolean tickerRecorded;
 	
 	public enum WatchMode {
 		/** Stops this Active Watcher when the current loop ends. */
@@ -32,6 +39,8 @@ public class ActiveWatcher extends Thread {
 		NewCandle,
 		/** Works every second. */
 		RealTime,
+		/** Works on every trade that is pushed by the exchange or the broker. Works every second if the exchange or the broker has no stream. */
+		Stream,
 		/** Simulates only actual data from historyRecord, then stops this Active Watcher. */
 		BackTest_Actual,
 		/** Simulates white noise (random) by using data from historyRecord, then stops this Active Watcher. */
@@ -42,10 +51,94 @@ public class ActiveWatcher extends Thread {
 	/** long: Millisecond */
 	private long waitingTime_nextCandle;
 	
+	/** long: Second. Start of the last candle that the strategy has seen, or -1 if the strategy is not warmed up. */
+	private long strategyTime = -1;
+	/** Exchange or broker, symbol, and time frame of the candles that the strategy has seen. */
+	private String strategyKey;
+	
+	/** Builds candles from ticker in real time mode, so history is requested only once. */
+	private TickCandleBuilder tickCandleBuilder;
+	/** long: Second. Ticks that come later than this after the end of a candle are dropped. */
+	private long tickWatermark = 2;
+	
+	/** A trade or a ticker from the stream. The stream thread creates it, and this loop reads it. */
+	private static final class StreamTick {
+		final String symbol;
+		/** long: Millisecond */
+		final long time;
+		final double price;
+		final double amount;
+		/** Copy of ticker, or null if it is a trade. */
+		final TickerSnapshot ticker;
+		final long receiveNanos;
+		
+		StreamTick(String symbol, long time, double price, double amount, TickerSnapshot ticker, long receiveNanos) {
+			this.symbol = symbol;
+			this.time = time;
+			this.price = price;
+			this.amount = amount;
+			this.ticker = ticker;
+			this.receiveNanos = receiveNanos;
+		}
+	}
+	
+	/** Trades and tickers that are pushed in stream mode. The stream thread puts them, and this loop takes them. */
+	private final ArrayBlockingQueue<StreamTick> streamTicks = new ArrayBlockingQueue<StreamTick>(4096);
+	/** Reused every loop to take ticks from the queue. */
+	private final List<StreamTick> takenTicks = new ArrayList<StreamTick>();
+	/** The tick that woke the wait of stream mode. It is handled before the queue. */
+	private StreamTick wakingTick;
+	/** Set by the stream thread when ticks may be lost, so the lost range of history is requested again. */
+	private volatile boolean streamGap;
+	/** long: Millisecond. Start of the lost range, or Long.MAX_VALUE if nothing is lost. It is set before streamGap. */
+	private final AtomicLong gapFrom = new AtomicLong(Long.MAX_VALUE);
+	/** long: Millisecond. Lost ranges are filled at most once in this time, so a burst that fills the queue does not request history every loop. */
+	private static final long gapFillInterval = 1000 * 5;
+	/** long: Millisecond. Time of the last fill. Only this loop uses it. */
+	private long lastGapFill;
+	private final AtomicLong droppedTickCount = new AtomicLong();
+	/** Stream and symbol that are subscribed, or null. */
+	private TickStream tickStream;
+	private String streamSymbol;
+	/** Time from receiving a trade to calling the strategy with it. */
+	private final LatencyHistogram tickLatency = new LatencyHistogram();
+	private final TickStream.Subscriber streamSubscriber = new TickStream.Subscriber() {
+		public void trade(String symbol, long time, double price, double amount, long receiveNanos) {
+			offer(new StreamTick(symbol, time, price, amount, null, receiveNanos));
+		}
+		
+		public void ticker(TickerSnapshot ticker, long receiveNanos) {
+			TickerSnapshot copy = new TickerSnapshot();
+			copy.copyFrom(ticker);
+			offer(new StreamTick(ticker.getSymbol(), ticker.getTime(), ticker.getLast(), 0, copy, receiveNanos));
+		}
+		
+		public void gap(String symbol, long from, long to) {
+			lost(from);
+		}
+		
+		private void offer(StreamTick tick) {
+			//If the loop is too slow, the tick is dropped and history fills it.
+			if (!streamTicks.offer(tick)) {
+				droppedTickCount.incrementAndGet();
+				lost((tick.time >= 0) ? tick.time : System.currentTimeMillis());
+			}
+		}
+		
+		private void lost(long from) {
+			gapFrom.accumulateAndGet(from, Math::min);
+			streamGap = true;
+		}
+	};
+	
+	/** Requests of this Active Watcher are queued with this weight and priority when the request budget runs out. */
+	private RequestScheduler.Requester requester;
+	
 	/** Constructor.
 	 * @param index Active Watcher index */
 	public ActiveWatcher(int index) {
 		identification = index;   //Set Active Watcher identification. The identification cannot be changed later.
+		requester = new RequestScheduler.Requester("Active Watcher " + index, 1, 0);
 		reset();
 		exchangeBrokerName = null;
 		symbol = null;
@@ -58,23 +151,42 @@ public class ActiveWatcher extends Thread {
 		return identification;
 	}
 	
+	/** Sets weight and priority of requests. Queueing delay is counted again from zero.
+	 * @param weight Weight in fair queueing (1 or more)
+	 * @param priority Priority. Higher priority is served first. */
+	public void setRequestPriority(int weight, int priority) {
+		requester = new RequestScheduler.Requester("Active Watcher " + identification, weight, priority);
+	}
+	
+	/** Gets requester of this Active Watcher. It reports queueing delay of requests.
+	 * @return Requester */
+	public RequestScheduler.Requester getRequester() {
+		return requester;
+	}
+	
 	/** Resets all variables to null or default value */
 	private void reset() {
 		historyRecord = null;
-		//tickerRecord = null;
+		tickerRecorded = false;
+		tickCandleBuilder = null;
 		watchMode = WatchMode.RealTime;
 	}
 	
-	/** Waits by wach mode until next loop.
-	 * @return If watch mode is newcandle or realtime, returns true; if not, returns false. */
+	/** Waits by wach mode until next loop. In stream mode, it wakes when a tick comes. It wakes at the beginning of the next candle or second of the server clock, so windows line up with the exchange.
+	 * @return If watch mode is newcandle, realtime, or stream, returns true; if not, returns false. */
 	private boolean waitUntilNext() {
+		long now = bridge.getServerClock().currentTimeMillis();
 		try {
 			switch (watchMode) {
 			case NewCandle:
-				Thread.sleep(waitingTime_nextCandle);
+				Thread.sleep((waitingTime_nextCandle > 0) ? waitingTime_nextCandle - Math.floorMod(now, waitingTime_nextCandle) : 1000);
 				break;
 			case RealTime:
-				Thread.sleep(1000);   // 1 second
+				Thread.sleep(1000 - Math.floorMod(now, 1000));   // 1 second
+				break;
+			case Stream:
+				//Wakes at the next tick, or at the next second to close quiet candles.
+				wakingTick = streamTicks.poll(1000 - Math.floorMod(now, 1000), TimeUnit.MILLISECONDS);
 				break;
 			default:
 				return false;
@@ -100,6 +212,9 @@ public class ActiveWatcher extends Thread {
 		case "realtime":
 			watchMode = WatchMode.RealTime;
 			break;
+		case "stream":
+			watchMode = WatchMode.Stream;
+			break;
 		case "backtest_actual":
 			watchMode = WatchMode.BackTest_Actual;
 			break;
@@ -130,8 +245,7 @@ public class ActiveWatcher extends Thread {
 	 * @return If exchange or broker name is correct, returns true; if not, returns false. */
 	public boolean setExchangeBrokerName(String name) {
 		try {
-			bridge.setExchangeBrokerName(name);
-
+			bridge = Bridge.get(name);
 		}
 		catch (ExchangeBrokerNameException ebne) {
 			return false;
@@ -169,20 +283,19 @@ public class ActiveWatcher extends Thread {
 	 * @param timeframe Time frame
 	 * @return If time frame is correct, returns true; if not, returns false. */
 	public boolean setTimeframe(String timeframe) {
-		if (bridge.isTimeframe(timeframe)) {
-			this.timeframe = timeframe;
-			TradingView tradingView = new TradingView();
-			waitingTime_nextCandle = tradingView.TimeframeToMillisecond(timeframe);
-			return true;
+		try {
+			this.timeframe = bridge.resolveTimeframe(timeframe);
 		}
-		else {
+		catch (TimeframeException te) {
 			return false;
 		}
+		waitingTime_nextCandle = this.timeframe.getMillisecond();
+		return true;
 	}
 	
 	/** Gets time frame.
 	 * @return Time frame */
-	public String getTimeframe() {
+	public Timeframe getTimeframe() {
 		return timeframe;
 	}
 	
@@ -205,10 +318,18 @@ public class ActiveWatcher extends Thread {
 	 * @param timeframe Time frame
 	 * @return If exchange or broker name, symbol, and time frame is correct, returns true; if not, returns false. */
 	public boolean setExchangeBrokerName_SymbolTimeframe(String name, String symbol, String timeframe) {
-		if (!bridge.isExchangeBrokerName(name) || !bridge.isSymbol(symbol) || !bridge.isTimeframe(timeframe)) {
+		Bridge target;
+		try {
+			target = Bridge.get(name);
+		}
+		catch (ExchangeBrokerNameException ebne) {
 			return false;
 		}
-		setExchangeBrokerName(name);
+		if (!target.isSymbol(symbol) || !target.isTimeframe(timeframe)) {
+			return false;
+		}
+		bridge = target;
+		exchangeBrokerName = name;
 		setSymbol(symbol);
 		setTimeframe(timeframe);
 		return true;
@@ -230,8 +351,7 @@ public class ActiveWatcher extends Thread {
 	 * @throws SymbolAwException 
 	 * @throws ExchangeBrokerNameAwException */
 	public void history(long initialDate) throws ExchangeBrokerNameException, SymbolException, TimeframeException {
-		DateTime dateTime = new DateTime();
-		long finalDate = dateTime.dateToSecond(new Date());
+		long finalDate = bridge.getServerClock().currentSecond();
 		history(initialDate, finalDate);
 	}
 	
@@ -247,7 +367,14 @@ public class ActiveWatcher extends Thread {
 		if (timeframe == null)			{throw new TimeframeException("Timeframe is null.");}
 		
 		try {
-			historyRecord = bridge.history(symbol, timeframe, initialDate, finalDate);
+			CandleSeries requested = bridge.history(symbol, timeframe, initialDate, finalDate);
+			if (requested != null && requested.isReadOnly()) {
+				//A slice shares arrays with a cache or a candle file, so it is copied once here.
+				CandleSeries copy = new CandleSeries(requested.size() + 16);
+				copy.append(requested);
+				requested = copy;
+			}
+			historyRecord = requested;
 		}
 		//Catch a child exception of BridgeException
 		//Then, throw a new child exception of ActiveWatcherException
@@ -266,8 +393,7 @@ public class ActiveWatcher extends Thread {
 	 * @throws SymbolAwException 
 	 * @throws ExchangeBrokerNameAwException */
 	public void history_previousCandle(int previousCandle) throws ExchangeBrokerNameException, SymbolException, TimeframeException {
-		DateTime dateTime = new DateTime();
-		long finalDate = dateTime.dateToSecond(new Date());
+		long finalDate = bridge.getServerClock().currentSecond();
 		long initialDate = finalDate - ((waitingTime_nextCandle / 1000) * previousCandle);
 		history(initialDate, finalDate);
 	}
@@ -279,26 +405,235 @@ public class ActiveWatcher extends Thread {
 		if (exchangeBrokerName == null)	{throw new ExchangeBrokerNameException("Enchange or broker name is null.");}
 		if (symbol == null)				{throw new SymbolException("Symbol is null.");}
 		
-		/*try {
-		tickerRecord = bridge.ticker(symbol);
+		try {
+			//The ticker is a slice of the snapshot of all tickers, so all Active Watchers share one request per second.
+			synchronized (tickerRecord) {
+				tickerRecorded = bridge.ticker(symbol, tickerRecord);
+			}
 		}
 		
 		//Catch a child exception of BridgeException
 		//Then, throw a new child exception of ActiveWatcherException
 		catch (SymbolException se) {
 			throw new SymbolException("\"" + symbol + "\" symbol is not exist in \"" + exchangeBrokerName + "\" exchange or broker.");
-		}*/
+		}
+	}
+	
+	/** Gets a copy of the last ticker.
+	 * @return Frozen copy of the last ticker, or null if it has not been requested */
+	public TickerSnapshot getTickerRecord() {
+		TickerSnapshot ret = new TickerSnapshot();
+		synchronized (tickerRecord) {
+			if (!tickerRecorded) {return null;}
+			ret.copyFrom(tickerRecord);
+		}
+		ret.freeze();
+		return ret;
+	}
+	
+	/** Sets time that a candle waits for late ticks in real time mode.
+	 * @param watermark Second */
+	public void setTickWatermark(long watermark) {
+		tickWatermark = watermark;
+		tickCandleBuilder = null;
+	}
+	
+	/** Gets builder of candles from ticker in real time mode.
+	 * @return Tick candle builder, or null if it is not used yet */
+	public TickCandleBuilder getTickCandleBuilder() {
+		return tickCandleBuilder;
+	}
+	
+	/** Gets time from receiving a trade of the stream to calling the strategy with it.
+	 * @return Latency histogram */
+	public LatencyHistogram getTickLatency() {
+		return tickLatency;
+	}
+	
+	/** Adds the last ticker to the forming candle.
+	 * A stale ticker is the last good ticker of a failed request, so it is not added again. */
+	private void tick() {
+		if (!tickerRecorded || tickerRecord.isStale() || Double.isNaN(tickerRecord.getLast())) {return;}
+		long time = (tickerRecord.getExchangeTime() >= 0) ? tickerRecord.getExchangeTime() : bridge.getServerClock().toServerTime(tickerRecord.getReceiveTime());
+		tick(time, tickerRecord.getLast(), 0);
+	}
+	
+	/** Adds a tick to the forming candle, and passes it to the strategy. The builder is created and seeded by the last candle of history if it does not exist.
+	 * A tick that closes a candle is passed after the closed candle.
+	 * @param time Time of the tick as millisecond since year 1970
+	 * @param price Price
+	 * @param volume Volume of the tick */
+	private void tick(long time, double price, double volume) {
+		if (historyRecord == null) {return;}
+		long length = waitingTime_nextCandle / 1000;
+		if (tickCandleBuilder == null) {
+			tickCandleBuilder = new TickCandleBuilder(tickWatermark, length);
+			tickCandleBuilder.subscribe(this::candleClosed);
+			if (!historyRecord.isEmpty()) {
+				int last = historyRecord.size() - 1;
+				tickCandleBuilder.seed(length, historyRecord.time(last), historyRecord.open(last), historyRecord.high(last),
+						historyRecord.low(last), historyRecord.close(last), historyRecord.volume(last));
+			}
+		}
+		tickCandleBuilder.tick(time / 1000, price, volume);
+		expertAdvisor.tick(time, price, volume);
+	}
+	
+	/** Subscribes to the stream of the symbol, or changes the subscription when the exchange, the broker, or the symbol is changed.
+	 * @return True if the stream is subscribed, or false if the exchange or the broker has no stream */
+	private boolean subscribeStream() {
+		TickStream stream = bridge.getTickStream();
+		if (stream != tickStream || (symbol != null && !symbol.equals(streamSymbol))) {
+			unsubscribeStream();
+			if (stream == null || symbol == null) {return false;}
+			stream.subscribe(symbol, streamSubscriber);
+			tickStream = stream;
+			streamSymbol = symbol;
+		}
+		return tickStream != null;
+	}
+	
+	/** Removes the subscription of the stream, and drops the ticks that are not taken. */
+	private void unsubscribeStream() {
+		if (tickStream != null) {
+			tickStream.unsubscribe(streamSymbol, streamSubscriber);
+			tickStream = null;
+			streamSymbol = null;
+		}
+		streamTicks.clear();
+		wakingTick = null;
+		streamGap = false;
+		gapFrom.set(Long.MAX_VALUE);
+	}
+	
+	/** Requests history from the start of the candle of a lost tick to now, and replaces the candles of history from that candle.
+	 * The forming candle is seeded again by the last requested candle, because it has the ticks that were lost.
+	 * @param from Time of the first lost tick as millisecond since year 1970
+	 * @return True if history is filled, or false if the request is failed */
+	private boolean fillGap(long from) {
+		if (from == Long.MAX_VALUE) {return true;}
+		long length = waitingTime_nextCandle / 1000;
+		long fromSecond = Math.floorDiv(Math.floorDiv(from, 1000), length) * length;
+		CandleSeries fill;
+		try {
+			fill = bridge.history(symbol, timeframe, fromSecond, bridge.getServerClock().currentSecond());
+		}
+		catch (SymbolException | TimeframeException e) {
+			return false;
+		}
+		if (fill == null) {return false;}
+		if (fill.isEmpty()) {return true;}
+		historyRecord.truncate(historyRecord.indexOf(fill.time(0)));
+		historyRecord.append(fill);
+		if (tickCandleBuilder != null) {
+			int last = fill.size() - 1;
+			tickCandleBuilder.seed(length, fill.time(last), fill.open(last), fill.high(last), fill.low(last), fill.close(last), fill.volume(last));
+		}
+		return true;
+	}
+	
+	/** Gets number of stream ticks that were dropped because this Active Watcher was too slow. Their range of history is requested again.
+	 * @return Number of ticks */
+	public long getDroppedTickCount() {
+		return droppedTickCount.get();
+	}
+	
+	/** Adds trades of the stream to the forming candle and passes them to the strategy, and keeps the last ticker of the stream.
+	 * @return The ticks that are taken */
+	private List<StreamTick> takeStreamTicks() {
+		takenTicks.clear();
+		if (wakingTick != null) {
+			takenTicks.add(wakingTick);
+			wakingTick = null;
+		}
+		streamTicks.drainTo(takenTicks);
+		for (StreamTick tick : takenTicks) {
+			//Ticks of the previous symbol may come before the subscription is removed.
+			if (!tick.symbol.equals(streamSymbol)) {continue;}
+			if (tick.ticker != null) {
+				synchronized (tickerRecord) {
+					tickerRecord.copyFrom(tick.ticker);
+					tickerRecorded = true;
+				}
+			}
+			else {
+				tick(tick.time, tick.price, tick.amount);
+			}
+		}
+		if (tickCandleBuilder != null) {
+			//Closes candles when the market is quiet.
+			tickCandleBuilder.advance(bridge.getServerClock().currentSecond());
+		}
+		return takenTicks;
+	}
+	
+	/** Records latency of the trades that are passed to the strategy. It is called after the strategy returns. */
+	private void recordTickLatency(List<StreamTick> ticks) {
+		long now = System.nanoTime();
+		for (StreamTick tick : ticks) {
+			if (tick.ticker == null) {
+				tickLatency.recordNanos(now - tick.receiveNanos);
+			}
+		}
+	}
+	
+	/** Adds a closed candle from ticks to historyRecord. The candle replaces the last candle of history if they start at the same time. */
+	private void candleClosed(long length, long time, double open, double high, double low, double close, double volume) {
+		if (historyRecord == null) {return;}
+		if (!historyRecord.isEmpty() && historyRecord.lastTime() == time) {
+			//Ticker has no volume, so the volume of history is kept.
+			volume = Math.max(volume, historyRecord.volume(historyRecord.size() - 1));
+			historyRecord.truncate(historyRecord.size() - 1);
+		}
+		if (historyRecord.isEmpty() || historyRecord.lastTime() < time) {
+			historyRecord.add(time, open, high, low, close, volume);
+		}
+		feedStrategy(time);
+	}
+	
+	/** Passes closed candles of historyRecord that the strategy has not seen to the strategy, and runs the strategy once for each of them.
+	 * The first call after the symbol or the time frame is changed only warms up the strategy, so no order is sent for old candles.
+	 * @param closedTo Start of the last closed candle as seconds since year 1970 */
+	private void feedStrategy(long closedTo) {
+		if (historyRecord == null) {return;}
+		String key = exchangeBrokerName + "|" + symbol + "|" + timeframe;
+		if (!key.equals(strategyKey)) {
+			strategyKey = key;
+			strategyTime = -1;
+		}
+		boolean warmUp = strategyTime < 0;
+		if (warmUp) {
+			expertAdvisor.reset();
+		}
+		int from = historyRecord.indexOf(strategyTime + 1);
+		int to = historyRecord.indexOf(closedTo + 1);
+		for (int i = from; i < to; i++) {
+			expertAdvisor.addPrice(historyRecord.close(i));
+			if (!warmUp) {
+				expertAdvisor.run();
+			}
+		}
+		if (to > from) {
+			strategyTime = historyRecord.time(to - 1);
+		}
+	}
+	
+	/** Gets history.
+	 * @return History, or null if it has not been requested */
+	public CandleSeries getHistoryRecord() {
+		return historyRecord;
 	}
 	
 	/** Simulates only actual data from historyRecord. */
 	private void backTest_actual() {
-		JSONArray price = (JSONArray)historyRecord.get("close");
+		if (historyRecord == null) {return;}
 		expertAdvisor.reset();
-		for (int i = 0; i < price.size(); i++) {
-			BigDecimal currentPrice = new BigDecimal(price.get(i).toString());
-			expertAdvisor.addPrice(currentPrice);
+		for (int i = 0; i < historyRecord.size(); i++) {
+			expertAdvisor.addPrice(historyRecord.close(i));
 			expertAdvisor.run();
 		}
+		//A live mode after the back test warms up the strategy again.
+		strategyTime = -1;
 	}
 	
 	/** Simulates white noise (random) by using data from historyRecord. */
@@ -312,12 +647,41 @@ public class ActiveWatcher extends Thread {
 		
 		boolean nextLoop = true;
 		while (nextLoop) {
+			RequestScheduler.setCurrentRequester(requester);
+			List<StreamTick> taken = null;
+			
 			//#### First: Request history and ticker ####
-			try {
-				history_previousCandle(10000);
+			//In real time and stream mode, history is requested once. Then candles are built from ticker or trades.
+			//If the stream may have lost ticks, only the lost range of history is requested again to fill them.
+			if (streamGap) {
+				long now = System.currentTimeMillis();
+				if (historyRecord == null) {
+					//All history is requested below.
+					streamGap = false;
+					gapFrom.set(Long.MAX_VALUE);
+				}
+				else if (now - lastGapFill >= gapFillInterval) {
+					lastGapFill = now;
+					streamGap = false;
+					long from = gapFrom.getAndSet(Long.MAX_VALUE);
+					if (!fillGap(from)) {
+						//Tried again after the interval.
+						gapFrom.accumulateAndGet(from, Math::min);
+						streamGap = true;
+					}
+				}
+			}
+			if (watchMode != WatchMode.Stream && tickStream != null) {
+				unsubscribeStream();
 			}
-			catch (ExchangeBrokerNameException | SymbolException | TimeframeException e) {
-				//TODO
+			if ((watchMode != WatchMode.RealTime && watchMode != WatchMode.Stream) || historyRecord == null) {
+				tickCandleBuilder = null;
+				try {
+					history_previousCandle(10000);
+				}
+				catch (ExchangeBrokerNameException | SymbolException | TimeframeException e) {
+					//TODO
+				}
 			}
 			
 			switch (watchMode) {
@@ -329,12 +693,32 @@ public class ActiveWatcher extends Thread {
 				catch (ExchangeBrokerNameException | SymbolException e) {
 					//TODO
 				}
+				if (watchMode == WatchMode.RealTime) {
+					tick();
+				}
+				break;
+			case Stream:
+				if (subscribeStream()) {
+					taken = takeStreamTicks();
+				}
+				else {
+					//The exchange or the broker has no stream, so ticker is polled like real time mode.
+					try {
+						ticker();
+					}
+					catch (ExchangeBrokerNameException | SymbolException e) {
+						//TODO
+					}
+					tick();
+				}
 				break;
 			default:
 				//Nothing to do
 			}
 			
 			//#### Second: Call strategy ####
+			//Ticks of real time and stream mode are already passed to the strategy when they are added to the forming candle,
+			//and candles that the ticks close are passed when they close. Other closed candles, for example of new candle mode, are passed here.
 			switch (watchMode) {
 			case BackTest_Actual:
 				backTest_actual();
@@ -343,7 +727,10 @@ public class ActiveWatcher extends Thread {
 				backTest_whiteNoise();
 				break;
 			default:
-				expertAdvisor.run();
+				feedStrategy(bridge.getServerClock().currentSecond() - waitingTime_nextCandle / 1000);
+			}
+			if (taken != null) {
+				recordTickLatency(taken);
 			}
 			
 			//#### Last: Wait until next loop or break loop ####
@@ -355,10 +742,12 @@ public class ActiveWatcher extends Thread {
 				break;
 			case NewCandle:
 			case RealTime:
+			case Stream:
 				waitUntilNext();
 				break;
 			}	
 		}
+		unsubscribeStream();
 		pc.println();
 		pc.println("Active Watcher| This Active Watcher ends...");
 		pc.println("Active Watcher| Identification: " + identification);
@@ -2,51 +2,89 @@ package marketwatch.activewatcher;
 
 import java.math.*;
 import java.sql.SQLException;
+import java.util.Arrays;
 
 import org.json.simple.JSONArray;
 
 import marketwatch.demoaccount.*;
 import marketwatch.exception.*;
 import marketwatch.indicator.*;
+import marketwatch.tools.CandleSeries;
+import marketwatch.tools.Variable;
 
 /** Edit expert advisor in this class. */
 public class ExpertAdvisor {
 	
-	private JSONArray price = new JSONArray();
+	private Variable variable = new Variable();
+	/** Price column. Only the first priceSize elements are valid. */
+	private double[] price = new double[16];
+	private int priceSize;
 	
 	/** Resets variables to null or default value. */
 	public void reset() {
-		price.clear();
+		priceSize = 0;
+		macd = new MACD(MA.Type.EMA, 5, 20);
+		lastTickTime = -1;
+		lastTickPrice = Double.NaN;
 	}
 	
 	/** Removes array of price, sets a new array of price, and calculates moving average.
 	 * @param price Array of price */
 	public void setPrice(JSONArray price) {
 		reset();
-		this.price = price;
+		for (Object element : price) {
+			addPrice(variable.objectToBigDecimal(element).doubleValue());
+		}
+	}
+	
+	/** Removes array of price, and sets close prices of history as a new array of price.
+	 * @param history History of currency */
+	public void setPrice(CandleSeries history) {
+		reset();
+		for (int i = 0; i < history.size(); i++) {
+			addPrice(history.close(i));
+		}
 	}
 	
 	/** Adds new price at the last element of array of price, and calculates moving average.
 	 * @param price New price */
-	@SuppressWarnings("unchecked")
-	public void addPrice(BigDecimal price) {
-		this.price.add(price);
+	public void addPrice(double price) {
+		if (priceSize == this.price.length) {
+			this.price = Arrays.copyOf(this.price, priceSize + (priceSize >> 1) + 1);
+		}
+		this.price[priceSize++] = price;
+		macd.addPrice(price);
+	}
+	
+	/** long: Millisecond. Time of the last tick, or -1 if no tick has come. */
+	private long lastTickTime = -1;
+	private double lastTickPrice = Double.NaN;
+	
+	/** Called for each trade of the stream, or each ticker in real time mode, as soon as it is added to the forming candle.
+	 * Edit it to react before the candle closes. Orders that need the last price can use lastTickPrice.
+	 * @param time Time of the tick as millisecond since year 1970
+	 * @param price Price
+	 * @param volume Volume, or 0 if the tick is a ticker */
+	public void tick(long time, double price, double volume) {
+		lastTickTime = time;
+		lastTickPrice = price;
 	}
 	
 	private DemoAccount demoAccount = new DemoAccount(DemoAccount.DatabaseMode.MySQL, "jdbc:mysql://localhost/marketwatch", "MarketWatch", "MwEa");
 	private int i = 0;
 	private MACD macd = new MACD(MA.Type.EMA, 5, 20);
 	private int currentPosition = 0;
-	/** Main function */
+	/** Main function. Called once for each closed candle, after its close price is added. */
 	public void run() {
-		int lastIndex = price.size() - 1;
-		BigDecimal lastPrice = new BigDecimal(price.get(lastIndex).toString()); 
-		macd.addPrice(lastPrice);
+		if (priceSize == 0) {return;}
+		double lastClose = price[priceSize - 1];
 		
-		BigDecimal lastResult = macd.getResultLast();
+		double lastResult = macd.getResultLast();
 		System.out.println(i + ": " + lastResult);
 		
-		if (lastResult.compareTo(new BigDecimal("0.0")) <= 0 & currentPosition == 0) {
+		//Only an order needs the price as BigDecimal.
+		BigDecimal lastPrice = BigDecimal.valueOf(lastClose);
+		if (lastResult <= 0 & currentPosition == 0) {
 			try {
 				demoAccount.tradeBuy("BTC", "THB", new BigDecimal("5000"), lastPrice);
 				currentPosition = 1;
@@ -65,7 +103,7 @@ public class ExpertAdvisor {
 				catch (DatabaseModeException | SQLException | NotExistCurrencyException e) {}
 			}
 		}
-		else if (lastResult.compareTo(new BigDecimal("0.0")) > 0 & currentPosition == 1) {
+		else if (lastResult > 0 & currentPosition == 1) {
 			try {
 				if (demoAccount.getAmount("BTC").compareTo(new BigDecimal("0.0")) > 0) {
 					demoAccount.tradeSellAll("BTC", "THB", lastPrice);
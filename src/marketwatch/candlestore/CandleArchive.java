@@ -0,0 +1,116 @@
+package marketwatch.candlestore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import marketwatch.tools.CandleSeries;
+
+/** File of compressed candle blocks (see CandleBlockCodec) for long history.
+ * Blocks are written in time order. A read skips blocks out of the range by their headers, and decodes the other blocks in parallel. */
+public class CandleArchive {
+
+	/** Number of candles in a block by default. */
+	public static final int defaultBlockSize = 4096;
+
+	private final CandleBlockCodec codec = new CandleBlockCodec();
+
+	/** Writes candles to a file. The file is replaced.
+	 * @param path Path of file
+	 * @param series Candles sorted by time
+	 * @param blockSize Number of candles in a block
+	 * @return Size of file as byte
+	 * @throws IOException */
+	public long write(Path path, CandleSeries series, int blockSize) throws IOException {
+		blockSize = Math.max(1, blockSize);
+		long length = 0;
+		try (OutputStream out = Files.newOutputStream(path)) {
+			for (int from = 0; from < series.size(); from += blockSize) {
+				byte[] block = codec.encode(series, from, Math.min(series.size(), from + blockSize));
+				out.write(block);
+				length += block.length;
+			}
+		}
+		return length;
+	}
+
+	/** Writes candles to a file with defaultBlockSize candles in a block. The file is replaced.
+	 * @param path Path of file
+	 * @param series Candles sorted by time
+	 * @return Size of file as byte
+	 * @throws IOException */
+	public long write(Path path, CandleSeries series) throws IOException {
+		return write(path, series, defaultBlockSize);
+	}
+
+	/** Reads all candles of a file.
+	 * @param path Path of file
+	 * @return Candles
+	 * @throws IOException If the file cannot be read, or a block is broken */
+	public CandleSeries read(Path path) throws IOException {
+		return read(path, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/** Reads candles of a range. Blocks out of the range are not decoded.
+	 * @param path Path of file
+	 * @param initialDate Initial date and time as seconds since year 1970
+	 * @param finalDate Final date and time as seconds since year 1970
+	 * @return Candles
+	 * @throws IOException If the file cannot be read, or a block is broken */
+	public CandleSeries read(Path path, long initialDate, long finalDate) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		//Only headers are read here.
+		List<Integer> positions = new ArrayList<Integer>();
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			CandleBlockCodec.BlockHeader header = codec.readHeader(buffer);
+			if (header.getLastTime() >= initialDate && header.getFirstTime() <= finalDate) {
+				positions.add(buffer.position());
+				total += header.getCount();
+			}
+			buffer.position(buffer.position() + header.getBlockLength());
+		}
+
+		List<CompletableFuture<CandleSeries>> blocks = new ArrayList<CompletableFuture<CandleSeries>>(positions.size());
+		for (int position : positions) {
+			ByteBuffer block = buffer.duplicate();
+			block.position(position);
+			blocks.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return codec.decode(block);
+				}
+				catch (IOException ioe) {
+					throw new CompletionException(ioe);
+				}
+			}));
+		}
+
+		CandleSeries ret = new CandleSeries(Math.max(1, total));
+		try {
+			for (CompletableFuture<CandleSeries> future : blocks) {
+				CandleSeries series = future.join();
+				int from = series.indexOf(initialDate);
+				int to = (finalDate == Long.MAX_VALUE) ? series.size() : series.indexOf(finalDate + 1);
+				ret.append(series.slice(from, to));
+			}
+		}
+		catch (CompletionException ce) {
+			if (ce.getCause() instanceof IOException) {throw (IOException)ce.getCause();}
+			throw ce;
+		}
+		return ret;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,354 @@
+package marketwatch.candlestore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import marketwatch.tools.CandleSeries;
+
+/** Encodes candles to compressed blocks, and decodes them.
+ * A block has a 36 bytes header (magic, version, scales, count, first time, last time, payload length, and CRC32), then columns of the payload.
+ * A reader can skip a block by its header and decode any block alone.
+ * <ul>
+ * <li>Time: the first time is in the header, then delta of delta as zigzag varint. Candles of one time frame use one byte each.</li>
+ * <li>Prices: if every price is a decimal with up to 8 digits after the point, prices are scaled integers.
+ * Open is a delta from the previous close, and close, high, and low are deltas from open, as zigzag varint.
+ * Otherwise each price is XOR of its bits and the bits of the previous price, without trailing zero bits.</li>
+ * <li>Volume: scaled integer as varint, or XOR like prices.</li>
+ * </ul> */
+public class CandleBlockCodec {
+
+	/** "MWCB" */
+	private static final int magic = 0x4D574342;
+	private static final byte version = 1;
+	public static final int headerSize = 36;
+	/** Scale of a column that is XOR of bits. */
+	private static final byte xorScale = -1;
+	private static final int maxScale = 8;
+	private static final double[] powerOfTen = new double[maxScale + 1];
+	static {
+		powerOfTen[0] = 1;
+		for (int i = 1; i < powerOfTen.length; i++) {
+			powerOfTen[i] = powerOfTen[i - 1] * 10;
+		}
+	}
+
+	/** Header of a block. */
+	public static class BlockHeader {
+		private final int count;
+		private final long firstTime;
+		private final long lastTime;
+		private final int payloadLength;
+
+		private BlockHeader(int count, long firstTime, long lastTime, int payloadLength) {
+			this.count = count;
+			this.firstTime = firstTime;
+			this.lastTime = lastTime;
+			this.payloadLength = payloadLength;
+		}
+
+		/** Gets number of candles.
+		 * @return Number of candles */
+		public int getCount() {
+			return count;
+		}
+
+		/** Gets time of the first candle.
+		 * @return Time as seconds since year 1970 */
+		public long getFirstTime() {
+			return firstTime;
+		}
+
+		/** Gets time of the last candle.
+		 * @return Time as seconds since year 1970 */
+		public long getLastTime() {
+			return lastTime;
+		}
+
+		/** Gets size of the block.
+		 * @return Number of bytes including the header */
+		public int getBlockLength() {
+			return headerSize + payloadLength;
+		}
+	}
+
+	//#### Encode ####
+
+	/** Encodes candles to a block.
+	 * @param series Candles
+	 * @param fromIndex Index of the first candle (inclusive)
+	 * @param toIndex Index of the last candle (exclusive)
+	 * @return Block */
+	public byte[] encode(CandleSeries series, int fromIndex, int toIndex) {
+		int count = toIndex - fromIndex;
+		if (fromIndex < 0 || toIndex > series.size() || count <= 0) {
+			throw new ArrayIndexOutOfBoundsException("Block " + fromIndex + " to " + toIndex + " is out of bounds for " + series.size() + " candles.");
+		}
+		ByteWriter out = new ByteWriter(headerSize + count * 12);
+		out.position = headerSize;
+
+		//Time
+		long previous = series.time(fromIndex);
+		long previousDelta = 0;
+		for (int i = fromIndex + 1; i < toIndex; i++) {
+			long delta = series.time(i) - previous;
+			out.writeSignedVarint(delta - previousDelta);
+			previous = series.time(i);
+			previousDelta = delta;
+		}
+
+		//Prices
+		byte priceScale = findScale(series, fromIndex, toIndex, true);
+		if (priceScale == xorScale) {
+			long[] last = new long[1];
+			for (int i = fromIndex; i < toIndex; i++) {out.writeXor(series.open(i), last);}
+			for (int i = fromIndex; i < toIndex; i++) {out.writeXor(series.close(i), last);}
+			for (int i = fromIndex; i < toIndex; i++) {out.writeXor(series.high(i), last);}
+			for (int i = fromIndex; i < toIndex; i++) {out.writeXor(series.low(i), last);}
+		}
+		else {
+			double scale = powerOfTen[priceScale];
+			long[] open = new long[count];
+			long previousClose = 0;
+			for (int i = 0; i < count; i++) {
+				open[i] = Math.round(series.open(fromIndex + i) * scale);
+				out.writeSignedVarint(open[i] - previousClose);
+				previousClose = Math.round(series.close(fromIndex + i) * scale);
+			}
+			for (int i = 0; i < count; i++) {out.writeSignedVarint(Math.round(series.close(fromIndex + i) * scale) - open[i]);}
+			for (int i = 0; i < count; i++) {out.writeSignedVarint(Math.round(series.high(fromIndex + i) * scale) - open[i]);}
+			for (int i = 0; i < count; i++) {out.writeSignedVarint(Math.round(series.low(fromIndex + i) * scale) - open[i]);}
+		}
+
+		//Volume
+		byte volumeScale = findScale(series, fromIndex, toIndex, false);
+		if (volumeScale == xorScale) {
+			long[] last = new long[1];
+			for (int i = fromIndex; i < toIndex; i++) {out.writeXor(series.volume(i), last);}
+		}
+		else {
+			double scale = powerOfTen[volumeScale];
+			for (int i = fromIndex; i < toIndex; i++) {out.writeVarint(Math.round(series.volume(i) * scale));}
+		}
+
+		int payloadLength = out.position - headerSize;
+		CRC32 crc = new CRC32();
+		crc.update(out.bytes, headerSize, payloadLength);
+		ByteBuffer header = ByteBuffer.wrap(out.bytes, 0, headerSize);
+		header.putInt(magic);
+		header.put(version);
+		header.put(priceScale);
+		header.put(volumeScale);
+		header.put((byte)0);
+		header.putInt(count);
+		header.putLong(series.time(fromIndex));
+		header.putLong(series.time(toIndex - 1));
+		header.putInt(payloadLength);
+		header.putInt((int)crc.getValue());
+		return Arrays.copyOf(out.bytes, out.position);
+	}
+
+	/** Finds the smallest number of digits after the point that keeps every value exactly.
+	 * @return Number of digits, or xorScale if no scale keeps values */
+	private byte findScale(CandleSeries series, int fromIndex, int toIndex, boolean price) {
+		for (int scale = 0; scale <= maxScale; scale++) {
+			if (isScale(series, fromIndex, toIndex, price, powerOfTen[scale])) {
+				return (byte)scale;
+			}
+		}
+		return xorScale;
+	}
+
+	private boolean isScale(CandleSeries series, int fromIndex, int toIndex, boolean price, double scale) {
+		for (int i = fromIndex; i < toIndex; i++) {
+			if (price) {
+				if (!isScaled(series.open(i), scale) || !isScaled(series.high(i), scale) || !isScaled(series.low(i), scale) || !isScaled(series.close(i), scale)) {
+					return false;
+				}
+			}
+			else if (series.volume(i) < 0 || !isScaled(series.volume(i), scale)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Return whether a value is the same after it is scaled, rounded, and scaled back. */
+	private boolean isScaled(double value, double scale) {
+		double scaled = Math.rint(value * scale);
+		//Deltas of scaled values must fit in long, so values are limited to 2^52.
+		return Math.abs(scaled) < (1L << 52) && scaled / scale == value;
+	}
+
+	//#### Decode ####
+
+	/** Reads a header of a block at the position of a buffer. The position is not changed.
+	 * @param buffer Buffer
+	 * @return Header
+	 * @throws IOException If it is not a block */
+	public BlockHeader readHeader(ByteBuffer buffer) throws IOException {
+		int position = buffer.position();
+		if (buffer.remaining() < headerSize) {throw new IOException("Block header is incomplete at " + position + ".");}
+		if (buffer.getInt(position) != magic) {throw new IOException("Block is expected at " + position + ".");}
+		if (buffer.get(position + 4) != version) {throw new IOException("Block version " + buffer.get(position + 4) + " is not supported.");}
+		BlockHeader header = new BlockHeader(buffer.getInt(position + 8), buffer.getLong(position + 12), buffer.getLong(position + 20), buffer.getInt(position + 28));
+		if (header.count <= 0 || header.payloadLength < 0 || buffer.remaining() < header.getBlockLength()) {
+			throw new IOException("Block is incomplete at " + position + ".");
+		}
+		return header;
+	}
+
+	/** Decodes a block at the position of a buffer. The position moves to the next block.
+	 * @param buffer Buffer
+	 * @return Candles of the block
+	 * @throws IOException If the block is broken */
+	public CandleSeries decode(ByteBuffer buffer) throws IOException {
+		BlockHeader header = readHeader(buffer);
+		int start = buffer.position();
+		byte priceScale = buffer.get(start + 5);
+		byte volumeScale = buffer.get(start + 6);
+		int expectedCrc = buffer.getInt(start + 32);
+		int count = header.count;
+
+		byte[] payload = new byte[header.payloadLength];
+		buffer.get(start + headerSize, payload);
+		buffer.position(start + header.getBlockLength());
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		if ((int)crc.getValue() != expectedCrc) {throw new IOException("Block at " + start + " is broken.");}
+		ByteReader in = new ByteReader(payload);
+
+		long[] time = new long[count];
+		double[] open = new double[count];
+		double[] high = new double[count];
+		double[] low = new double[count];
+		double[] close = new double[count];
+		double[] volume = new double[count];
+
+		time[0] = header.firstTime;
+		long delta = 0;
+		for (int i = 1; i < count; i++) {
+			delta += in.readSignedVarint();
+			time[i] = time[i - 1] + delta;
+		}
+
+		if (priceScale == xorScale) {
+			long[] last = new long[1];
+			for (int i = 0; i < count; i++) {open[i] = in.readXor(last);}
+			for (int i = 0; i < count; i++) {close[i] = in.readXor(last);}
+			for (int i = 0; i < count; i++) {high[i] = in.readXor(last);}
+			for (int i = 0; i < count; i++) {low[i] = in.readXor(last);}
+		}
+		else {
+			if (priceScale < 0 || priceScale > maxScale) {throw new IOException("Price scale " + priceScale + " is not supported.");}
+			double scale = powerOfTen[priceScale];
+			long[] scaledOpen = new long[count];
+			for (int i = 0; i < count; i++) {scaledOpen[i] = in.readSignedVarint();}
+			//Open is a delta from the previous close, so open and close are resolved together.
+			long previousClose = 0;
+			for (int i = 0; i < count; i++) {
+				scaledOpen[i] += previousClose;
+				previousClose = scaledOpen[i] + in.readSignedVarint();
+				open[i] = scaledOpen[i] / scale;
+				close[i] = previousClose / scale;
+			}
+			for (int i = 0; i < count; i++) {high[i] = (scaledOpen[i] + in.readSignedVarint()) / scale;}
+			for (int i = 0; i < count; i++) {low[i] = (scaledOpen[i] + in.readSignedVarint()) / scale;}
+		}
+
+		if (volumeScale == xorScale) {
+			long[] last = new long[1];
+			for (int i = 0; i < count; i++) {volume[i] = in.readXor(last);}
+		}
+		else {
+			if (volumeScale < 0 || volumeScale > maxScale) {throw new IOException("Volume scale " + volumeScale + " is not supported.");}
+			double scale = powerOfTen[volumeScale];
+			for (int i = 0; i < count; i++) {volume[i] = in.readVarint() / scale;}
+		}
+		if (in.position != payload.length) {throw new IOException("Block at " + start + " has extra bytes.");}
+		return new CandleSeries(time, open, high, low, close, volume, count);
+	}
+
+	//#### Bytes ####
+
+	/** Growable byte array. */
+	private static class ByteWriter {
+		byte[] bytes;
+		int position;
+
+		ByteWriter(int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		void ensure(int length) {
+			if (position + length > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(position + length, bytes.length * 2));
+			}
+		}
+
+		void writeVarint(long value) {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				bytes[position++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[position++] = (byte)value;
+		}
+
+		void writeSignedVarint(long value) {
+			writeVarint((value << 1) ^ (value >> 63));
+		}
+
+		/** Writes number of trailing zero bits of XOR, then XOR without them. XOR of the same value is one byte. */
+		void writeXor(double value, long[] last) {
+			long bits = Double.doubleToRawLongBits(value);
+			long xor = bits ^ last[0];
+			last[0] = bits;
+			ensure(1);
+			if (xor == 0) {
+				bytes[position++] = 64;
+				return;
+			}
+			int trailing = Long.numberOfTrailingZeros(xor);
+			bytes[position++] = (byte)trailing;
+			writeVarint(xor >>> trailing);
+		}
+	}
+
+	/** Reader of a byte array. */
+	private static class ByteReader {
+		final byte[] bytes;
+		int position;
+
+		ByteReader(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		long readVarint() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				if (position >= bytes.length) {throw new IOException("Block ends in a number.");}
+				byte b = bytes[position++];
+				value |= (long)(b & 0x7F) << shift;
+				if (b >= 0) {return value;}
+			}
+			throw new IOException("Number is too long.");
+		}
+
+		long readSignedVarint() throws IOException {
+			long value = readVarint();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		double readXor(long[] last) throws IOException {
+			if (position >= bytes.length) {throw new IOException("Block ends in a number.");}
+			int trailing = bytes[position++];
+			if (trailing != 64) {
+				if (trailing < 0 || trailing > 63) {throw new IOException("Block is broken.");}
+				last[0] ^= readVarint() << trailing;
+			}
+			return Double.longBitsToDouble(last[0]);
+		}
+	}
+}
\ No newline at end of file
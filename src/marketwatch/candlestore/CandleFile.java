@@ -0,0 +1,210 @@
+package marketwatch.candlestore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import marketwatch.tools.CandleSeries;
+
+/** Memory-mapped file of candles of one symbol and one time frame.
+ * The file has a 64 bytes header, then fixed-width records of 48 bytes (time, open, high, low, close, and volume) sorted by time.
+ * Records are only appended, and a written record is never changed, so views can read the mapped memory without locking.
+ * The header also keeps the covered range. Every closed candle in the range is in the file, so a request in the range needs no exchange or broker. */
+public class CandleFile implements Closeable {
+
+	/** "MWCANDL1" */
+	private static final long magic = 0x4D5743414E444C31L;
+	public static final int headerSize = 64;
+	public static final int recordSize = 48;
+	/** Number of records that are added to the mapping when it is full, at least. */
+	private static final int growth = 4096;
+
+	private static final int magicOffset = 0;
+	private static final int recordSizeOffset = 8;
+	private static final int candleLengthOffset = 12;
+	private static final int countOffset = 16;
+	private static final int coveredFromOffset = 24;
+	private static final int coveredToOffset = 32;
+
+	private final Path path;
+	private final FileChannel channel;
+	private MappedByteBuffer buffer;
+	/** long: Second */
+	private final long candleLength;
+	private int count;
+	/** long: Second. Start of the covered range, or -1 if nothing is covered. */
+	private long coveredFrom;
+	/** long: Second. End of the covered range, or -1 if nothing is covered. */
+	private long coveredTo;
+
+	/** Constructor.
+	 * Opens a file, or creates it if it does not exist.
+	 * @param path Path of file
+	 * @param candleLength Length of a candle as second
+	 * @throws IOException If the file cannot be opened, or it is not a candle file of the time frame */
+	public CandleFile(Path path, long candleLength) throws IOException {
+		this.path = path;
+		this.candleLength = candleLength;
+		Files.createDirectories(path.toAbsolutePath().getParent());
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long fileSize = channel.size();
+			if (fileSize == 0) {
+				map(headerSize + (long)recordSize * growth);
+				buffer.putLong(magicOffset, magic);
+				buffer.putInt(recordSizeOffset, recordSize);
+				buffer.putInt(candleLengthOffset, (int)candleLength);
+				count = 0;
+				coveredFrom = -1;
+				coveredTo = -1;
+				writeHeader();
+			}
+			else {
+				if (fileSize < headerSize) {throw new IOException(path + " is not a candle file.");}
+				map(fileSize);
+				if (buffer.getLong(magicOffset) != magic || buffer.getInt(recordSizeOffset) != recordSize) {
+					throw new IOException(path + " is not a candle file.");
+				}
+				if (buffer.getInt(candleLengthOffset) != candleLength) {
+					throw new IOException(path + " has candles of another time frame.");
+				}
+				count = (int)buffer.getLong(countOffset);
+				coveredFrom = buffer.getLong(coveredFromOffset);
+				coveredTo = buffer.getLong(coveredToOffset);
+				if (count < 0 || headerSize + (long)recordSize * count > fileSize) {
+					throw new IOException(path + " is broken.");
+				}
+			}
+		}
+		catch (IOException ioe) {
+			channel.close();
+			throw ioe;
+		}
+	}
+
+	/** Maps the file. The file grows to the size if it is smaller. */
+	private void map(long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException(path + " is too large.");
+		}
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/** Writes count and covered range. They are written after records, so a reader never sees a record that is not written yet. */
+	private void writeHeader() {
+		buffer.putLong(countOffset, count);
+		buffer.putLong(coveredFromOffset, coveredFrom);
+		buffer.putLong(coveredToOffset, coveredTo);
+	}
+
+	/** Gets path of file.
+	 * @return Path */
+	public Path getPath() {
+		return path;
+	}
+
+	/** Gets length of a candle.
+	 * @return Length as second */
+	public long getCandleLength() {
+		return candleLength;
+	}
+
+	/** Gets number of candles.
+	 * @return Number of candles */
+	public synchronized int size() {
+		return count;
+	}
+
+	/** Gets start of the covered range.
+	 * @return Time as seconds since year 1970, or -1 if nothing is covered */
+	public synchronized long getCoveredFrom() {
+		return coveredFrom;
+	}
+
+	/** Gets end of the covered range.
+	 * @return Time as seconds since year 1970, or -1 if nothing is covered */
+	public synchronized long getCoveredTo() {
+		return coveredTo;
+	}
+
+	/** Return whether every closed candle of a range is in the file.
+	 * @param initialDate Initial date and time as seconds since year 1970
+	 * @param finalDate Final date and time as seconds since year 1970
+	 * @return True or false */
+	public synchronized boolean covers(long initialDate, long finalDate) {
+		return coveredFrom >= 0 && initialDate >= coveredFrom && finalDate <= coveredTo;
+	}
+
+	/** Gets a view of all candles. No candle is copied.
+	 * @return View of candles */
+	public synchronized CandleView view() {
+		return new CandleView(buffer, 0, count);
+	}
+
+	/** Gets a view of candles in a range. The range is found by binary search, and no candle is copied.
+	 * @param initialDate Initial date and time as seconds since year 1970
+	 * @param finalDate Final date and time as seconds since year 1970
+	 * @return View of candles */
+	public synchronized CandleView view(long initialDate, long finalDate) {
+		CandleView all = new CandleView(buffer, 0, count);
+		int from = all.indexOf(initialDate);
+		int to = all.indexOf(finalDate + 1);
+		return new CandleView(buffer, from, Math.max(from, to));
+	}
+
+	/** Appends closed candles of a range. Candles that are not after the last candle or are after the range are skipped.
+	 * The range must start in or just after the covered range, so that no candle is missing in the file. Otherwise nothing is appended.
+	 * @param series Candles
+	 * @param initialDate Start of the range that the candles cover
+	 * @param finalDate End of the range. Every candle at or before it must be closed.
+	 * @return Number of appended candles
+	 * @throws IOException If the file cannot grow */
+	public synchronized int append(CandleSeries series, long initialDate, long finalDate) throws IOException {
+		if (finalDate < initialDate) {return 0;}
+		if (coveredFrom >= 0 && (initialDate > coveredTo + 1 || finalDate <= coveredTo)) {return 0;}
+
+		long start = (count == 0) ? initialDate : Math.max(initialDate, buffer.getLong(headerSize + (count - 1) * recordSize) + 1);
+		int from = series.indexOf(start);
+		int to = series.indexOf(finalDate + 1);
+		int added = Math.max(0, to - from);
+		long needed = headerSize + (long)recordSize * (count + added);
+		if (needed > buffer.capacity()) {
+			map(Math.max(needed, headerSize + (long)recordSize * (count + Math.max(growth, count / 2))));
+		}
+		for (int i = from; i < to; i++) {
+			int position = headerSize + count * recordSize;
+			buffer.putLong(position, series.time(i));
+			buffer.putDouble(position + 8, series.open(i));
+			buffer.putDouble(position + 16, series.high(i));
+			buffer.putDouble(position + 24, series.low(i));
+			buffer.putDouble(position + 32, series.close(i));
+			buffer.putDouble(position + 40, series.volume(i));
+			count++;
+		}
+		if (coveredFrom < 0) {
+			coveredFrom = initialDate;
+		}
+		coveredTo = finalDate;
+		writeHeader();
+		return added;
+	}
+
+	/** Writes changes to the storage device.
+	 * @throws IOException */
+	public synchronized void flush() throws IOException {
+		buffer.force();
+	}
+
+	/** Writes changes and closes the file. Views that were created before can still be read. */
+	public synchronized void close() throws IOException {
+		if (!channel.isOpen()) {return;}
+		buffer.force();
+		channel.close();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,115 @@
+package marketwatch.candlestore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import marketwatch.tools.CandleSeries;
+import marketwatch.tools.Timeframe;
+
+/** Directory of candle files. Each exchange or broker, symbol, and time frame has one file ("directory/exchange/symbol/timeframe.candles").
+ * A file is opened when it is used for the first time, and stays open until the store is closed.
+ * A candle file can also be written to a compressed archive ("timeframe.archive", see CandleArchive) next to it, for long history that is kept or moved. */
+public class CandleStore implements Closeable {
+
+	private final Path directory;
+	private final Map<String, CandleFile> files = new HashMap<String, CandleFile>();
+	private final CandleArchive archive = new CandleArchive();
+
+	/** Constructor.
+	 * @param directory Directory of candle files. It is created when the first file is created. */
+	public CandleStore(Path directory) {
+		this.directory = directory;
+	}
+
+	/** Gets directory of candle files.
+	 * @return Directory */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/** Gets the candle file of a symbol and a time frame. The file is created if it does not exist.
+	 * @param exchangeBrokerName Exchange or broker name
+	 * @param symbol Symbol
+	 * @param timeframe Time frame
+	 * @return Candle file
+	 * @throws IOException If the file cannot be opened */
+	public synchronized CandleFile open(String exchangeBrokerName, String symbol, Timeframe timeframe) throws IOException {
+		String key = exchangeBrokerName.toLowerCase() + "/" + symbol.toUpperCase() + "/" + timeframe;
+		CandleFile file = files.get(key);
+		if (file == null) {
+			file = new CandleFile(path(exchangeBrokerName, symbol, timeframe, ".candles"), timeframe.getSeconds());
+			files.put(key, file);
+		}
+		return file;
+	}
+
+	/** Writes all candles of the candle file of a symbol and a time frame to its archive. The archive is replaced.
+	 * @param exchangeBrokerName Exchange or broker name
+	 * @param symbol Symbol
+	 * @param timeframe Time frame
+	 * @return Size of archive as byte
+	 * @throws IOException If a file cannot be opened or written */
+	public synchronized long archive(String exchangeBrokerName, String symbol, Timeframe timeframe) throws IOException {
+		CandleFile file = open(exchangeBrokerName, symbol, timeframe);
+		return archive.write(path(exchangeBrokerName, symbol, timeframe, ".archive"), file.view().toCandleSeries());
+	}
+
+	/** Reads candles of a range from the archive of a symbol and a time frame.
+	 * @param exchangeBrokerName Exchange or broker name
+	 * @param symbol Symbol
+	 * @param timeframe Time frame
+	 * @param initialDate Initial date and time as seconds since year 1970
+	 * @param finalDate Final date and time as seconds since year 1970
+	 * @return Candles
+	 * @throws IOException If the archive cannot be read, or a block is broken */
+	public CandleSeries readArchive(String exchangeBrokerName, String symbol, Timeframe timeframe, long initialDate, long finalDate) throws IOException {
+		return archive.read(path(exchangeBrokerName, symbol, timeframe, ".archive"), initialDate, finalDate);
+	}
+
+	/** Gets path of a file of a symbol and a time frame.
+	 * @param extension Extension of file, for example ".candles"
+	 * @return Path */
+	private Path path(String exchangeBrokerName, String symbol, Timeframe timeframe, String extension) {
+		return directory.resolve(fileName(exchangeBrokerName.toLowerCase()))
+				.resolve(fileName(symbol.toUpperCase()))
+				.resolve(fileName(timeframe.toString()) + extension);
+	}
+
+	/** Changes characters that cannot be in a file name to "_".
+	 * @param name Name
+	 * @return File name */
+	private String fileName(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			sb.append((Character.isLetterOrDigit(c) || c == '-' || c == '_') ? c : '_');
+		}
+		return sb.toString();
+	}
+
+	/** Writes changes of all open files to the storage device.
+	 * @throws IOException */
+	public synchronized void flush() throws IOException {
+		for (CandleFile file : files.values()) {
+			file.flush();
+		}
+	}
+
+	/** Closes all open files. */
+	public synchronized void close() throws IOException {
+		IOException error = null;
+		for (CandleFile file : files.values()) {
+			try {
+				file.close();
+			}
+			catch (IOException ioe) {
+				error = ioe;
+			}
+		}
+		files.clear();
+		if (error != null) {throw error;}
+	}
+}
\ No newline at end of file
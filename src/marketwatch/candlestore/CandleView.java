@@ -0,0 +1,144 @@
+package marketwatch.candlestore;
+
+import java.nio.ByteBuffer;
+
+import marketwatch.tools.CandleSeries;
+
+/** Read-only columns of candles that are read straight from a mapped candle file. No candle is copied until toCandleSeries function is called.
+ * Records of a view are never changed, so a view can be read by many threads. */
+public class CandleView {
+
+	private final ByteBuffer buffer;
+	/** Index of the first record in the file. */
+	private final int offset;
+	private final int size;
+
+	/** Constructor.
+	 * @param buffer Mapped file
+	 * @param fromIndex Index of the first record (inclusive)
+	 * @param toIndex Index of the last record (exclusive) */
+	CandleView(ByteBuffer buffer, int fromIndex, int toIndex) {
+		this.buffer = buffer;
+		this.offset = fromIndex;
+		this.size = toIndex - fromIndex;
+	}
+
+	/** Gets number of candles.
+	 * @return Number of candles */
+	public int size() {
+		return size;
+	}
+
+	/** Return whether the view has no candle.
+	 * @return True or false */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private int position(int index) {
+		if (index < 0 || index >= size) {
+			throw new ArrayIndexOutOfBoundsException("Index " + index + " is out of bounds for " + size + " candles.");
+		}
+		return CandleFile.headerSize + (offset + index) * CandleFile.recordSize;
+	}
+
+	/** Gets time of a candle.
+	 * @param index Index of candle
+	 * @return Time as seconds since year 1970 */
+	public long time(int index) {
+		return buffer.getLong(position(index));
+	}
+
+	/** Gets open price of a candle.
+	 * @param index Index of candle
+	 * @return Open price */
+	public double open(int index) {
+		return buffer.getDouble(position(index) + 8);
+	}
+
+	/** Gets high price of a candle.
+	 * @param index Index of candle
+	 * @return High price */
+	public double high(int index) {
+		return buffer.getDouble(position(index) + 16);
+	}
+
+	/** Gets low price of a candle.
+	 * @param index Index of candle
+	 * @return Low price */
+	public double low(int index) {
+		return buffer.getDouble(position(index) + 24);
+	}
+
+	/** Gets close price of a candle.
+	 * @param index Index of candle
+	 * @return Close price */
+	public double close(int index) {
+		return buffer.getDouble(position(index) + 32);
+	}
+
+	/** Gets volume of a candle.
+	 * @param index Index of candle
+	 * @return Volume */
+	public double volume(int index) {
+		return buffer.getDouble(position(index) + 40);
+	}
+
+	/** Finds the first candle at or after a specific time by binary search.
+	 * @param second Time as seconds since year 1970
+	 * @return Index of candle, or size() if all candles are before the time */
+	public int indexOf(long second) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (buffer.getLong(CandleFile.headerSize + (offset + middle) * CandleFile.recordSize) < second) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/** Creates a view of some candles. No candle is copied.
+	 * @param fromIndex Index of the first candle (inclusive)
+	 * @param toIndex Index of the last candle (exclusive)
+	 * @return View of candles */
+	public CandleView slice(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+			throw new ArrayIndexOutOfBoundsException("Slice " + fromIndex + " to " + toIndex + " is out of bounds for " + size + " candles.");
+		}
+		return new CandleView(buffer, offset + fromIndex, offset + toIndex);
+	}
+
+	/** Copies candles to a series.
+	 * @return History of currency */
+	public CandleSeries toCandleSeries() {
+		return toCandleSeries(0);
+	}
+
+	/** Copies candles to a series that has room for more candles.
+	 * @param extraCapacity Number of candles that can be added without growing arrays
+	 * @return History of currency */
+	public CandleSeries toCandleSeries(int extraCapacity) {
+		int capacity = size + Math.max(0, extraCapacity);
+		long[] time = new long[capacity];
+		double[] open = new double[capacity];
+		double[] high = new double[capacity];
+		double[] low = new double[capacity];
+		double[] close = new double[capacity];
+		double[] volume = new double[capacity];
+		int position = CandleFile.headerSize + offset * CandleFile.recordSize;
+		for (int i = 0; i < size; i++, position += CandleFile.recordSize) {
+			time[i] = buffer.getLong(position);
+			open[i] = buffer.getDouble(position + 8);
+			high[i] = buffer.getDouble(position + 16);
+			low[i] = buffer.getDouble(position + 24);
+			close[i] = buffer.getDouble(position + 32);
+			volume[i] = buffer.getDouble(position + 40);
+		}
+		return new CandleSeries(time, open, high, low, close, volume, size);
+	}
+}
\ No newline at end of file
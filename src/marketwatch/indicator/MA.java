@@ -1,14 +1,21 @@
 package marketwatch.indicator;
 
-import java.math.*;
+import java.util.Arrays;
 
 import org.json.simple.JSONArray;
 
+import marketwatch.tools.CandleSeries;
+import marketwatch.tools.Variable;
+
 /** Moving Average */
 public class MA {
 	
-	private JSONArray price = new JSONArray();
-	private JSONArray result = new JSONArray();
+	private Variable variable = new Variable();
+	/** Price column. Only the first priceSize elements are valid. */
+	private double[] price = new double[16];
+	private int priceSize;
+	/** Result column. Only the first pointer elements are valid. */
+	private double[] result = new double[16];
 	
 	public enum Type{
 		/** Exponential Moving Average */
@@ -34,41 +41,79 @@ public class MA {
 	
 	/** Resets variables to null or default value. */
 	private void reset() {
-		result.clear();
 		pointer = 0;
 	}
 	
 	/** Gets result of moving average.
+	 * @return Copy of result */
+	public double[] getResult() {
+		return Arrays.copyOf(result, pointer);
+	}
+	
+	/** Gets result of moving average at a candle.
+	 * @param index Index of candle
 	 * @return Result */
-	public JSONArray getResult() {
-		return result;
+	public double getResult(int index) {
+		if (index < 0 || index >= pointer) {
+			throw new ArrayIndexOutOfBoundsException("Index " + index + " is out of bounds for " + pointer + " results.");
+		}
+		return result[index];
+	}
+	
+	/** Gets number of results.
+	 * @return Number of results */
+	public int getResultSize() {
+		return pointer;
 	}
 	
 	/** Gets the last result of moving average.
 	 * @return The last result */
-	public BigDecimal getResultLast() {
-		int lastIndex = result.size() - 1;
-		BigDecimal lastResult = new BigDecimal(result.get(lastIndex).toString()); 
-		return lastResult;
+	public double getResultLast() {
+		return getResult(pointer - 1);
 	}
 
 	/** Removes array of price, sets a new array of price, and calculates moving average.
 	 * @param price Array of price */
 	public void setPrice(JSONArray price) {
 		reset();
-		this.price.clear();
-		this.price = price;
+		priceSize = 0;
+		ensureCapacity(price.size());
+		for (Object element : price) {
+			this.price[priceSize++] = variable.objectToBigDecimal(element).doubleValue();
+		}
+		calculate();
+	}
+	
+	/** Removes array of price, sets close prices of history as a new array of price, and calculates moving average.
+	 * Close prices are read from the close column directly.
+	 * @param history History of currency */
+	public void setPrice(CandleSeries history) {
+		reset();
+		priceSize = 0;
+		ensureCapacity(history.size());
+		for (int i = 0; i < history.size(); i++) {
+			price[priceSize++] = history.close(i);
+		}
 		calculate();
 	}
 	
 	/** Adds new price at the last element of array of price, and calculates moving average.
 	 * @param price New price */
-	@SuppressWarnings("unchecked")
-	public void addPrice(BigDecimal price) {
-		this.price.add(price);
+	public void addPrice(double price) {
+		ensureCapacity(priceSize + 1);
+		this.price[priceSize++] = price;
 		calculate();
 	}
 	
+	/** Makes sure that price and result columns can hold a specific number of elements. Columns grow by half of their size at least.
+	 * @param capacity Number of elements */
+	private void ensureCapacity(int capacity) {
+		if (capacity <= price.length) {return;}
+		int newCapacity = Math.max(capacity, price.length + (price.length >> 1) + 1);
+		price = Arrays.copyOf(price, newCapacity);
+		result = Arrays.copyOf(result, newCapacity);
+	}
+	
 	/** Sets type of moving average.
 	 * @param type Type of moving average */
 	public void setType(Type type) {
@@ -105,96 +150,51 @@ public class MA {
 	/** Calculates exponential moving average at a candle.
 	 * @param index Index of candle to be calculated
 	 * @return Exponential moving average of the candle */
-	private BigDecimal calculateCandle_ema(int index) {
-		// k = 2 / (period + 1)			
-		BigDecimal k = new BigDecimal("2");
-		BigDecimal k1 = new BigDecimal(period);
-		if (index < period) {k1 = new BigDecimal(index + 1);}
-		BigDecimal k2 = new BigDecimal("1");
-		BigDecimal k3 = k1.add(k2);   // period + 1
-		k = k.divide(k3, 4, RoundingMode.HALF_UP);   // 2 / (period + 1)
-		
-		// part1 = price.get(index) * k
-		BigDecimal part1 = new BigDecimal(price.get(index).toString());
-		part1 = part1.multiply(k);
+	private double calculateCandle_ema(int index) {
+		// k = 2 / (period + 1)
+		int n = (index < period) ? index + 1 : period;
+		double k = 2.0 / (n + 1);
 		
-		BigDecimal part2 = new BigDecimal("0");
+		// ema = price[index] * k + result[index - 1] * (1 - k)
+		double ema = price[index] * k;
 		if (index != 0) {
-			// part2 = result.get(index - 1) * (1 - k)
-			BigDecimal part2_1 = new BigDecimal(result.get(index - 1).toString());
-			BigDecimal part2_2 = new BigDecimal("1");
-			BigDecimal part2_3 = part2_2.subtract(k);   // 1 - k
-			part2 = part2_1.multiply(part2_3);   // result.get(index - 1) * (1 - k)
+			ema += result[index - 1] * (1 - k);
 		}
-		
-		// ema = part1 + part2
-		BigDecimal ema = part1.add(part2);
-		
-		ema = ema.setScale(2, RoundingMode.HALF_UP);
 		return ema;
 	}
 	
 	/** Calculates simple moving average at a candle.
 	 * @param index Index of candle to be calculated
 	 * @return Simple moving average of the candle */
-	private BigDecimal calculateCandle_sma(int index) {
-		BigDecimal sma = new BigDecimal("0");
-		
-		if (index == 0) {
-			//Fix blank result of SMA: Calculate index 0
-			// sma = price.get(0)
-			sma = new BigDecimal(price.get(0).toString());
+	private double calculateCandle_sma(int index) {
+		//Fix blank result of SMA: Index 0 to index (period - 2) are averaged over available prices.
+		//Index begins at 0, but period begins at 1.
+		int n = Math.min(index + 1, period);
+		double sum = 0;
+		for (int k = 0; k < n; k++) {
+			sum += price[index - k];
 		}
-		
-		else if (index < period - 1) {   //Index begins at 0, but period begins at 1.
-			//Fix blank result of SMA: Calculate index 1 to index (period - 2).
-			BigDecimal sum = new BigDecimal("0");
-			for (int i = 0; i <= index; i++) {
-				// sum += price.get(i)
-				BigDecimal temp = new BigDecimal(price.get(i).toString());
-				sum = sum.add(temp);
-			}
-			// sma = sum / index
-			BigDecimal ind = new BigDecimal(index);
-			sma = sum.divide(ind, 4, RoundingMode.HALF_UP);
-		}
-		
-		else {
-			//Normal SMA: Calculate index (period - 1) and so on.
-			BigDecimal sum = new BigDecimal("0");
-			for (int k = 0; k < period; k++) {
-				// sum += price.get(index - k)
-				BigDecimal temp = new BigDecimal(price.get(index - k).toString());
-				sum = sum.add(temp);
-			}
-			// sma = sum / period
-			BigDecimal perd = new BigDecimal(period);
-			sma = sum.divide(perd, 4, RoundingMode.HALF_UP);
-		}
-		
-		sma = sma.setScale(2, RoundingMode.HALF_UP);
-		return sma;
+		return sum / n;
 	}
 	
 	/** Calculates moving average at a candle.
 	 * @param index Index of candle to be calculated
 	 * @return Moving average of the candle */
-	private BigDecimal calculateCandle(int index) {
+	private double calculateCandle(int index) {
 		switch (type) {
 		case EMA:
 			return calculateCandle_ema(index);
 		case SMA:
 			return calculateCandle_sma(index);
 		default:
-			return new BigDecimal("-1");
+			return -1;
 		}
 	}
 	
 	/** Calculates moving average from pointer to the last candle. */
-	@SuppressWarnings("unchecked")
 	private void calculate() {
-		while (pointer < price.size()) {
-			result.add(calculateCandle(pointer));
+		while (pointer < priceSize) {
+			result[pointer] = calculateCandle(pointer);
 			pointer++;
 		}
 	}
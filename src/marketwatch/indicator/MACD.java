@@ -1,13 +1,16 @@
 package marketwatch.indicator;
 
-import java.math.*;
+import java.util.Arrays;
 
 import org.json.simple.JSONArray;
 
+import marketwatch.tools.CandleSeries;
+
 /** Moving Average Convergence Divergence */
 public class MACD {
 
-	private JSONArray result = new JSONArray();
+	/** Result column. Only the first pointer elements are valid. */
+	private double[] result = new double[16];
 	private MA ma1;   //Fast moving average
 	private MA ma2;   //Slow moving average
 	private int pointer;
@@ -35,22 +38,28 @@ public class MACD {
 	
 	/** Resets variables to null or default value. */
 	private void reset() {
-		result.clear();
 		pointer = 0;
 	}
 	
 	/** Gets array of result of moving average convergence divergence.
-	 * @return Array of result */
-	public JSONArray getResult() {
-		return result;
+	 * @return Copy of array of result */
+	public double[] getResult() {
+		return Arrays.copyOf(result, pointer);
+	}
+	
+	/** Gets number of results.
+	 * @return Number of results */
+	public int getResultSize() {
+		return pointer;
 	}
 	
 	/** Gets the last result of moving average convergence divergence.
 	 * @return The last result */
-	public BigDecimal getResultLast() {
-		int lastIndex = result.size() - 1;
-		BigDecimal lastResult = new BigDecimal(result.get(lastIndex).toString()); 
-		return lastResult;
+	public double getResultLast() {
+		if (pointer == 0) {
+			throw new ArrayIndexOutOfBoundsException("Index -1 is out of bounds for 0 results.");
+		}
+		return result[pointer - 1];
 	}
 	
 	/** Removes array of price, sets a new array of price, and calculates moving average convergence divergence.
@@ -62,9 +71,19 @@ public class MACD {
 		calculate();
 	}
 
+	/** Removes array of price, sets close prices of history as a new array of price, and calculates moving average convergence divergence.
+	 * Close prices are read from the close column directly.
+	 * @param history History of currency */
+	public void setPrice(CandleSeries history) {
+		reset();
+		ma1.setPrice(history);
+		ma2.setPrice(history);
+		calculate();
+	}
+
 	/** Adds new price at the last element of array of price, and calculates moving average convergence divergence.
 	 * @param prc New price */
-	public void addPrice(BigDecimal prc) {
+	public void addPrice(double prc) {
 		ma1.addPrice(prc);
 		ma2.addPrice(prc);
 		calculate();
@@ -98,17 +117,13 @@ public class MACD {
 	}
 	
 	/** Calculates moving average convergence divergence from pointer to the last candle. */
-	@SuppressWarnings("unchecked")
 	private void calculate() {
-		JSONArray result1 = ma1.getResult();
-		JSONArray result2 = ma2.getResult();
-		while (pointer < result1.size()) {
-			//diff = result1.get(pointer) - result2.get(pointer);
-			BigDecimal diff1 = new BigDecimal(result1.get(pointer).toString());
-			BigDecimal diff2 = new BigDecimal(result2.get(pointer).toString());
-			BigDecimal diff = diff1.subtract(diff2);
-			diff = diff.setScale(2, RoundingMode.HALF_UP);
-			result.add(diff);
+		int size = ma1.getResultSize();
+		if (size > result.length) {
+			result = Arrays.copyOf(result, Math.max(size, result.length + (result.length >> 1) + 1));
+		}
+		while (pointer < size) {
+			result[pointer] = ma1.getResult(pointer) - ma2.getResult(pointer);
 			pointer++;
 		}
 	}
@@ -0,0 +1,145 @@
+package marketwatch.tools;
+
+/** Builds candles of a longer time frame from candles of a shorter time frame, for example 5m, 1h, or 45m from 1m.
+ * A bar starts at a multiple of its length since year 1970 (plus offset), so bars of every time frame line up with the exchange.
+ * Updates are incremental. Only the last bar is built again, because its source candle may still be forming. */
+public class CandleAggregator {
+
+	/** long: Second */
+	private final long length;
+	/** long: Second */
+	private final long offset;
+	private final CandleSeries series = new CandleSeries();
+
+	/** long: Second. Start of the last bar, or Long.MIN_VALUE if there is no bar. */
+	private long barStart = Long.MIN_VALUE;
+	/** long: Second. Time of the last source candle. */
+	private long lastSourceTime = Long.MIN_VALUE;
+	private double barOpen;
+	private double barHigh;
+	private double barLow;
+	private double barClose;
+	private double barVolume;
+
+	/** Constructor.
+	 * Bars start at multiples of their length since year 1970 (UTC).
+	 * @param length Length of a bar as second */
+	public CandleAggregator(long length) {
+		this(length, 0);
+	}
+
+	/** Constructor.
+	 * @param length Length of a bar as second
+	 * @param offset Start of bars after multiples of their length as second, for example -25200 for days that start at 00:00 in UTC+7 */
+	public CandleAggregator(long length, long offset) {
+		if (length <= 0) {throw new IllegalArgumentException("Length of a bar must be positive.");}
+		this.length = length;
+		this.offset = Math.floorMod(offset, length);
+	}
+
+	/** Gets length of a bar.
+	 * @return Length as second */
+	public long getLength() {
+		return length;
+	}
+
+	/** Gets start of the bar that contains a time.
+	 * @param second Time as seconds since year 1970
+	 * @return Start of bar as seconds since year 1970 */
+	public long alignTime(long second) {
+		return Math.floorDiv(second - offset, length) * length + offset;
+	}
+
+	/** Adds a source candle. It must be after the last source candle.
+	 * @param time Time as seconds since year 1970
+	 * @param open Open price
+	 * @param high High price
+	 * @param low Low price
+	 * @param close Close price
+	 * @param volume Volume */
+	public void add(long time, double open, double high, double low, double close, double volume) {
+		if (time <= lastSourceTime) {
+			throw new IllegalArgumentException("Candle at " + time + " is not after the last candle at " + lastSourceTime + ".");
+		}
+		lastSourceTime = time;
+		long start = alignTime(time);
+		if (start != barStart) {
+			barStart = start;
+			barOpen = open;
+			barHigh = high;
+			barLow = low;
+			barClose = close;
+			barVolume = volume;
+			series.add(barStart, barOpen, barHigh, barLow, barClose, barVolume);
+			return;
+		}
+		barHigh = Math.max(barHigh, high);
+		barLow = Math.min(barLow, low);
+		barClose = close;
+		barVolume += volume;
+		series.truncate(series.size() - 1);
+		series.add(barStart, barOpen, barHigh, barLow, barClose, barVolume);
+	}
+
+	/** Adds source candles that are newer than the bars, and builds the last bar again.
+	 * The source may be all candles that are held, because older candles are skipped by binary search. It must have every source candle of the last bar.
+	 * @param source Candles of a shorter time frame */
+	public void update(CandleSeries source) {
+		update(source, this);
+	}
+
+	/** Updates some aggregators by one pass over the source. This is how a whole time frame family is built from one request.
+	 * @param source Candles of a shorter time frame
+	 * @param aggregators Aggregators */
+	public static void update(CandleSeries source, CandleAggregator... aggregators) {
+		int[] from = new int[aggregators.length];
+		int first = source.size();
+		for (int a = 0; a < aggregators.length; a++) {
+			from[a] = aggregators[a].rewind(source);
+			first = Math.min(first, from[a]);
+		}
+		for (int i = first; i < source.size(); i++) {
+			long time = source.time(i);
+			double open = source.open(i);
+			double high = source.high(i);
+			double low = source.low(i);
+			double close = source.close(i);
+			double volume = source.volume(i);
+			for (int a = 0; a < aggregators.length; a++) {
+				if (i >= from[a]) {
+					aggregators[a].add(time, open, high, low, close, volume);
+				}
+			}
+		}
+	}
+
+	/** Removes the last bar, so it is built again from its first source candle.
+	 * @param source Candles of a shorter time frame
+	 * @return Index of the first source candle to be added */
+	private int rewind(CandleSeries source) {
+		if (barStart == Long.MIN_VALUE) {return 0;}
+		series.truncate(series.size() - 1);
+		int index = source.indexOf(barStart);
+		if (index == source.size()) {
+			//No source candle of the last bar. Keep it as it is.
+			series.add(barStart, barOpen, barHigh, barLow, barClose, barVolume);
+			return index;
+		}
+		lastSourceTime = (series.isEmpty()) ? Long.MIN_VALUE : series.lastTime() + length - 1;
+		barStart = series.isEmpty() ? Long.MIN_VALUE : series.lastTime();
+		return index;
+	}
+
+	/** Gets the bars. The last bar may still be forming, and it changes when the aggregator is updated.
+	 * @return Read-only series of bars */
+	public CandleSeries getSeries() {
+		return series.slice(0, series.size());
+	}
+
+	/** Removes all bars. */
+	public void reset() {
+		series.truncate(0);
+		barStart = Long.MIN_VALUE;
+		lastSourceTime = Long.MIN_VALUE;
+	}
+}
\ No newline at end of file
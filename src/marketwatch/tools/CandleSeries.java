@@ -0,0 +1,275 @@
+package marketwatch.tools;
+
+import java.util.Arrays;
+
+import org.json.simple.JSONObject;
+
+/** History of currency as columns of primitive arrays. One candle uses 48 bytes (time, open, high, low, close, and volume).
+ * Candles are sorted by time in ascending order. Time is seconds since year 1970.
+ * A slice shares arrays with its parent series, so it is read-only. */
+public class CandleSeries {
+
+	private long[] time;
+	private double[] open;
+	private double[] high;
+	private double[] low;
+	private double[] close;
+	private double[] volume;
+	/** Index of the first candle in arrays. It is not zero only in a slice. */
+	private final int offset;
+	private int size;
+	private final boolean readOnly;
+
+	/** Constructor.
+	 * Creates an empty series. */
+	public CandleSeries() {
+		this(16);
+	}
+
+	/** Constructor.
+	 * Creates an empty series with specific capacity.
+	 * @param capacity Initial number of candles that can be added without growing arrays */
+	public CandleSeries(int capacity) {
+		this(new long[capacity], new double[capacity], new double[capacity], new double[capacity], new double[capacity], new double[capacity], 0, 0, false);
+	}
+
+	/** Constructor.
+	 * Uses arrays directly without copying. Arrays must not be changed by the caller later, and they must hold size candles at least.
+	 * @param time Time column
+	 * @param open Open column
+	 * @param high High column
+	 * @param low Low column
+	 * @param close Close column
+	 * @param volume Volume column
+	 * @param size Number of valid candles in arrays */
+	public CandleSeries(long[] time, double[] open, double[] high, double[] low, double[] close, double[] volume, int size) {
+		this(time, open, high, low, close, volume, 0, size, false);
+	}
+
+	private CandleSeries(long[] time, double[] open, double[] high, double[] low, double[] close, double[] volume, int offset, int size, boolean readOnly) {
+		this.time = time;
+		this.open = open;
+		this.high = high;
+		this.low = low;
+		this.close = close;
+		this.volume = volume;
+		this.offset = offset;
+		this.size = size;
+		this.readOnly = readOnly;
+	}
+
+	/** Gets number of candles.
+	 * @return Number of candles */
+	public int size() {
+		return size;
+	}
+
+	/** Return whether the series has no candle.
+	 * @return True or false */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Return whether the series is a read-only slice.
+	 * @return True or false */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/** Gets time of a candle.
+	 * @param index Index of candle
+	 * @return Time as seconds since year 1970 */
+	public long time(int index) {
+		return time[offset + checkIndex(index)];
+	}
+
+	/** Gets open price of a candle.
+	 * @param index Index of candle
+	 * @return Open price */
+	public double open(int index) {
+		return open[offset + checkIndex(index)];
+	}
+
+	/** Gets high price of a candle.
+	 * @param index Index of candle
+	 * @return High price */
+	public double high(int index) {
+		return high[offset + checkIndex(index)];
+	}
+
+	/** Gets low price of a candle.
+	 * @param index Index of candle
+	 * @return Low price */
+	public double low(int index) {
+		return low[offset + checkIndex(index)];
+	}
+
+	/** Gets close price of a candle.
+	 * @param index Index of candle
+	 * @return Close price */
+	public double close(int index) {
+		return close[offset + checkIndex(index)];
+	}
+
+	/** Gets volume of a candle.
+	 * @param index Index of candle
+	 * @return Volume */
+	public double volume(int index) {
+		return volume[offset + checkIndex(index)];
+	}
+
+	/** Gets time of the last candle.
+	 * @return Time as seconds since year 1970, or -1 if the series is empty */
+	public long lastTime() {
+		return (size == 0) ? -1 : time[offset + size - 1];
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new ArrayIndexOutOfBoundsException("Index " + index + " is out of bounds for " + size + " candles.");
+		}
+		return index;
+	}
+
+	/** Makes sure that arrays can hold a specific number of candles. Arrays grow by half of their size at least.
+	 * @param capacity Number of candles */
+	public void ensureCapacity(int capacity) {
+		if (readOnly) {throw new UnsupportedOperationException("Slice is read-only.");}
+		int current = Math.min(time.length, Math.min(Math.min(open.length, high.length), Math.min(Math.min(low.length, close.length), volume.length)));
+		if (capacity <= current) {return;}
+		int newCapacity = Math.max(capacity, current + (current >> 1) + 1);
+		time = Arrays.copyOf(time, newCapacity);
+		open = Arrays.copyOf(open, newCapacity);
+		high = Arrays.copyOf(high, newCapacity);
+		low = Arrays.copyOf(low, newCapacity);
+		close = Arrays.copyOf(close, newCapacity);
+		volume = Arrays.copyOf(volume, newCapacity);
+	}
+
+	/** Adds a candle at the end.
+	 * @param time Time as seconds since year 1970
+	 * @param open Open price
+	 * @param high High price
+	 * @param low Low price
+	 * @param close Close price
+	 * @param volume Volume */
+	public void add(long time, double open, double high, double low, double close, double volume) {
+		ensureCapacity(size + 1);
+		this.time[size] = time;
+		this.open[size] = open;
+		this.high[size] = high;
+		this.low[size] = low;
+		this.close[size] = close;
+		this.volume[size] = volume;
+		size++;
+	}
+
+	/** Adds candles of another series at the end. Candles that are not after the last candle are skipped, so overlapping series are not duplicated.
+	 * @param other Series to be added
+	 * @return Number of added candles */
+	public int append(CandleSeries other) {
+		int from = (size == 0) ? 0 : other.indexOf(lastTime() + 1);
+		int count = other.size - from;
+		if (count <= 0) {return 0;}
+		ensureCapacity(size + count);
+		int source = other.offset + from;
+		System.arraycopy(other.time, source, time, size, count);
+		System.arraycopy(other.open, source, open, size, count);
+		System.arraycopy(other.high, source, high, size, count);
+		System.arraycopy(other.low, source, low, size, count);
+		System.arraycopy(other.close, source, close, size, count);
+		System.arraycopy(other.volume, source, volume, size, count);
+		size += count;
+		return count;
+	}
+
+	/** Removes candles from an index to the end. Arrays are not shrunk.
+	 * @param newSize Number of candles to be kept */
+	public void truncate(int newSize) {
+		if (readOnly) {throw new UnsupportedOperationException("Slice is read-only.");}
+		if (newSize < 0 || newSize > size) {
+			throw new ArrayIndexOutOfBoundsException("Size " + newSize + " is out of bounds for " + size + " candles.");
+		}
+		size = newSize;
+	}
+
+	/** Creates a read-only view of some candles. Arrays are shared, so no candle is copied.
+	 * @param fromIndex Index of the first candle (inclusive)
+	 * @param toIndex Index of the last candle (exclusive)
+	 * @return Slice */
+	public CandleSeries slice(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+			throw new ArrayIndexOutOfBoundsException("Slice " + fromIndex + " to " + toIndex + " is out of bounds for " + size + " candles.");
+		}
+		return new CandleSeries(time, open, high, low, close, volume, offset + fromIndex, toIndex - fromIndex, true);
+	}
+
+	/** Finds the first candle at or after a specific time by binary search.
+	 * @param second Time as seconds since year 1970
+	 * @return Index of candle, or size() if all candles are before the time */
+	public int indexOf(long second) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (time[offset + middle] < second) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/** Gets a copy of time column.
+	 * @return Time as seconds since year 1970 */
+	public long[] timeArray() {
+		return Arrays.copyOfRange(time, offset, offset + size);
+	}
+
+	/** Gets a copy of open column.
+	 * @return Open price */
+	public double[] openArray() {
+		return Arrays.copyOfRange(open, offset, offset + size);
+	}
+
+	/** Gets a copy of high column.
+	 * @return High price */
+	public double[] highArray() {
+		return Arrays.copyOfRange(high, offset, offset + size);
+	}
+
+	/** Gets a copy of low column.
+	 * @return Low price */
+	public double[] lowArray() {
+		return Arrays.copyOfRange(low, offset, offset + size);
+	}
+
+	/** Gets a copy of close column.
+	 * @return Close price */
+	public double[] closeArray() {
+		return Arrays.copyOfRange(close, offset, offset + size);
+	}
+
+	/** Gets a copy of volume column.
+	 * @return Volume */
+	public double[] volumeArray() {
+		return Arrays.copyOfRange(volume, offset, offset + size);
+	}
+
+	/** Changes the series to a map of arrays for the console. Keys are "open", "close", "high", "low", "time", and "volume".
+	 * @return Map of history */
+	@SuppressWarnings("unchecked")
+	public JSONObject toJson() {
+		Variable variable = new Variable();
+		JSONObject obj = new JSONObject();
+		obj.put("open", variable.arrayToJsonArray(openArray()));
+		obj.put("close", variable.arrayToJsonArray(closeArray()));
+		obj.put("high", variable.arrayToJsonArray(highArray()));
+		obj.put("low", variable.arrayToJsonArray(lowArray()));
+		obj.put("time", variable.arrayToJsonArray(timeArray()));
+		obj.put("volume", variable.arrayToJsonArray(volumeArray()));
+		return obj;
+	}
+}
\ No newline at end of file
@@ -1,70 +1,512 @@
 package marketwatch.tools;
 
 import java.io.*;
-import java.net.URL;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
 
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+/** Get and post by HTTP. All GetPost objects share one HTTP client, so connections are kept alive and reused by all requests.
+ * HTTP/2 is used if the server supports it. Otherwise, HTTP/1.1 connections are pooled.
+ * The pool is bounded by "jdk.httpclient.connectionPoolSize" and "jdk.httpclient.keepalive.timeout" system properties, which the JDK reads only once, when the first HTTP client of the process is created.
+ * GetPost sets them when it is loaded, so it must be used before any other HTTP client or WebSocket is created, or the properties must be set on the command line.
+ * New and reused HTTPS connections are counted, because every new TLS connection creates an SSL engine.
+ * Connect timeout and read timeout can be set by system properties "marketwatch.http.connectTimeout" and "marketwatch.http.readTimeout" (millisecond),
+ * or by setTimeout function.
+ * Every request is sent without blocking. Functions that return a future complete with null if the request is failed, as the blocking functions do.
+ * Latency of each phase and failures by cause are recorded per endpoint (URL without query), and they can be read by getEndpointStats function. */
 public class GetPost {
-	/** Get a string response form URL. This function may throw an exception.
+
+	/** long: Millisecond */
+	private static volatile long connectTimeout = Long.getLong("marketwatch.http.connectTimeout", 5000);
+	/** long: Millisecond */
+	private static volatile long readTimeout = Long.getLong("marketwatch.http.readTimeout", 10000);
+	private static volatile HttpClient client;
+	/** Completes all responses. I/O does not block these threads, so a few threads can handle many requests in flight. */
+	private static final ExecutorService executor = Executors.newFixedThreadPool(4, runnable -> {
+		Thread thread = new Thread(runnable, "GetPost-executor");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static final AtomicLong requestCount = new AtomicLong();
+	/** Number of responses by HTTP version (ordinal of HttpClient.Version). */
+	private static final AtomicLongArray versionResponseCount = new AtomicLongArray(HttpClient.Version.values().length);
+	private static final AtomicLong timeoutCount = new AtomicLong();
+	/** Number of TLS connections that the HTTP client has opened. */
+	private static final AtomicLong newConnectionCount = new AtomicLong();
+	/** Number of responses of HTTPS requests. */
+	private static final AtomicLong httpsResponseCount = new AtomicLong();
+	/** TLS context of all requests. Null until it is set or the client is created. */
+	private static volatile SSLContext sslContext;
+	private static final AtomicLong errorCount = new AtomicLong();
+
+	/** Cause of a failed request. */
+	public enum FailureCause {
+		/** Host name cannot be resolved. */
+		Dns,
+		/** Connection is refused or reset. */
+		Connect,
+		/** Connection cannot be made before connect timeout. */
+		ConnectTimeout,
+		/** TLS handshake is failed. */
+		Tls,
+		/** Whole response (headers and body) is not received before read timeout. */
+		ReadTimeout,
+		/** Server returned status 400 or above. */
+		HttpStatus,
+		/** Response body cannot be parsed. */
+		Parse,
+		/** Any other cause, for example a malformed URL. */
+		Other,
+	}
+
+	/** Latency and failures of an endpoint. Connect and TLS time are not reported separately by the HTTP client, so they are part of time to first byte when a new connection is made. */
+	public static class EndpointStats {
+		private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+		private final LatencyHistogram download = new LatencyHistogram();
+		private final LatencyHistogram parse = new LatencyHistogram();
+		private final LatencyHistogram total = new LatencyHistogram();
+		private final AtomicLongArray failures = new AtomicLongArray(FailureCause.values().length);
+
+		/** Gets time from sending the request to receiving the status line and headers, which includes DNS, connect, TLS, and server time.
+		 * @return Histogram */
+		public LatencyHistogram getTimeToFirstByte() {
+			return timeToFirstByte;
+		}
+
+		/** Gets time from receiving the headers to receiving the whole body.
+		 * @return Histogram */
+		public LatencyHistogram getDownload() {
+			return download;
+		}
+
+		/** Gets time of parsing the body.
+		 * @return Histogram */
+		public LatencyHistogram getParse() {
+			return parse;
+		}
+
+		/** Gets time of successful requests from sending to parsed result.
+		 * @return Histogram */
+		public LatencyHistogram getTotal() {
+			return total;
+		}
+
+		/** Gets number of failed requests by a cause.
+		 * @param cause Cause
+		 * @return Number of failures */
+		public long getFailureCount(FailureCause cause) {
+			return failures.get(cause.ordinal());
+		}
+
+		/** Removes all values. */
+		public void reset() {
+			timeToFirstByte.reset();
+			download.reset();
+			parse.reset();
+			total.reset();
+			for (int i = 0; i < failures.length(); i++) {
+				failures.set(i, 0);
+			}
+		}
+	}
+
+	private static final ConcurrentHashMap<String, EndpointStats> endpointStats = new ConcurrentHashMap<String, EndpointStats>();
+
+	/** Times and state of a request in flight. */
+	private static class Timing {
+		final EndpointStats stats;
+		/** long: Nanosecond */
+		final long start = System.nanoTime();
+		/** long: Nanosecond */
+		volatile long headers;
+		volatile int status;
+		volatile boolean parsing;
+		/** Set when the whole response is not received before read timeout. */
+		volatile boolean timedOut;
+
+		Timing(EndpointStats stats) {
+			this.stats = stats;
+		}
+	}
+
+	/** TLS context that counts every SSL engine. The HTTP client creates one engine per connection. */
+	private static class CountingSslContext extends SSLContext {
+		CountingSslContext(SSLContext context) {
+			super(new SSLContextSpi() {
+				@Override
+				protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr) throws KeyManagementException {
+					context.init(km, tm, sr);
+				}
+
+				@Override
+				protected SSLSocketFactory engineGetSocketFactory() {
+					return context.getSocketFactory();
+				}
+
+				@Override
+				protected SSLServerSocketFactory engineGetServerSocketFactory() {
+					return context.getServerSocketFactory();
+				}
+
+				@Override
+				protected SSLEngine engineCreateSSLEngine() {
+					newConnectionCount.incrementAndGet();
+					return context.createSSLEngine();
+				}
+
+				@Override
+				protected SSLEngine engineCreateSSLEngine(String host, int port) {
+					newConnectionCount.incrementAndGet();
+					return context.createSSLEngine(host, port);
+				}
+
+				@Override
+				protected SSLSessionContext engineGetServerSessionContext() {
+					return context.getServerSessionContext();
+				}
+
+				@Override
+				protected SSLSessionContext engineGetClientSessionContext() {
+					return context.getClientSessionContext();
+				}
+
+				@Override
+				protected SSLParameters engineGetDefaultSSLParameters() {
+					return context.getDefaultSSLParameters();
+				}
+
+				@Override
+				protected SSLParameters engineGetSupportedSSLParameters() {
+					return context.getSupportedSSLParameters();
+				}
+			}, context.getProvider(), context.getProtocol());
+		}
+	}
+
+	static {
+		//Bounds HTTP/1.1 connection pool, and keeps idle connections alive. These properties are read once by the JDK, when the first HTTP client is created.
+		if (System.getProperty("jdk.httpclient.connectionPoolSize") == null) {
+			System.setProperty("jdk.httpclient.connectionPoolSize", "32");
+		}
+		if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+			System.setProperty("jdk.httpclient.keepalive.timeout", "60");   // Second
+		}
+		client = newClient();
+	}
+
+	/** Creates a new HTTP client with the current connect timeout and TLS context.
+	 * @return HTTP client */
+	private static HttpClient newClient() {
+		SSLContext context = sslContext;
+		if (context == null) {
+			try {
+				context = SSLContext.getDefault();
+			}
+			catch (NoSuchAlgorithmException nsae) {
+				throw new IllegalStateException(nsae);
+			}
+		}
+		return HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.sslContext(new CountingSslContext(context))
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofMillis(connectTimeout))
+				.executor(executor)
+				.build();
+	}
+
+	/** Sets connect timeout and read timeout of all requests.
+	 * The HTTP client is created again, so the current connections are not reused by the next requests.
+	 * @param connect Connect timeout as millisecond
+	 * @param read Read timeout as millisecond */
+	public static synchronized void setTimeout(long connect, long read) {
+		connectTimeout = connect;
+		readTimeout = read;
+		client = newClient();
+	}
+
+	/** Sets TLS context of all requests, for example one that trusts the test key of a local HTTPS Simulator.
+	 * The HTTP client is created again, so the current connections are not reused by the next requests.
+	 * @param context TLS context, or null to use the default context */
+	public static synchronized void setSslContext(SSLContext context) {
+		sslContext = context;
+		client = newClient();
+	}
+
+	/** Gets connect timeout.
+	 * @return Connect timeout as millisecond */
+	public static long getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/** Gets read timeout.
+	 * @return Read timeout as millisecond */
+	public static long getReadTimeout() {
+		return readTimeout;
+	}
+
+	/** Gets number of requests since the application starts.
+	 * @return Number of requests */
+	public static long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/** Gets number of HTTPS connections that have been opened. Plain HTTP connections are not counted, because the HTTP client does not report them.
+	 * @return Number of connections */
+	public static long getNewConnectionCount() {
+		return newConnectionCount.get();
+	}
+
+	/** Gets number of HTTPS responses that were received on a connection that was already open (HTTPS responses minus new HTTPS connections).
+	 * @return Number of responses */
+	public static long getReusedConnectionCount() {
+		return Math.max(0, httpsResponseCount.get() - newConnectionCount.get());
+	}
+
+	/** Gets number of responses of an HTTP version. It shows which protocol the server answers with, not how many connections are opened.
+	 * @param version HTTP version
+	 * @return Number of responses */
+	public static long getResponseCount(HttpClient.Version version) {
+		return versionResponseCount.get(version.ordinal());
+	}
+
+	/** Gets number of requests that have timed out (connect or read).
+	 * @return Number of timeouts */
+	public static long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	/** Gets number of failed requests except timeouts.
+	 * @return Number of errors */
+	public static long getErrorCount() {
+		return errorCount.get();
+	}
+
+	/** Gets endpoint of URL: host and path without scheme and query.
+	 * @param url URL
+	 * @return Endpoint */
+	private static String endpointOf(String url) {
+		int start = url.indexOf("://");
+		start = (start < 0) ? 0 : start + 3;
+		int end = url.indexOf('?', start);
+		return url.substring(start, (end < 0) ? url.length() : end);
+	}
+
+	/** Gets latency and failures of all endpoints that have been requested.
+	 * @return Map of endpoint (host and path) to its statistics, sorted by endpoint */
+	public static Map<String, EndpointStats> getEndpointStats() {
+		return new TreeMap<String, EndpointStats>(endpointStats);
+	}
+
+	/** Removes latency and failures of all endpoints. */
+	public static void resetEndpointStats() {
+		for (EndpointStats stats : endpointStats.values()) {
+			stats.reset();
+		}
+	}
+
+	/** Sends a GET request without blocking, and returns the response body. The future may complete exceptionally.
 	 * @param url URL to get response
-	 * @exception IOException
-	 * @return Response or null */
-	private String getUrlString_private(String url) throws IOException {
-		InputStream is = new URL(url).openStream();
+	 * @param timing Times of the request
+	 * @return Future of response body */
+	private CompletableFuture<byte[]> getUrlBytesAsync_private(String url, Timing timing) {
+		HttpRequest request;
 		try {
-			BufferedReader rd = new BufferedReader(new InputStreamReader(is));
-			String output = rd.readLine();
-			return output;
+			request = HttpRequest.newBuilder(URI.create(url))
+					.timeout(Duration.ofMillis(readTimeout))
+					.GET()
+					.build();
+		}
+		catch (IllegalArgumentException iae) {
+			return CompletableFuture.failedFuture(iae);
+		}
+		requestCount.incrementAndGet();
+		//The body handler is called when the status line and headers are received.
+		HttpResponse.BodyHandler<byte[]> handler = info -> {
+			timing.headers = System.nanoTime();
+			timing.status = info.statusCode();
+			return HttpResponse.BodySubscribers.ofByteArray();
+		};
+		CompletableFuture<HttpResponse<byte[]>> sent = client.sendAsync(request, handler);
+		//The timeout of the request covers only the status line and headers, so a body that stalls is cancelled here.
+		CompletableFuture.delayedExecutor(readTimeout, TimeUnit.MILLISECONDS).execute(() -> {
+			if (!sent.isDone()) {
+				timing.timedOut = true;
+				sent.cancel(true);
+			}
+		});
+		return sent.thenApply(response -> {
+			long now = System.nanoTime();
+			timing.stats.timeToFirstByte.recordNanos(timing.headers - timing.start);
+			timing.stats.download.recordNanos(now - timing.headers);
+			versionResponseCount.incrementAndGet(response.version().ordinal());
+			if ("https".equalsIgnoreCase(response.uri().getScheme())) {
+				httpsResponseCount.incrementAndGet();
+			}
+			if (response.statusCode() >= 400) {
+				throw new CompletionException(new IOException("Server returned HTTP response code: " + response.statusCode() + " for URL: " + url));
+			}
+			return response.body();
+		});
+	}
+
+	/** Finds cause of a failed request.
+	 * @param ex Exception of the request
+	 * @param timing Times of the request
+	 * @return Cause */
+	private static FailureCause causeOf(Throwable ex, Timing timing) {
+		if (timing.timedOut) {return FailureCause.ReadTimeout;}
+		if (timing.parsing) {return FailureCause.Parse;}
+		if (timing.status >= 400) {return FailureCause.HttpStatus;}
+		for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+			if (cause instanceof UnresolvedAddressException || cause instanceof UnknownHostException) {return FailureCause.Dns;}
+			if (cause instanceof HttpConnectTimeoutException) {return FailureCause.ConnectTimeout;}
+			if (cause instanceof HttpTimeoutException) {return FailureCause.ReadTimeout;}
+			if (cause instanceof SSLException) {return FailureCause.Tls;}
 		}
-		finally {
-			is.close();
+		//ConnectException may wrap the exceptions above, so it is checked last.
+		for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+			if (cause instanceof ConnectException) {return FailureCause.Connect;}
 		}
+		return FailureCause.Other;
 	}
-	
+
+	/** Counts a failed request.
+	 * @param ex Cause of failure
+	 * @param timing Times of the request */
+	private void countFailure(Throwable ex, Timing timing) {
+		FailureCause cause = causeOf(ex, timing);
+		timing.stats.failures.incrementAndGet(cause.ordinal());
+		if (cause == FailureCause.ConnectTimeout || cause == FailureCause.ReadTimeout) {
+			timeoutCount.incrementAndGet();
+		}
+		else {
+			errorCount.incrementAndGet();
+		}
+	}
+
+	/** Get the first line of response body as a string.
+	 * @param body Response body
+	 * @return The first line */
+	private String firstLine(byte[] body) {
+		String output = new String(body, StandardCharsets.UTF_8);
+		int end = output.indexOf('\n');
+		if (end >= 0) {
+			output = output.substring(0, (end > 0 && output.charAt(end - 1) == '\r') ? end - 1 : end);
+		}
+		return output;
+	}
+
+	/** Get a string response form URL without blocking.
+	 * @param url URL to get response
+	 * @return Future of response or null */
+	public CompletableFuture<String> getUrlStringAsync(String url) {
+		return getUrlAsync(url, this::firstLine);
+	}
+
 	/** Get a string response form URL.
 	 * @param url URL to get response
 	 * @return Response or null */
 	public String getUrlString(String url) {
-		//This method is for handling exception
-		try {
-			return getUrlString_private(url);
-		}
-		catch(Exception ex) {
-			return null;
-		}
+		return getUrlStringAsync(url).join();
+	}
+
+	/** Parses a response body. */
+	public interface BodyParser<T> {
+		
+		/** Parses a response body. This function may throw an exception.
+		 * @param body Response body
+		 * @return Parsed response
+		 * @throws Exception If the response body cannot be parsed */
+		public T parse(byte[] body) throws Exception;
 	}
-	
-	/** Get a map response form URL. This function may throw an exception.
+
+	/** Get a response form URL without blocking, and parse the response body by a specific parser.
+	 * The body is not changed to a string, so the parser can read bytes directly.
 	 * @param url URL to get response
-	 * @exception IOException
+	 * @param parser Parser of response body
+	 * @return Future of parsed response or null */
+	public <T> CompletableFuture<T> getUrlAsync(String url, BodyParser<T> parser) {
+		Timing timing = new Timing(endpointStats.computeIfAbsent(endpointOf(url), key -> new EndpointStats()));
+		return getUrlBytesAsync_private(url, timing).thenApply(body -> {
+			try {
+				timing.parsing = true;
+				long start = System.nanoTime();
+				T ret = parser.parse(body);
+				long now = System.nanoTime();
+				timing.stats.parse.recordNanos(now - start);
+				timing.stats.total.recordNanos(now - timing.start);
+				return ret;
+			}
+			catch (RuntimeException re) {
+				throw re;
+			}
+			catch (Exception ex) {
+				throw new CompletionException(ex);
+			}
+		}).exceptionally(ex -> {
+			countFailure(ex, timing);
+			return null;
+		});
+	}
+
+	/** Parse response body as a map. This function may throw an exception.
+	 * @param body Response body
 	 * @exception ParseException
-	 * @return Response or null */
-	private JSONObject getUrlMap_private(String url) throws IOException, ParseException {
-		InputStream is = new URL(url).openStream();
-		try {
-			BufferedReader rd = new BufferedReader(new InputStreamReader(is));
-			JSONParser parser = new JSONParser();
-			JSONObject output = (JSONObject)parser.parse(rd.readLine());
-			return output;
-		}
-		finally {
-			is.close();
-		}
+	 * @return Response */
+	private JSONObject parseMap_private(byte[] body) throws ParseException {
+		JSONParser parser = new JSONParser();
+		return (JSONObject)parser.parse(new String(body, StandardCharsets.UTF_8));
+	}
+
+	/** Get a map response form URL without blocking.
+	 * @param url URL to get response
+	 * @return Future of response or null */
+	public CompletableFuture<JSONObject> getUrlMapAsync(String url) {
+		return getUrlAsync(url, this::parseMap_private);
 	}
 
 	/** Get a map response form URL.
 	 * @param url URL to get response
 	 * @return Response or null */
 	public JSONObject getUrlMap(String url) {
-		//This method is for handling exception
-		try {
-			return getUrlMap_private(url);
-		}
-		catch(Exception ex) {
-			return null;
-		}
+		return getUrlMapAsync(url).join();
 	}
 }
\ No newline at end of file
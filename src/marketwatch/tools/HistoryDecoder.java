@@ -0,0 +1,184 @@
+package marketwatch.tools;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Decodes TradingView history response (keys "s", "t", "o", "h", "l", "c", "v") straight into primitive arrays.
+ * The response is read byte by byte by a JsonCursor. No string, map, or boxed number is created for the candles.
+ * Arrays are reused by the next decode, so use one decoder per thread. If they are moved to a series by toCandleSeries function, the next arrays are allocated once at the size of the last response,
+ * and every column after the first is allocated at the size of the first column, so arrays do not grow by doubling. */
+public class HistoryDecoder {
+
+	private final JsonCursor cursor = new JsonCursor("history response");
+
+	private long[] time = new long[0];
+	private double[] open = new double[0];
+	private double[] high = new double[0];
+	private double[] low = new double[0];
+	private double[] close = new double[0];
+	private double[] volume = new double[0];
+	private int size;
+	private String status;
+	/** Size of new arrays. It is the size of the last response, or of the first column of this response if it is larger. */
+	private int capacityHint = 16;
+
+	/** Decodes a response. The previous result is replaced.
+	 * @param json Response body
+	 * @throws IOException If the response is not TradingView history format */
+	public void decode(byte[] json) throws IOException {
+		cursor.reset(json);
+		status = null;
+		int timeSize = 0;
+		int openSize = 0;
+		int highSize = 0;
+		int lowSize = 0;
+		int closeSize = 0;
+		int volumeSize = 0;
+
+		cursor.expect('{');
+		if (!cursor.skip('}')) {
+			do {
+				cursor.readKey();
+				if (cursor.isKey("t")) {
+					time = readLongArray(time);
+					timeSize = lastArraySize;
+				}
+				else if (cursor.isKey("o")) {
+					open = readDoubleArray(open);
+					openSize = lastArraySize;
+				}
+				else if (cursor.isKey("h")) {
+					high = readDoubleArray(high);
+					highSize = lastArraySize;
+				}
+				else if (cursor.isKey("l")) {
+					low = readDoubleArray(low);
+					lowSize = lastArraySize;
+				}
+				else if (cursor.isKey("c")) {
+					close = readDoubleArray(close);
+					closeSize = lastArraySize;
+				}
+				else if (cursor.isKey("v")) {
+					volume = readDoubleArray(volume);
+					volumeSize = lastArraySize;
+				}
+				else if (cursor.isKey("s") && cursor.peek() == '"') {
+					status = cursor.readString();
+				}
+				else {
+					cursor.skipValue();
+				}
+			} while (cursor.nextMember());
+		}
+		//A candle needs all columns. Missing values at the end are cut.
+		size = Math.min(timeSize, Math.min(Math.min(openSize, highSize), Math.min(Math.min(lowSize, closeSize), volumeSize)));
+		capacityHint = Math.max(16, size);
+		cursor.release();
+	}
+
+	/** Gets number of candles.
+	 * @return Number of candles */
+	public int size() {
+		return size;
+	}
+
+	/** Gets status of the response ("ok" or "no_data").
+	 * @return Status, or null if the response has no status */
+	public String getStatus() {
+		return status;
+	}
+
+	/** Gets time column. Only the first size() elements are valid.
+	 * @return Time as seconds since year 1970 */
+	public long[] getTime() {
+		return time;
+	}
+
+	/** Gets open column. Only the first size() elements are valid.
+	 * @return Open price */
+	public double[] getOpen() {
+		return open;
+	}
+
+	/** Gets high column. Only the first size() elements are valid.
+	 * @return High price */
+	public double[] getHigh() {
+		return high;
+	}
+
+	/** Gets low column. Only the first size() elements are valid.
+	 * @return Low price */
+	public double[] getLow() {
+		return low;
+	}
+
+	/** Gets close column. Only the first size() elements are valid.
+	 * @return Close price */
+	public double[] getClose() {
+		return close;
+	}
+
+	/** Gets volume column. Only the first size() elements are valid.
+	 * @return Volume */
+	public double[] getVolume() {
+		return volume;
+	}
+
+	/** Moves the decoded columns to a new series without copying. The decoder uses new arrays of the same size for the next decode.
+	 * @return History of currency */
+	public CandleSeries toCandleSeries() {
+		CandleSeries series = new CandleSeries(time, open, high, low, close, volume, size);
+		time = new long[0];
+		open = new double[0];
+		high = new double[0];
+		low = new double[0];
+		close = new double[0];
+		volume = new double[0];
+		size = 0;
+		return series;
+	}
+
+	//#### Arrays ####
+
+	/** Number of elements of the last array. */
+	private int lastArraySize;
+
+	/** Reads an array of numbers into a reused array. Number of elements is saved in lastArraySize.
+	 * @param arr Array to be reused
+	 * @return The array, or a larger array if it is full */
+	private double[] readDoubleArray(double[] arr) throws IOException {
+		lastArraySize = 0;
+		if (cursor.peek() == 'n') {cursor.skipValue(); return arr;}
+		cursor.expect('[');
+		if (cursor.skip(']')) {return arr;}
+		if (arr.length < capacityHint) {arr = new double[capacityHint];}
+		do {
+			if (lastArraySize == arr.length) {
+				arr = Arrays.copyOf(arr, Math.max(16, arr.length * 2));
+			}
+			arr[lastArraySize++] = cursor.readNumber();
+		} while (cursor.nextElement());
+		capacityHint = Math.max(capacityHint, lastArraySize);
+		return arr;
+	}
+
+	/** Reads an array of integers into a reused array. Number of elements is saved in lastArraySize.
+	 * @param arr Array to be reused
+	 * @return The array, or a larger array if it is full */
+	private long[] readLongArray(long[] arr) throws IOException {
+		lastArraySize = 0;
+		if (cursor.peek() == 'n') {cursor.skipValue(); return arr;}
+		cursor.expect('[');
+		if (cursor.skip(']')) {return arr;}
+		if (arr.length < capacityHint) {arr = new long[capacityHint];}
+		do {
+			if (lastArraySize == arr.length) {
+				arr = Arrays.copyOf(arr, Math.max(16, arr.length * 2));
+			}
+			arr[lastArraySize++] = (long)cursor.readNumber();
+		} while (cursor.nextElement());
+		capacityHint = Math.max(capacityHint, lastArraySize);
+		return arr;
+	}
+}
\ No newline at end of file
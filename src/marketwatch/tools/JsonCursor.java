@@ -0,0 +1,323 @@
+package marketwatch.tools;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/** Reads JSON token by token from bytes of a response or chars of a frame, for decoders that read values straight into primitive fields or arrays.
+ * No string, map, or boxed number is created unless a string is read. Numbers may be quoted.
+ * A cursor is reused by the next reset, so use one cursor per decoder. */
+public class JsonCursor {
+
+	private static final double[] powerOfTen = new double[23];
+	static {
+		powerOfTen[0] = 1;
+		for (int i = 1; i < powerOfTen.length; i++) {
+			powerOfTen[i] = powerOfTen[i - 1] * 10;
+		}
+	}
+
+	/** Name of the document in error messages, for example "history response". */
+	private final String name;
+	/** Bytes of the document, or null if the document is chars. */
+	private byte[] bytes;
+	private CharSequence chars;
+	private int position;
+	private int end;
+	/** Start of the last key. */
+	private int keyStart;
+	/** Length of the last key. */
+	private int keyLength;
+
+	/** Constructor.
+	 * @param name Name of the document in error messages, for example "history response" */
+	public JsonCursor(String name) {
+		this.name = name;
+	}
+
+	/** Starts to read bytes.
+	 * @param json Bytes of the document */
+	public void reset(byte[] json) {
+		bytes = json;
+		chars = null;
+		position = 0;
+		end = json.length;
+	}
+
+	/** Starts to read chars.
+	 * @param json Chars of the document
+	 * @param start Start of the document
+	 * @param end End of the document (exclusive) */
+	public void reset(CharSequence json, int start, int end) {
+		bytes = null;
+		chars = json;
+		position = start;
+		this.end = end;
+	}
+
+	/** Drops the document, so it can be collected while the cursor is kept. */
+	public void release() {
+		bytes = null;
+		chars = null;
+	}
+
+	/** Gets the current position.
+	 * @return Index of the next byte or char */
+	public int getPosition() {
+		return position;
+	}
+
+	private int at(int index) {
+		return (bytes != null) ? bytes[index] : chars.charAt(index);
+	}
+
+	private String text(int start, int end) {
+		return (bytes != null) ? new String(bytes, start, end - start, StandardCharsets.UTF_8) : chars.subSequence(start, end).toString();
+	}
+
+	/** Creates an exception at the current position.
+	 * @param message What is wrong, for example "',' is expected"
+	 * @return Exception to be thrown */
+	public IOException error(String message) {
+		return new IOException("Malformed " + name + " at " + position + ": " + message + ".");
+	}
+
+	/** Skips white spaces, and returns the next byte or char without moving.
+	 * @return The next byte or char
+	 * @throws IOException If the document ends */
+	public int peek() throws IOException {
+		while (position < end) {
+			int c = at(position);
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				return c;
+			}
+			position++;
+		}
+		throw error("unexpected end");
+	}
+
+	/** Skips white spaces, and returns the next byte or char.
+	 * @return The next byte or char
+	 * @throws IOException If the document ends */
+	public int next() throws IOException {
+		int c = peek();
+		position++;
+		return c;
+	}
+
+	/** Skips the next byte or char if it is a specific one.
+	 * @param c Byte or char
+	 * @return True if it is skipped
+	 * @throws IOException If the document ends */
+	public boolean skip(char c) throws IOException {
+		if (peek() != c) {return false;}
+		position++;
+		return true;
+	}
+
+	/** Reads the next byte or char, which must be a specific one.
+	 * @param c Byte or char
+	 * @throws IOException If it is another byte or char */
+	public void expect(char c) throws IOException {
+		if (next() != c) {
+			throw error("'" + c + "' is expected");
+		}
+	}
+
+	/** Reads ',' between members of an object.
+	 * @return True if there is another member, or false if the object ends
+	 * @throws IOException If it is neither ',' nor '}' */
+	public boolean nextMember() throws IOException {
+		int c = next();
+		if (c == '}') {return false;}
+		if (c != ',') {throw error("',' or '}' is expected");}
+		return true;
+	}
+
+	/** Reads ',' between elements of an array.
+	 * @return True if there is another element, or false if the array ends
+	 * @throws IOException If it is neither ',' nor ']' */
+	public boolean nextElement() throws IOException {
+		int c = next();
+		if (c == ']') {return false;}
+		if (c != ',') {throw error("',' or ']' is expected");}
+		return true;
+	}
+
+	/** Reads a key and the ':' after it. The key is not created, and it is compared by isKey function.
+	 * @throws IOException If there is no key */
+	public void readKey() throws IOException {
+		expect('"');
+		keyStart = position;
+		skipStringBody();
+		keyLength = position - keyStart - 1;
+		expect(':');
+	}
+
+	/** Return whether the last key is a specific key. Keys with escapes are not the same as any key.
+	 * @param key Key
+	 * @return True or false */
+	public boolean isKey(String key) {
+		if (keyLength != key.length()) {return false;}
+		for (int i = 0; i < keyLength; i++) {
+			if (at(keyStart + i) != key.charAt(i)) {return false;}
+		}
+		return true;
+	}
+
+	/** Reads a string. Escapes are not changed.
+	 * @return String
+	 * @throws IOException If there is no string */
+	public String readString() throws IOException {
+		expect('"');
+		int start = position;
+		skipStringBody();
+		return text(start, position - 1);
+	}
+
+	/** Moves to the byte or char after the closing quote. The opening quote must have been read. */
+	private void skipStringBody() throws IOException {
+		while (position < end) {
+			int c = at(position++);
+			if (c == '\\') {
+				position++;
+			}
+			else if (c == '"') {
+				return;
+			}
+		}
+		throw error("unterminated string");
+	}
+
+	/** Skips any value (object, array, string, number, true, false, or null).
+	 * @throws IOException If the value does not end */
+	public void skipValue() throws IOException {
+		int c = peek();
+		if (c == '"') {
+			position++;
+			skipStringBody();
+			return;
+		}
+		if (c == '{' || c == '[') {
+			int depth = 0;
+			while (position < end) {
+				c = at(position++);
+				if (c == '"') {
+					skipStringBody();
+				}
+				else if (c == '{' || c == '[') {
+					depth++;
+				}
+				else if (c == '}' || c == ']') {
+					depth--;
+					if (depth == 0) {return;}
+				}
+			}
+			throw error("unterminated value");
+		}
+		while (position < end) {
+			c = at(position);
+			if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+				return;
+			}
+			position++;
+		}
+	}
+
+	private static boolean isNumber(int c) {
+		return c == '-' || (c >= '0' && c <= '9');
+	}
+
+	/** Return whether the next value is a number or a quoted number.
+	 * @return True or false
+	 * @throws IOException If the document ends */
+	public boolean isNumberValue() throws IOException {
+		int c = peek();
+		if (c == '"') {
+			return position + 1 < end && isNumber(at(position + 1));
+		}
+		return isNumber(c);
+	}
+
+	/** Reads a number or a quoted number. Numbers with up to 18 significant digits and a small exponent are calculated without creating a string.
+	 * @return Number
+	 * @throws IOException If there is no number */
+	public double readNumber() throws IOException {
+		boolean quoted = peek() == '"';
+		if (quoted) {position++;}
+		double value = readDouble();
+		if (quoted) {expect('"');}
+		return value;
+	}
+
+	private double readDouble() throws IOException {
+		int start = position;
+		boolean negative = false;
+		if (position < end && at(position) == '-') {
+			negative = true;
+			position++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean point = false;
+		while (position < end) {
+			int c = at(position);
+			if (c >= '0' && c <= '9') {
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (c - '0');
+					if (mantissa != 0) {digits++;}
+					if (point) {scale++;}
+				}
+				else if (!point) {
+					scale--;   //Digits after 18 significant digits only change the magnitude.
+				}
+				position++;
+			}
+			else if (c == '.' && !point) {
+				point = true;
+				position++;
+			}
+			else {
+				break;
+			}
+		}
+		if (position == start || (negative && position == start + 1)) {
+			throw error("number is expected");
+		}
+		if (position < end && (at(position) == 'e' || at(position) == 'E')) {
+			//Rare in responses. Let the JDK handle it exactly.
+			position++;
+			if (position < end && (at(position) == '+' || at(position) == '-')) {
+				position++;
+			}
+			while (position < end && at(position) >= '0' && at(position) <= '9') {
+				position++;
+			}
+			return parse(start);
+		}
+		double value;
+		if (mantissa >= (1L << 53)) {
+			//Mantissa is not exact as double, so the result may be rounded twice.
+			return parse(start);
+		}
+		else if (scale > 0 && scale < powerOfTen.length) {
+			value = mantissa / powerOfTen[scale];
+		}
+		else if (scale <= 0 && -scale < powerOfTen.length) {
+			value = mantissa * powerOfTen[-scale];
+		}
+		else {
+			return parse(start);
+		}
+		return negative ? -value : value;
+	}
+
+	private double parse(int start) throws IOException {
+		try {
+			return Double.parseDouble(text(start, position));
+		}
+		catch (NumberFormatException nfe) {
+			throw error("number is expected");
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,117 @@
+package marketwatch.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Histogram of latency with fixed log-linear buckets, like HDR histogram.
+ * Values below 16 microseconds have their own bucket. Each larger power of two is split into 16 buckets, so a bucket is at most about 6% wide.
+ * Recording is lock-free and creates no object, so it can be called on every request. */
+public class LatencyHistogram {
+
+	private static final int subBucketBits = 4;
+	private static final int subBuckets = 1 << subBucketBits;
+	/** Values up to 2^40 microseconds (about 12 days) are recorded in their own bucket. Larger values are put in the last bucket. */
+	private static final int maxExponent = 40;
+	private static final int bucketCount = (maxExponent - subBucketBits + 2) * subBuckets;
+
+	private final AtomicLongArray counts = new AtomicLongArray(bucketCount);
+	private final AtomicLong count = new AtomicLong();
+	/** long: Microsecond */
+	private final AtomicLong sum = new AtomicLong();
+	/** long: Microsecond */
+	private final AtomicLong max = new AtomicLong();
+
+	/** Gets bucket of a value.
+	 * @param micro Value as microsecond
+	 * @return Index of bucket */
+	private static int bucketOf(long micro) {
+		if (micro < subBuckets) {return (int)Math.max(0, micro);}
+		int exponent = 63 - Long.numberOfLeadingZeros(micro);
+		if (exponent > maxExponent) {return bucketCount - 1;}
+		int sub = (int)(micro >>> (exponent - subBucketBits)) & (subBuckets - 1);
+		return (exponent - subBucketBits + 1) * subBuckets + sub;
+	}
+
+	/** Gets the largest value of a bucket.
+	 * @param index Index of bucket
+	 * @return Value as microsecond */
+	private static long upperBoundOf(int index) {
+		if (index < subBuckets) {return index;}
+		int exponent = index / subBuckets + subBucketBits - 1;
+		int sub = index % subBuckets;
+		long lower = (long)(subBuckets + sub) << (exponent - subBucketBits);
+		return lower + (1L << (exponent - subBucketBits)) - 1;
+	}
+
+	/** Records a value.
+	 * @param nano Latency as nanosecond */
+	public void recordNanos(long nano) {
+		long micro = Math.max(0, nano / 1000);
+		counts.incrementAndGet(bucketOf(micro));
+		count.incrementAndGet();
+		sum.addAndGet(micro);
+		long previous = max.get();
+		while (micro > previous && !max.compareAndSet(previous, micro)) {
+			previous = max.get();
+		}
+	}
+
+	/** Gets number of values.
+	 * @return Number of values */
+	public long getCount() {
+		return count.get();
+	}
+
+	/** Gets mean of values.
+	 * @return Mean as millisecond, or 0 if there is no value */
+	public double getMean() {
+		long n = count.get();
+		return (n == 0) ? 0 : sum.get() / 1000.0 / n;
+	}
+
+	/** Gets the largest value.
+	 * @return Maximum as millisecond */
+	public double getMax() {
+		return max.get() / 1000.0;
+	}
+
+	/** Gets a percentile. The result is the largest value of the bucket that holds the percentile, so it is at most about 6% too high.
+	 * @param percent Percentile from 0 to 100
+	 * @return Value as millisecond, or 0 if there is no value */
+	public double getPercentile(double percent) {
+		long n = 0;
+		long[] snapshot = new long[bucketCount];
+		for (int i = 0; i < bucketCount; i++) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0) {return 0;}
+		long rank = Math.max(1, (long)Math.ceil(Math.min(100, Math.max(0, percent)) / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < bucketCount; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), max.get()) / 1000.0;
+			}
+		}
+		return getMax();
+	}
+
+	/** Removes all values. Values that are recorded at the same time may be lost. */
+	public void reset() {
+		for (int i = 0; i < bucketCount; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/** Changes the histogram to a line for the console.
+	 * @return Count, mean, p50, p95, p99, and maximum as millisecond */
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.1f p50=%.1f p95=%.1f p99=%.1f max=%.1f ms",
+				getCount(), getMean(), getPercentile(50), getPercentile(95), getPercentile(99), getMax());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,226 @@
+package marketwatch.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/** Builds candles of some time frames at once from ticks (time and price), for example from ticker polls.
+ * A bar closes when the newest tick is later than the end of the bar plus the watermark, so ticks that come late or out of order still count.
+ * Ticks of a bar that has closed are dropped. Closed bars are sent to subscribers in time order. */
+public class TickCandleBuilder {
+
+	/** Receives closed bars. */
+	public interface Subscriber {
+		/** Called when a bar closes.
+		 * @param length Length of the bar as second
+		 * @param time Start of the bar as seconds since year 1970
+		 * @param open Open price
+		 * @param high High price
+		 * @param low Low price
+		 * @param close Close price
+		 * @param volume Volume */
+		public void barClosed(long length, long time, double open, double high, double low, double close, double volume);
+	}
+
+	/** Forming bar. */
+	private static class Bar {
+		final long length;
+		final long time;
+		double open;
+		double high;
+		double low;
+		double close;
+		double volume;
+		/** long: Second. Time of the tick of open price. */
+		long openTick;
+		/** long: Second. Time of the tick of close price. */
+		long closeTick;
+
+		Bar(long length, long time, long tick, double price) {
+			this.length = length;
+			this.time = time;
+			open = price;
+			high = price;
+			low = price;
+			close = price;
+			openTick = tick;
+			closeTick = tick;
+		}
+	}
+
+	/** long: Second */
+	private final long[] lengths;
+	/** long: Second */
+	private final long watermark;
+	/** Forming bars of each time frame by start time. */
+	private final List<TreeMap<Long, Bar>> formingBars = new ArrayList<TreeMap<Long, Bar>>();
+	/** long: Second. Bars of each time frame that start before it are closed. */
+	private final long[] closedBefore;
+	/** long: Second */
+	private long newestTick = Long.MIN_VALUE;
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+
+	private long tickCount;
+	private long lateTickCount;
+
+	/** Constructor.
+	 * @param watermark Time that a bar waits for late ticks after its end as second
+	 * @param lengths Lengths of bars of each time frame as second */
+	public TickCandleBuilder(long watermark, long... lengths) {
+		this.watermark = Math.max(0, watermark);
+		this.lengths = lengths.clone();
+		closedBefore = new long[lengths.length];
+		for (int i = 0; i < lengths.length; i++) {
+			if (lengths[i] <= 0) {throw new IllegalArgumentException("Length of a bar must be positive.");}
+			formingBars.add(new TreeMap<Long, Bar>());
+			closedBefore[i] = Long.MIN_VALUE;
+		}
+	}
+
+	/** Adds a subscriber.
+	 * @param subscriber Subscriber */
+	public void subscribe(Subscriber subscriber) {
+		subscribers.add(subscriber);
+	}
+
+	/** Removes a subscriber.
+	 * @param subscriber Subscriber */
+	public void unsubscribe(Subscriber subscriber) {
+		subscribers.remove(subscriber);
+	}
+
+	/** Adds a tick without volume.
+	 * @param time Time as seconds since year 1970
+	 * @param price Price */
+	public void tick(long time, double price) {
+		tick(time, price, 0);
+	}
+
+	/** Adds a tick. Bars that close by this tick are sent to subscribers before the function returns.
+	 * @param time Time as seconds since year 1970
+	 * @param price Price
+	 * @param volume Volume of the tick */
+	public void tick(long time, double price, double volume) {
+		List<Bar> closed;
+		synchronized (this) {
+			tickCount++;
+			boolean late = false;
+			for (int i = 0; i < lengths.length; i++) {
+				long start = Math.floorDiv(time, lengths[i]) * lengths[i];
+				if (start < closedBefore[i]) {
+					late = true;
+					continue;
+				}
+				Bar bar = formingBars.get(i).get(start);
+				if (bar == null) {
+					bar = new Bar(lengths[i], start, time, price);
+					formingBars.get(i).put(start, bar);
+				}
+				else {
+					if (time < bar.openTick) {
+						bar.open = price;
+						bar.openTick = time;
+					}
+					if (time >= bar.closeTick) {
+						bar.close = price;
+						bar.closeTick = time;
+					}
+					bar.high = Math.max(bar.high, price);
+					bar.low = Math.min(bar.low, price);
+				}
+				bar.volume += volume;
+			}
+			if (late) {lateTickCount++;}
+			newestTick = Math.max(newestTick, time);
+			closed = close(newestTick - watermark);
+		}
+		publish(closed);
+	}
+
+	/** Closes bars that end before a time, even if there is no new tick, for example when the market is quiet.
+	 * @param time Time as seconds since year 1970 */
+	public void advance(long time) {
+		List<Bar> closed;
+		synchronized (this) {
+			newestTick = Math.max(newestTick, time);
+			closed = close(newestTick - watermark);
+		}
+		publish(closed);
+	}
+
+	/** Sets a candle as the forming bar of a time frame, for example the last candle of history, so the bar has its real open price.
+	 * Bars before it are treated as closed.
+	 * @param length Length of the time frame as second
+	 * @param time Start of the candle as seconds since year 1970
+	 * @param open Open price
+	 * @param high High price
+	 * @param low Low price
+	 * @param close Close price
+	 * @param volume Volume */
+	public synchronized void seed(long length, long time, double open, double high, double low, double close, double volume) {
+		for (int i = 0; i < lengths.length; i++) {
+			if (lengths[i] != length) {continue;}
+			long start = Math.floorDiv(time, length) * length;
+			Bar bar = new Bar(length, start, start, open);
+			bar.high = high;
+			bar.low = low;
+			bar.close = close;
+			bar.volume = volume;
+			formingBars.get(i).headMap(start + 1).clear();
+			formingBars.get(i).put(start, bar);
+			closedBefore[i] = Math.max(closedBefore[i], start);
+		}
+	}
+
+	/** Removes bars that end at or before a time. Builder must be locked.
+	 * @return Closed bars in time order */
+	private List<Bar> close(long limit) {
+		List<Bar> closed = new ArrayList<Bar>();
+		for (int i = 0; i < lengths.length; i++) {
+			TreeMap<Long, Bar> bars = formingBars.get(i);
+			while (!bars.isEmpty() && bars.firstKey() + lengths[i] <= limit) {
+				closed.add(bars.pollFirstEntry().getValue());
+			}
+			closedBefore[i] = Math.max(closedBefore[i], Math.floorDiv(limit, lengths[i]) * lengths[i]);
+		}
+		closed.sort((a, b) -> (a.time + a.length != b.time + b.length) ? Long.compare(a.time + a.length, b.time + b.length) : Long.compare(a.length, b.length));
+		return closed;
+	}
+
+	private void publish(List<Bar> closed) {
+		for (Bar bar : closed) {
+			for (Subscriber subscriber : subscribers) {
+				subscriber.barClosed(bar.length, bar.time, bar.open, bar.high, bar.low, bar.close, bar.volume);
+			}
+		}
+	}
+
+	/** Gets forming bars of a time frame. There are more than one bar only while the previous bar waits for late ticks.
+	 * @param length Length of the time frame as second
+	 * @return Forming bars in time order, or an empty series if the time frame is not built */
+	public synchronized CandleSeries getFormingBars(long length) {
+		CandleSeries ret = new CandleSeries(2);
+		for (int i = 0; i < lengths.length; i++) {
+			if (lengths[i] != length) {continue;}
+			for (Map.Entry<Long, Bar> entry : formingBars.get(i).entrySet()) {
+				Bar bar = entry.getValue();
+				ret.add(bar.time, bar.open, bar.high, bar.low, bar.close, bar.volume);
+			}
+		}
+		return ret;
+	}
+
+	/** Gets number of ticks.
+	 * @return Number of ticks */
+	public synchronized long getTickCount() {
+		return tickCount;
+	}
+
+	/** Gets number of ticks that came after their bar had closed, in any time frame.
+	 * @return Number of ticks */
+	public synchronized long getLateTickCount() {
+		return lateTickCount;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,123 @@
+package marketwatch.tools;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Time frame of candles: a length of any number of minutes.
+ * Common time frames are constants, and other time frames (for example "3m" or "2h") are created once and shared, so time frames can be compared by ==.
+ * Parse a string once when a watcher or a request is set up, and use the time frame afterwards, so the length and the alignment are never parsed again. */
+public final class Timeframe implements Comparable<Timeframe> {
+
+	/** Shared time frames by length as second. */
+	private static final ConcurrentHashMap<Long, Timeframe> timeframes = new ConcurrentHashMap<Long, Timeframe>();
+
+	public static final Timeframe M1 = ofMinutes(1);
+	public static final Timeframe M5 = ofMinutes(5);
+	public static final Timeframe M15 = ofMinutes(15);
+	public static final Timeframe M30 = ofMinutes(30);
+	public static final Timeframe H1 = ofMinutes(60);
+	public static final Timeframe H4 = ofMinutes(60 * 4);
+	public static final Timeframe D1 = ofMinutes(60 * 24);
+
+	/** long: Second */
+	private final long length;
+	/** Name in bridge format, for example "5m", "4h", or "1d". */
+	private final String name;
+
+	private Timeframe(long length) {
+		this.length = length;
+		long minutes = length / 60;
+		if (minutes % (60 * 24) == 0) {
+			name = (minutes / (60 * 24)) + "d";
+		}
+		else if (minutes % 60 == 0) {
+			name = (minutes / 60) + "h";
+		}
+		else {
+			name = minutes + "m";
+		}
+	}
+
+	/** Gets a time frame of a number of minutes.
+	 * @param minutes Number of minutes
+	 * @return Shared time frame */
+	public static Timeframe ofMinutes(long minutes) {
+		if (minutes <= 0) {throw new IllegalArgumentException("Time frame must be positive.");}
+		return timeframes.computeIfAbsent(minutes * 60, Timeframe::new);
+	}
+
+	/** Changes a string to a time frame. Any number of minutes, hours, or days is accepted, for example "1m", "60m", "4H", or "1d".
+	 * @param timeframe Time frame (bridge format)
+	 * @return Shared time frame, or null if the time frame is incorrect */
+	public static Timeframe parse(String timeframe) {
+		if (timeframe == null || timeframe.length() < 2) {return null;}
+		long unit;
+		switch (timeframe.charAt(timeframe.length() - 1)) {
+		case 'm': case 'M':		unit = 1; break;
+		case 'h': case 'H':		unit = 60; break;
+		case 'd': case 'D':		unit = 60 * 24; break;
+		default:				return null;
+		}
+		long number = 0;
+		for (int i = 0; i < timeframe.length() - 1; i++) {
+			char c = timeframe.charAt(i);
+			if (c < '0' || c > '9' || number > 100000) {return null;}
+			number = number * 10 + (c - '0');
+		}
+		return (number == 0) ? null : ofMinutes(number * unit);
+	}
+
+	/** Gets length of a candle.
+	 * @return Second */
+	public long getSeconds() {
+		return length;
+	}
+
+	/** Gets length of a candle.
+	 * @return Millisecond */
+	public long getMillisecond() {
+		return length * 1000;
+	}
+
+	/** Gets start of the candle that contains a time. Candles start at multiples of their length since year 1970 (UTC).
+	 * @param second Time as seconds since year 1970
+	 * @return Start of candle as seconds since year 1970 */
+	public long alignSecond(long second) {
+		return Math.floorDiv(second, length) * length;
+	}
+
+	/** Gets start of the candle after the candle that contains a time.
+	 * @param second Time as seconds since year 1970
+	 * @return Start of the next candle as seconds since year 1970 */
+	public long nextStart(long second) {
+		return alignSecond(second) + length;
+	}
+
+	/** Return whether candles of this time frame can be built from candles of another time frame.
+	 * @param source Shorter time frame
+	 * @return True if the length is a multiple of the length of the source */
+	public boolean isMultipleOf(Timeframe source) {
+		return length % source.length == 0;
+	}
+
+	@Override
+	public int compareTo(Timeframe other) {
+		return Long.compare(length, other.length);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Timeframe && ((Timeframe)obj).length == length;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(length);
+	}
+
+	/** Gets name in bridge format.
+	 * @return Name, for example "5m", "4h", or "1d" */
+	@Override
+	public String toString() {
+		return name;
+	}
+}
\ No newline at end of file
@@ -12,19 +12,11 @@ public class TradingView {
 	}
 	
 	/** Change Time frame to millisecond, and return millisecond.
+	 * Any number of minutes, hours, or days is accepted, for example "3m", "2h", or "3d". Parse a Timeframe once instead if the length is used again.
 	 * @param timeframe Time frame
-	 * @return Millisecond */
+	 * @return Millisecond, or -1 if the time frame is incorrect */
 	public long TimeframeToMillisecond(String timeframe) {
-		switch (timeframe.toLowerCase()) {
-		case "1m":		{return 1000 * 60 * 1;}
-		case "5m":		{return 1000 * 60 * 5;}
-		case "15m":		{return 1000 * 60 * 15;}
-		case "30m":		{return 1000 * 60 * 30;}
-		case "60m":		{return 1000 * 60 * 60;}
-		case "1h":		{return 1000 * 60 * 60 * 1;}
-		case "4h":		{return 1000 * 60 * 60 * 4;}
-		case "1d":		{return 1000 * 60 * 60 * 24;}
-		default:		{return -1;}
-		}
+		Timeframe value = Timeframe.parse(timeframe);
+		return (value == null) ? -1 : value.getMillisecond();
 	}
 }
\ No newline at end of file
@@ -130,10 +130,13 @@ public class Variable {
 		return bd;
 	}
 	
-	/** Convert object to big decimal.
+	/** Convert object to big decimal. Big decimal is returned directly without parsing.
 	 * @param str Number as object
 	 * @return Number as double. Return value may be inaccurate due to floating-point variable. */
 	public BigDecimal objectToBigDecimal(Object obj) {
+		if (obj instanceof BigDecimal) {
+			return (BigDecimal)obj;
+		}
 		BigDecimal bd = new BigDecimal(obj.toString());
 		return bd;
 	}